@@ -2,15 +2,53 @@ package org.marasm.basicscript;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.marasm.basicscript.batch.BatchRunner;
+import org.marasm.basicscript.bench.Bench;
+import org.marasm.basicscript.cache.OutputCache;
+import org.marasm.basicscript.checkpoint.Checkpoint;
+import org.marasm.basicscript.checkpoint.Checkpointer;
+import org.marasm.basicscript.monitor.JasicMetrics;
+import org.marasm.basicscript.monitor.Phases;
+import org.marasm.basicscript.parallel.Forks;
+import org.marasm.basicscript.profile.Profiler;
+import org.marasm.basicscript.profile.RunProfile;
+import org.marasm.basicscript.profile.Sampler;
+import org.marasm.basicscript.server.Client;
+import org.marasm.basicscript.server.Server;
+import org.marasm.basicscript.trace.TraceRecorder;
+import org.marasm.basicscript.parallel.WorkerPool;
+import org.marasm.basicscript.statements.ForStatement;
 import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.stream.RecordStream;
+import org.marasm.basicscript.store.HeapVariableStore;
+import org.marasm.basicscript.store.OffHeapVariableStore;
+import org.marasm.basicscript.store.SharedVariables;
+import org.marasm.basicscript.store.TracingVariableStore;
+import org.marasm.basicscript.store.VariableStore;
 import org.marasm.basicscript.tokens.Token;
+import org.marasm.basicscript.tools.AutoParallelizer;
+import org.marasm.basicscript.tools.Determinism;
+import org.marasm.basicscript.tools.FlowOptimizer;
+import org.marasm.basicscript.tools.NumericCompiler;
+import org.marasm.basicscript.tools.ParallelArrays;
+import org.marasm.basicscript.tools.Superblocks;
+import org.marasm.basicscript.tools.Superinstructions;
+import org.marasm.basicscript.values.NumberValue;
 import org.marasm.basicscript.values.Value;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -70,6 +108,37 @@ import java.util.stream.Collectors;
  * <p>
  * if a < b then dosomething
  * <p>
+ * for <name> = <expression> to <expression> [step <expression>]
+ * next [<name>]
+ * Runs the statements between "for" and "next" once for every value of the
+ * variable from the first expression up to the second, counting by the step
+ * (1 if it's left out). The bound and the step are evaluated once, when the
+ * loop starts. Loops can be nested.
+ * <p>
+ * for i = 1 to 10
+ * print i
+ * next i
+ * <p>
+ * parallel for <name> = <expression> to <expression> [step <expression>]
+ * [reduce <operator> <name>, ...]
+ * A "for" loop whose iterations don't depend on each other, spread across
+ * threads. Each thread works on its own copy of the variables, so only the
+ * reduction variables (combined with +, *, min or max) come out of the
+ * loop, along with arrays: the threads share those, and can fill in their
+ * elements, but only if the array was filled to its full size before the
+ * loop. Printed lines come out in the same order as in a normal loop.
+ * <p>
+ * parallel for row = 0 to 99 reduce + total
+ * <p>
+ * <p>
+ * Variables whose names start with "shared." are shared by every
+ * interpreter in the process (and by the threads of a parallel loop)
+ * instead of belonging to one. An assignment that applies an operator to
+ * the variable it assigns is atomic, so concurrent scripts can count or sum
+ * into one without losing updates. Shared variables can't be arrays.
+ * <p>
+ * shared.hits = shared.hits + 1
+ * <p>
  * <p>
  * The following expressions are supported:
  *
@@ -90,6 +159,29 @@ import java.util.stream.Collectors;
  * <name>
  * A name in an expression simply returns the value of the variable with
  * that name. If the variable was never set, it defaults to 0.
+ *
+ * <name>[<expression>]
+ * Returns an element of the array stored in the variable. Assigning to an
+ * element creates the array if needed, and so do fill() and copy(). Elements
+ * that were never set default to 0. Arrays can be nested: a[i][j].
+ * <p>
+ * a[i] = a[i - 1] * 2
+ * <p>
+ * <name>(<expression>, ...)
+ * Calls a built-in function: abs, sqrt, floor, ceil, round, trunc, sgn, sin,
+ * cos, tan, atan, exp, log, min, max, pow, atan2, mod, rnd, timer, len, find,
+ * val, substr, str, sum, fill and copy. A call can also be used on its own
+ * line as a statement.
+ * <p>
+ * d = sqrt(x * x + y * y)
+ * <p>
+ * def fn <name>(<name>, ...) = <expression>
+ * Defines a function that can be called like a built-in one from anywhere
+ * after the definition. The expression can use the parameters and any
+ * variables. Small functions are inlined where they are called, and the
+ * results of bigger ones that only use their parameters are cached.
+ * <p>
+ * def fn hyp(x, y) = sqrt(x * x + y * y)
  * <p>
  * All binary operators have the same precedence. Sorry, I had to cut corners
  * somewhere.
@@ -101,20 +193,167 @@ import java.util.stream.Collectors;
  * @author Bob Nystrom
  */
 public class Jasic {
+    /**
+     * The values of all of the variables. Compiled code reaches them by slot.
+     */
+    @Getter
+    private final VariableStore store;
 
+    /**
+     * A live view of the variable store by name, for the host and for code
+     * that looks variables up by name.
+     */
     @Getter
     private final Map<String, Value> variables;
 
+    /**
+     * The variables whose names start with "shared.", which other
+     * interpreters can see and change at the same time.
+     */
+    @Getter
+    @Setter
+    private SharedVariables shared = SharedVariables.global();
+
     // Tokenizing (lexing) -----------------------------------------------------
     @Getter
     private final Map<String, Integer> labels;
 
     // Interpreter -------------------------------------------------------------
     @Getter
-    private final BufferedReader lineIn;
+    @Setter
+    private BufferedReader lineIn;
+    /**
+     * Where "print" writes to.
+     */
+    @Getter
+    @Setter
+    private PrintStream out = System.out;
     @Getter
     @Setter
     private int currentStatement;
+    /**
+     * The index of the statement that is running, or -1, for a
+     * {@link Sampler} to read from another thread. Only kept up to date
+     * while the interpreter is sampled.
+     */
+    private final AtomicInteger executing = new AtomicInteger(-1);
+    /**
+     * True while a {@link Sampler} watches this interpreter.
+     */
+    @Getter
+    @Setter
+    private boolean sampled;
+    @Getter
+    private List<Statement> statements;
+    /**
+     * The source of the last script compiled, so workers can compile it too.
+     */
+    @Getter
+    private String source;
+
+    /**
+     * How many statements of the last script were replaced by each kind of
+     * superinstruction.
+     */
+    @Getter
+    private final Map<String, Integer> fusionCounts;
+
+    /**
+     * How many results each pure user-defined function remembers. 0 turns
+     * the caches off.
+     */
+    @Getter
+    @Setter
+    private int memoCacheSize = 256;
+
+    /**
+     * How many threads parallel loops are spread across.
+     */
+    @Getter
+    @Setter
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * True if this interpreter runs part of a parallel loop for another one.
+     * Parallel loops nested in it just run sequentially.
+     */
+    @Getter
+    @Setter
+    private boolean worker;
+    private WorkerPool workers;
+
+    /**
+     * True to look for loops built out of labels and jumps that can run in
+     * parallel, and run them that way.
+     */
+    @Getter
+    @Setter
+    private boolean autoParallel;
+
+    /**
+     * Takes checkpoints of the run while it goes, if set.
+     */
+    @Getter
+    @Setter
+    private Checkpointer checkpointer;
+
+    /**
+     * Where the statements and jumps this interpreter runs are counted, if
+     * set.
+     */
+    @Getter
+    @Setter
+    private JasicMetrics metrics;
+
+    /**
+     * Runs the phases of the pipeline, and times and dumps them on request.
+     */
+    @Getter
+    private final Phases phases = new Phases();
+
+    /**
+     * Records every jump of the runs of this interpreter, if set.
+     */
+    @Getter
+    @Setter
+    private TraceRecorder tracer;
+
+    /**
+     * A profile of an earlier run of the script, to compile its hot paths
+     * into superblocks with, if set.
+     */
+    @Getter
+    @Setter
+    private RunProfile profileFeedback;
+
+    /**
+     * Where runs record how often each statement ran and jumped, for later
+     * runs to use as feedback, if set.
+     */
+    @Getter
+    @Setter
+    private RunProfile profileRecording;
+
+    /**
+     * Profiles every statement of the scripts compiled from now on, if set.
+     */
+    @Getter
+    @Setter
+    private Profiler profiler;
+
+    /**
+     * What the last script compiled with {@link #autoParallel} on found out
+     * about each of its loops.
+     */
+    @Getter
+    private final List<String> parallelReport = new ArrayList<>();
+
+    /**
+     * True if the last script compiled depends on nothing but its source
+     * (see {@link Determinism}).
+     */
+    @Getter
+    private boolean deterministic;
 
     /**
      * Constructs a new Jasic instance. The instance stores the global state of
@@ -122,8 +361,20 @@ public class Jasic {
      * current statement.
      */
     public Jasic() {
-        variables = new HashMap<>();
+        this(new HeapVariableStore());
+    }
+
+    /**
+     * Constructs a new Jasic instance that keeps its variables in the given
+     * store.
+     *
+     * @param store The variable store.
+     */
+    public Jasic(VariableStore store) {
+        this.store = store;
+        variables = store.asMap();
         labels = new HashMap<>();
+        fusionCounts = new LinkedHashMap<>();
 
         InputStreamReader converter = new InputStreamReader(System.in);
         lineIn = new BufferedReader(converter);
@@ -132,24 +383,401 @@ public class Jasic {
     /**
      * Runs the interpreter as a command-line app. Takes one argument: a path
      * to a script file to load and run. The script should contain one
-     * statement per line.
+     * statement per line. "jasic bench ..." times a script instead (see
+     * {@link Bench}), "jasic serve ..." starts a server that keeps compiled
+     * scripts warm (see {@link Server}) and "jasic client ..." runs a script
+     * on it (see {@link Client}). The script can be preceded by options:
+     * <p>
+     * --fusion-stats  Print how many statements were fused into
+     * superinstructions to stderr once the script finishes.
+     * --memo-cache=<n>  Set how many results each pure user-defined function
+     * remembers (256 by default, 0 for none).
+     * --threads=<n>  Spread parallel loops across this many threads (the
+     * number of processors by default).
+     * --auto-parallel  Run loops built out of labels and jumps in parallel
+     * when their iterations don't depend on each other.
+     * --parallel-report  Print which loops --auto-parallel runs in parallel,
+     * and why the others can't be, to stderr once the script finishes.
+     * Implies --auto-parallel.
+     * --profile  Print how many times each statement and each label's
+     * region ran, how long they took and how much they allocated to stderr
+     * once the script finishes, next to a listing of the compiled script.
+     * --sample=<file>  Look at which statement is running every so often,
+     * and write how many times each one was seen to a file once the script
+     * finishes, as collapsed stacks for flame graphs. Cheap enough to leave
+     * on.
+     * --sample-interval=<us>  How many microseconds to wait between two
+     * samples (10000 by default).
+     * --jmx  Publish live counters of the run as the MBean
+     * "org.marasm.basicscript:type=Jasic". The phases of every run are
+     * always recorded as JFR events, if a recording asks for them.
+     * --trace=<file>  Record every jump the run takes to a file, which
+     * org.marasm.basicscript.trace.TraceReport turns into branch and loop
+     * statistics.
+     * --trace-writes  Record every variable write in the trace too.
+     * --dump-ir=<phase>,...  Print the program to stderr after each of
+     * the given phases of the pipeline: parse, simplify, numeric, fuse,
+     * parallel, superblocks, or all of them.
+     * --time-phases  Print how long each phase of the pipeline took, and
+     * how much it allocated, to stderr once the script finishes.
+     * --pgo=<file>  Record how often each statement runs and jumps to a
+     * file. Once it's there, later runs of the same script use it to
+     * compile their hot paths into superblocks from the start.
+     * --stream=<file>  Run the script once for every line of a file, or of
+     * standard input for "-", keeping its variables from one line to the
+     * next, like awk (see {@link RecordStream}).
+     * --partitions=<n>  Split the --stream file into up to n parts that
+     * run in parallel. Results the finish part reads have to be added up
+     * in shared variables.
+     * --field-separator=<c>  Split the fields of --stream lines at this
+     * character instead of at spaces and tabs.
+     * --batch=<file>  Run the script once for every row of a CSV file, all
+     * rows in lockstep. The first line names the variables the columns are
+     * for, and every other line holds numbers. Only numeric scripts can run
+     * this way.
+     * --fork-at=<label> --forks=<n>  Run the script up to the label once,
+     * then fork it into n runs that carry on from there in parallel. Each
+     * run finds its number, from 0, in the variable "fork". Their output
+     * comes out in that order.
+     * --checkpoint=<file>  Save the state of the run to a file every so
+     * often, and whenever the process gets a HUP signal, so it can be
+     * resumed. The file is removed once the script finishes.
+     * --checkpoint-every=<n>  Take a checkpoint every n statements (every
+     * 10000000 by default).
+     * --resume  Carry on from the checkpoint file, if there is one, instead
+     * of starting over.
+     * --no-output-cache  Always run the script. Otherwise a script that
+     * depends on nothing but its source (no input, rnd(), timer() or shared
+     * variables) and is run without any of the other options here, besides
+     * --threads, --auto-parallel and --memo-cache, prints what it printed the
+     * last time it ran, without running (see {@link OutputCache}).
+     * --output-cache-size=<mb>  How many megabytes of outputs to keep (64 by
+     * default). The ones used least recently go first.
+     * --off-heap  Keep the variables outside of the Java heap.
+     * --store-file=<path>  Keep the variables in a memory-mapped file. They
+     * are still there the next time a script runs with the same file.
+     * Arrays are on the heap while the script runs, and are saved into the
+     * file when it ends.
      *
      * @param args Command-line arguments.
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            if (!Bench.main(Arrays.copyOfRange(args, 1, args.length))) {
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            Server.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("client")) {
+            int status = Client.main(Arrays.copyOfRange(args, 1, args.length));
+            if (status != 0) {
+                System.exit(status);
+            }
+            return;
+        }
+
+        boolean fusionStats = false;
+        int memoCacheSize = -1;
+        int threads = 0;
+        boolean autoParallel = false;
+        boolean parallelReport = false;
+        boolean profile = false;
+        String sample = null;
+        long sampleInterval = 10_000;
+        boolean jmx = false;
+        String trace = null;
+        boolean traceWrites = false;
+        List<String> dumpIr = new ArrayList<>();
+        boolean timePhases = false;
+        String pgo = null;
+        String stream = null;
+        int partitions = 1;
+        char separator = 0;
+        String batch = null;
+        String forkAt = null;
+        int forks = 0;
+        String checkpoint = null;
+        long checkpointEvery = 10_000_000;
+        boolean resume = false;
+        boolean offHeap = false;
+        String storeFile = null;
+        boolean outputCache = true;
+        long outputCacheSize = OutputCache.DEFAULT_SIZE;
+        String path = null;
+        for (String arg : args) {
+            if (arg.equals("--fusion-stats")) {
+                fusionStats = true;
+            } else if (arg.matches("--memo-cache=\\d+")) {
+                memoCacheSize = Integer.parseInt(arg.substring("--memo-cache=".length()));
+            } else if (arg.matches("--threads=[1-9]\\d*")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.equals("--auto-parallel")) {
+                autoParallel = true;
+            } else if (arg.equals("--parallel-report")) {
+                parallelReport = true;
+            } else if (arg.equals("--profile")) {
+                profile = true;
+            } else if (arg.startsWith("--sample=")) {
+                sample = arg.substring("--sample=".length());
+            } else if (arg.matches("--sample-interval=[1-9]\\d*")) {
+                sampleInterval = Long.parseLong(arg.substring("--sample-interval=".length()));
+            } else if (arg.equals("--jmx")) {
+                jmx = true;
+            } else if (arg.startsWith("--trace=")) {
+                trace = arg.substring("--trace=".length());
+            } else if (arg.equals("--trace-writes")) {
+                traceWrites = true;
+            } else if (arg.startsWith("--dump-ir=")) {
+                for (String phase : arg.substring("--dump-ir=".length()).split(",")) {
+                    if (phase.equals("all")) {
+                        dumpIr.addAll(Phases.DUMPABLE);
+                    } else if (Phases.DUMPABLE.contains(phase)) {
+                        dumpIr.add(phase);
+                    } else {
+                        throw new Error("Unknown phase '" + phase + "'. Use one of " + Phases.DUMPABLE + " or all.");
+                    }
+                }
+            } else if (arg.equals("--time-phases")) {
+                timePhases = true;
+            } else if (arg.startsWith("--pgo=")) {
+                pgo = arg.substring("--pgo=".length());
+            } else if (arg.startsWith("--stream=")) {
+                stream = arg.substring("--stream=".length());
+            } else if (arg.matches("--partitions=[1-9]\\d*")) {
+                partitions = Integer.parseInt(arg.substring("--partitions=".length()));
+            } else if (arg.matches("--field-separator=.")) {
+                separator = arg.charAt("--field-separator=".length());
+            } else if (arg.startsWith("--batch=")) {
+                batch = arg.substring("--batch=".length());
+            } else if (arg.startsWith("--fork-at=")) {
+                forkAt = arg.substring("--fork-at=".length());
+            } else if (arg.matches("--forks=[1-9]\\d*")) {
+                forks = Integer.parseInt(arg.substring("--forks=".length()));
+            } else if (arg.startsWith("--checkpoint=")) {
+                checkpoint = arg.substring("--checkpoint=".length());
+            } else if (arg.matches("--checkpoint-every=[1-9]\\d*")) {
+                checkpointEvery = Long.parseLong(arg.substring("--checkpoint-every=".length()));
+            } else if (arg.equals("--resume")) {
+                resume = true;
+            } else if (arg.equals("--no-output-cache")) {
+                outputCache = false;
+            } else if (arg.matches("--output-cache-size=\\d+")) {
+                outputCacheSize = Long.parseLong(arg.substring("--output-cache-size=".length())) << 20;
+            } else if (arg.equals("--off-heap")) {
+                offHeap = true;
+            } else if (arg.startsWith("--store-file=")) {
+                storeFile = arg.substring("--store-file=".length());
+            } else if (path == null && !arg.startsWith("--")) {
+                path = arg;
+            } else {
+                path = null;
+                break;
+            }
+        }
+
         // Just show the usage and quit if a script wasn't provided.
-        if (args.length != 1) {
-            System.out.println("Usage: jasic <script>");
+        if (path == null) {
+            System.out.println("Usage: jasic [--fusion-stats] [--memo-cache=<n>] [--threads=<n>]"
+                    + " [--auto-parallel] [--parallel-report] [--profile]"
+                    + " [--sample=<file> [--sample-interval=<us>]] [--jmx]"
+                    + " [--trace=<file> [--trace-writes]]"
+                    + " [--dump-ir=<phase>,...] [--time-phases] [--pgo=<file>]"
+                    + " [--stream=<file> | - [--partitions=<n>] [--field-separator=<c>]]"
+                    + " [--batch=<file>]"
+                    + " [--fork-at=<label> --forks=<n>]"
+                    + " [--checkpoint=<file> [--checkpoint-every=<n>] [--resume]]"
+                    + " [--no-output-cache | --output-cache-size=<mb>] [--off-heap | --store-file=<path>] <script>");
+            System.out.println("       jasic bench ... <script>");
+            System.out.println("       jasic serve ...");
+            System.out.println("       jasic client ... <script>");
             System.out.println("Where <script> is a relative path to a .jas script to run.");
             return;
         }
 
         // Read the file.
-        String contents = readFile(args[0]);
+        String contents = readFile(path);
 
         // Run it.
-        Jasic jasic = new Jasic();
+        VariableStore store;
+        if (storeFile != null) {
+            VariableStore file = OffHeapVariableStore.open(Paths.get(storeFile));
+            // Write out what the script got to even if it fails.
+            Runtime.getRuntime().addShutdownHook(new Thread(file::close));
+            store = file;
+        } else if (offHeap) {
+            store = new OffHeapVariableStore();
+        } else {
+            store = new HeapVariableStore();
+        }
+        TraceRecorder tracer = trace == null ? null : new TraceRecorder(Paths.get(trace));
+        if (tracer != null && traceWrites) {
+            store = new TracingVariableStore(store, tracer);
+        }
+        Jasic jasic = new Jasic(store);
+        jasic.setTracer(tracer);
+        jasic.getPhases().getDumped().addAll(dumpIr);
+        jasic.getPhases().setTimed(timePhases);
+        if (pgo != null) {
+            RunProfile feedback = null;
+            try {
+                if (Files.exists(Paths.get(pgo))) {
+                    feedback = RunProfile.read(Paths.get(pgo));
+                }
+            } catch (IOException e) {
+                throw new Error("Can't read profile " + pgo + ": " + e.getMessage());
+            }
+            // A profile of an older version of the script is recorded again.
+            if (feedback != null && feedback.matches(contents)) {
+                jasic.setProfileFeedback(feedback);
+            } else {
+                jasic.setProfileRecording(new RunProfile());
+            }
+        }
+        if (memoCacheSize >= 0) {
+            jasic.setMemoCacheSize(memoCacheSize);
+        }
+        if (threads > 0) {
+            jasic.setParallelism(threads);
+        }
+        jasic.setAutoParallel(autoParallel || parallelReport);
+        if (profile) {
+            jasic.setProfiler(new Profiler());
+        }
+        if (jmx) {
+            jasic.setMetrics(JasicMetrics.global());
+        }
+        Sampler sampler = null;
+        if (sample != null) {
+            sampler = new Sampler(jasic, sampleInterval);
+            sampler.start();
+        }
+        if (batch != null) {
+            runBatch(jasic, contents, batch);
+            return;
+        }
+        if (stream != null) {
+            RecordStream records = new RecordStream(jasic);
+            records.setPartitions(partitions);
+            records.setSeparator(separator);
+            try {
+                records.run(contents, stream.equals("-") ? null : Paths.get(stream));
+            } catch (IOException e) {
+                throw new Error("Can't read " + stream + ": " + e.getMessage());
+            }
+        } else if (forkAt != null) {
+            jasic.runUntil(contents, forkAt);
+            List<Jasic> children = new ArrayList<>();
+            for (int i = 0; i < Math.max(forks, 1); i++) {
+                Jasic child = jasic.fork();
+                child.getVariables().put("fork", new NumberValue(i));
+                children.add(child);
+            }
+            Forks.resume(children, jasic.getParallelism(), jasic.getOut());
+        } else if (checkpoint != null) {
+            Path checkpointPath = Paths.get(checkpoint);
+            Checkpointer checkpointer = new Checkpointer(checkpointPath, checkpointEvery);
+            checkpointer.onSignal("HUP");
+            jasic.setCheckpointer(checkpointer);
+            if (resume && Files.exists(checkpointPath)) {
+                try {
+                    jasic.resume(contents, Checkpoint.read(checkpointPath));
+                } catch (IOException e) {
+                    throw new Error("Can't read checkpoint " + checkpoint + ": " + e.getMessage());
+                }
+            } else {
+                jasic.interpret(contents);
+            }
+        } else if (outputCache && !fusionStats && !parallelReport && !profile && sample == null && !jmx
+                && trace == null && dumpIr.isEmpty() && !timePhases && pgo == null && !offHeap && storeFile == null) {
+            runCached(jasic, contents, new OutputCache(OutputCache.defaultDirectory(), outputCacheSize));
+        } else {
+            jasic.interpret(contents);
+        }
+        jasic.getStore().close();
+
+        if (fusionStats) {
+            System.err.println(Superinstructions.describe(jasic.getFusionCounts(), jasic.getStatements().size()));
+        }
+        if (parallelReport) {
+            jasic.getParallelReport().forEach(System.err::println);
+        }
+        if (sampler != null) {
+            sampler.stop();
+            try (PrintStream samples = new PrintStream(new FileOutputStream(sample))) {
+                sampler.writeCollapsed(samples, Paths.get(path).getFileName().toString());
+            } catch (IOException e) {
+                throw new Error("Can't write samples to " + sample + ": " + e.getMessage());
+            }
+        }
+        if (jasic.getProfileRecording() != null) {
+            try {
+                jasic.getProfileRecording().write(Paths.get(pgo), jasic);
+            } catch (IOException e) {
+                throw new Error("Can't write profile " + pgo + ": " + e.getMessage());
+            }
+        }
+        if (timePhases) {
+            jasic.getPhases().getTimings().forEach(System.err::println);
+        }
+        if (profile) {
+            jasic.getProfiler().report(System.err, jasic.getLabels(), jasic.getStatements());
+        }
+    }
+
+    /**
+     * Prints what a script printed the last time it ran, if it was kept.
+     * Otherwise runs it, and keeps what it prints if it depends on nothing
+     * but its source.
+     */
+    private static void runCached(Jasic jasic, String contents, OutputCache cache) {
+        String key = OutputCache.key(jasic, contents);
+        byte[] output = cache.get(key);
+        if (output != null) {
+            jasic.getOut().write(output, 0, output.length);
+            jasic.getOut().flush();
+            return;
+        }
+        OutputCache.Recorder recorder = new OutputCache.Recorder(jasic.getOut());
+        jasic.setOut(new PrintStream(recorder, true));
         jasic.interpret(contents);
+        jasic.getOut().flush();
+        byte[] recorded = recorder.recorded();
+        if (jasic.isDeterministic() && recorded != null) {
+            cache.put(key, recorded);
+        }
+    }
+
+    /**
+     * Runs a script over the rows of a CSV file.
+     */
+    private static void runBatch(Jasic jasic, String contents, String path) {
+        String table = readFile(path);
+        if (table == null) {
+            throw new Error("Can't read batch file " + path + ".");
+        }
+        String[] lines = table.trim().split("\\r?\\n");
+        String[] names = lines[0].trim().split("\\s*,\\s*");
+        double[][] inputs = new double[lines.length - 1][];
+        for (int row = 1; row < lines.length; row++) {
+            String[] cells = lines[row].trim().split("\\s*,\\s*");
+            if (cells.length != names.length) {
+                throw new Error("Line " + (row + 1) + " of " + path + " should have " + names.length + " values.");
+            }
+            inputs[row - 1] = new double[names.length];
+            for (int column = 0; column < names.length; column++) {
+                try {
+                    inputs[row - 1][column] = Double.parseDouble(cells[column]);
+                } catch (NumberFormatException e) {
+                    throw new Error("'" + cells[column] + "' on line " + (row + 1) + " of " + path
+                            + " isn't a number.");
+                }
+            }
+        }
+        jasic.runBatch(contents, names, inputs);
     }
 
     /**
@@ -160,7 +788,7 @@ public class Jasic {
      * @return The contents of the file or null if the load failed.
      * @throws IOException
      */
-    private static String readFile(String path) {
+    public static String readFile(String path) {
         try {
 
             try (FileInputStream stream = new FileInputStream(path)) {
@@ -203,24 +831,327 @@ public class Jasic {
      *               interpret.
      */
     public void interpret(String source) {
+        compile(source);
+
+        // Interpret until we're done.
+        currentStatement = 0;
+        resume();
+    }
+
+    /**
+     * Compiles a script and runs it up to a label, stopping right before
+     * the statement after the label the first time it gets there. The run
+     * can then be resumed, or forked.
+     *
+     * @param source A string containing the source code of a .jas script.
+     * @param label  The label to stop at.
+     */
+    public void runUntil(String source, String label) {
+        compile(source);
+        Integer stop = labels.get(label);
+        if (stop == null) {
+            throw new Error("Unknown label '" + label + "'.");
+        }
+        runBetween(0, stop);
+    }
+
+    /**
+     * Runs the compiled script from a statement until it gets to another
+     * one, or to the end, without running that one.
+     *
+     * @param start The index of the statement to start at.
+     * @param stop  The index of the statement to stop at.
+     */
+    public void runBetween(int start, int stop) {
+        currentStatement = start;
+        while (currentStatement < statements.size() && currentStatement != stop) {
+            int thisStatement = currentStatement;
+            currentStatement++;
+            if (sampled) {
+                executing.lazySet(thisStatement);
+            }
+            statements.get(thisStatement).execute();
+        }
+        executing.lazySet(-1);
+    }
+
+    /**
+     * Runs the compiled script from the current statement to the end.
+     */
+    public void resume() {
+        phases.run("execute", source.length(), () -> {
+            if ((checkpointer != null || metrics != null || tracer != null || profileRecording != null || sampled)
+                    && !worker) {
+                return resumeWatched();
+            }
+            while (currentStatement < statements.size()) {
+                int thisStatement = currentStatement;
+                currentStatement++;
+                statements.get(thisStatement).execute();
+            }
+            return -1L;
+        }, count -> count, "statements run");
+    }
+
+    /**
+     * Runs the compiled script again from the start, as if it had just been
+     * compiled: every variable, shared ones included, goes back to 0 first.
+     * This is how {@link org.marasm.basicscript.server.Server} reuses a
+     * compiled script.
+     */
+    public void restart() {
+        variables.clear();
+        shared.asMap().clear();
+        currentStatement = 0;
+        resume();
+    }
+
+    /**
+     * Compiles a script and carries on running it from a checkpoint taken
+     * from an earlier run of the same script.
+     *
+     * @param source     A string containing the source code of a .jas script.
+     * @param checkpoint The checkpoint.
+     */
+    public void resume(String source, Checkpoint checkpoint) {
+        compile(source);
+        checkpoint.restore(this);
+        resume();
+    }
+
+    /**
+     * Runs to the end like {@link #resume()}, but also takes checkpoints,
+     * counts statements and jumps, traces the jumps, records a profile and
+     * publishes the running statement for a sampler.
+     *
+     * @return How many statements ran.
+     */
+    private long resumeWatched() {
+        long executed = 0;
+        long jumps = 0;
+        long counted = 0;
+        if (metrics != null) {
+            metrics.runStarted(this);
+        }
+        if (tracer != null) {
+            tracer.begin(this);
+        }
+        if (profileRecording != null) {
+            profileRecording.begin(this);
+        }
+        try {
+            while (currentStatement < statements.size()) {
+                if (checkpointer != null && checkpointer.isDue()) {
+                    checkpointer.save(this);
+                }
+                int thisStatement = currentStatement;
+                currentStatement++;
+                if (sampled) {
+                    executing.lazySet(thisStatement);
+                }
+                statements.get(thisStatement).execute();
+                if (profileRecording != null) {
+                    profileRecording.count(thisStatement);
+                }
+                if (currentStatement != thisStatement + 1) {
+                    jumps++;
+                    if (tracer != null) {
+                        tracer.jump(thisStatement, currentStatement);
+                    }
+                    if (profileRecording != null) {
+                        profileRecording.jumped(thisStatement);
+                    }
+                }
+                // Publish the counts in batches, so the counters aren't
+                // contended.
+                if ((++executed & 0xFFF) == 0 && metrics != null) {
+                    metrics.count(executed - counted, jumps);
+                    counted = executed;
+                    jumps = 0;
+                }
+            }
+        } finally {
+            executing.lazySet(-1);
+            if (metrics != null) {
+                metrics.count(executed - counted, jumps);
+                metrics.runFinished(this);
+            }
+            if (tracer != null) {
+                tracer.end(this);
+            }
+        }
+        if (checkpointer != null) {
+            checkpointer.finish();
+        }
+        return executed;
+    }
+
+    /**
+     * Creates a child interpreter that carries on from where this one is,
+     * usually after {@link #runUntil}. The child starts with the same
+     * variables, but they are copied lazily (see {@link VariableStore#fork()}),
+     * so forking after building big tables is cheap. After that the two runs
+     * are independent: the child can be given its own inputs and be resumed
+     * on another thread. Loops that are running carry on in the child with
+     * the same bound and step.
+     *
+     * @return The child.
+     */
+    public Jasic fork() {
+        Jasic child = new Jasic(store.fork());
+        child.setLineIn(lineIn);
+        child.setOut(out);
+        child.setShared(shared);
+        child.setMemoCacheSize(memoCacheSize);
+        child.setParallelism(parallelism);
+        child.setAutoParallel(autoParallel);
+        child.setMetrics(metrics);
+        child.compile(source);
+        List<ForStatement.Loop> loops = Checkpoint.loops(statements);
+        List<ForStatement.Loop> childLoops = Checkpoint.loops(child.statements);
+        if (loops.size() != childLoops.size()) {
+            throw new Error("Can't fork: the script compiled differently for the child.");
+        }
+        for (int i = 0; i < loops.size(); i++) {
+            childLoops.get(i).restore(loops.get(i).getLimit(), loops.get(i).getIncrement());
+        }
+        child.setCurrentStatement(currentStatement);
+        return child;
+    }
+
+    /**
+     * Runs a script through the parsing pipeline without running it.
+     *
+     * @param source A string containing the source code of a .jas script.
+     */
+    public void compile(String source) {
+        statements = parse(source);
+        deterministic = Determinism.isDeterministic(statements);
+        ParallelArrays.analyze(statements, variables);
+
+        // Optimize.
+        parallelReport.clear();
+        List<AutoParallelizer.Loop> parallelLoops = autoParallel
+                ? phases.run("analyze", source.length(),
+                () -> AutoParallelizer.analyze(statements, labels, parallelReport), List::size, "parallel loops")
+                : new ArrayList<>();
+        statements = phase("numeric", () -> NumericCompiler.compile(statements, labels, this));
+        statements = phase("fuse", () -> Superinstructions.fuse(statements, labels, fusionCounts, this));
+        if (!parallelLoops.isEmpty()) {
+            statements = phase("parallel", () -> {
+                AutoParallelizer.install(statements, parallelLoops, this);
+                return statements;
+            });
+        }
+        if (profileFeedback != null) {
+            statements = phase("superblocks", () -> Superblocks.form(statements, labels, profileFeedback, this));
+        }
+        if (profiler != null) {
+            statements = profiler.instrument(statements);
+        }
+    }
+
+    /**
+     * Runs a phase that produces a new version of the program, and dumps the
+     * program if asked to.
+     */
+    private List<Statement> phase(String name, Supplier<List<Statement>> pass) {
+        List<Statement> result = phases.run(name, source.length(), pass, List::size, "statements");
+        if (phases.isDumped(name)) {
+            phases.getOut().println("=== after " + name);
+            outputSource(phases.getOut(), labels, result);
+        }
+        return result;
+    }
+
+    /**
+     * Parses a script and simplifies its control flow, but doesn't compile
+     * it for this interpreter's variable store.
+     *
+     * @param source A string containing the source code of a .jas script.
+     * @return The statements of the script.
+     */
+    public List<Statement> parse(String source) {
+        this.source = source;
+
         // Tokenize.
-        List<Token> tokens = Tokenizer.tokenize(source);
+        List<Token> tokens = phases.run("tokenize", source.length(), () -> Tokenizer.tokenize(source),
+                List::size, "tokens");
 
         // Parse.
         Parser parser = new Parser(this, tokens);
-        List<Statement> statements = parser.parse(labels);
+        List<Statement> parsed = phase("parse", () -> parser.parse(labels));
 
-        //outputSource(System.out, labels, statements);
+        // Simplify the control flow.
+        return phase("simplify", () -> FlowOptimizer.optimize(parsed, labels, this));
+    }
 
-        // Interpret until we're done.
-        currentStatement = 0;
-        while (currentStatement < statements.size()) {
+    /**
+     * Runs a numeric script once for every row of inputs, all in lockstep
+     * (see {@link BatchRunner}). The output is the same as running the
+     * script once per row, in order.
+     *
+     * @param source A string containing the source code of a .jas script.
+     * @param names  The variables the inputs are for.
+     * @param inputs The values of the variables, one row per run.
+     * @return The runner, which holds the final values of the variables.
+     */
+    public BatchRunner runBatch(String source, String[] names, double[][] inputs) {
+        BatchRunner runner = new BatchRunner(parse(source), labels, names, inputs);
+        runner.run(out);
+        return runner;
+    }
+
+    /**
+     * Runs one iteration of the body of a loop: the statements from the
+     * first one of the body up to, but not including, the one that closes
+     * it.
+     *
+     * @param body The index of the first statement of the body.
+     * @param tail The index of the statement that closes the loop.
+     */
+    public void runLoopBody(int body, int tail) {
+        currentStatement = body;
+        while (currentStatement != tail) {
+            if (currentStatement < body || currentStatement > tail) {
+                throw new Error("Can't jump out of a parallel loop.");
+            }
             int thisStatement = currentStatement;
             currentStatement++;
             statements.get(thisStatement).execute();
         }
     }
 
+    /**
+     * @return The index of the statement that is running, or -1 if none is
+     * or the interpreter isn't sampled (see {@link #setSampled}). Can be
+     * called from any thread.
+     */
+    public int getExecutingStatement() {
+        return executing.get();
+    }
+
+    /**
+     * @return The workers that run parallel loops for this interpreter.
+     */
+    public WorkerPool getWorkers() {
+        if (workers == null) {
+            workers = new WorkerPool(this, parallelism);
+        }
+        return workers;
+    }
+
+    /**
+     * Stops the threads that run this interpreter's parallel loops. It can
+     * still run scripts after that, and starts new ones when it needs them.
+     */
+    public void close() {
+        if (workers != null) {
+            workers.close();
+            workers = null;
+        }
+    }
+
     public void outputSource(PrintStream out, Map<String, Integer> labels, List<Statement> statements) {
         Map<Integer, String> iLabels = labels.entrySet()
                 .stream()
@@ -1,16 +1,28 @@
 package org.marasm.basicscript;
 
+import org.marasm.basicscript.expressions.ArrayElementExpression;
 import org.marasm.basicscript.expressions.Expression;
 import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.expressions.SharedVariableExpression;
 import org.marasm.basicscript.expressions.VariableExpression;
+import org.marasm.basicscript.functions.Intrinsic;
+import org.marasm.basicscript.functions.Intrinsics;
+import org.marasm.basicscript.functions.ParameterExpression;
+import org.marasm.basicscript.functions.UserFunction;
 import org.marasm.basicscript.statements.*;
+import org.marasm.basicscript.store.SharedVariables;
 import org.marasm.basicscript.tokens.Token;
 import org.marasm.basicscript.tokens.TokenType;
+import org.marasm.basicscript.tools.Inliner;
 import org.marasm.basicscript.tools.Simplifier;
 import org.marasm.basicscript.values.NumberValue;
 import org.marasm.basicscript.values.StringValue;
+import org.marasm.basicscript.values.Value;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +40,19 @@ public class Parser {
     private final List<Token> tokens;
     private final Jasic jasic;
     private int position;
+    /**
+     * The "for" statements whose "next" hasn't been parsed yet, innermost
+     * first.
+     */
+    private final Deque<ForStatement> loops = new ArrayDeque<>();
+    /**
+     * The functions defined by the script so far.
+     */
+    private final Map<String, UserFunction> functions = new HashMap<>();
+    /**
+     * The parameters of the function whose body is being parsed, if any.
+     */
+    private Map<String, ParameterExpression> parameters = new HashMap<>();
 
     // The following functions each represent one grammatical part of the
     // language. If this parsed English, these functions would be named like
@@ -63,12 +88,22 @@ public class Parser {
             } else if (match(TokenType.WORD, TokenType.EQUALS)) {
                 String name = last(2).text;
                 Expression value = expression();
-                statements.add(new AssignStatement(name, value, jasic));
+                statements.add(SharedVariables.isShared(name) ? sharedAssign(name, value)
+                        : new AssignStatement(name, value, jasic));
+            } else if (match(TokenType.WORD, TokenType.LEFT_BRACKET)) {
+                String name = local(last(2).text, "Shared variables can't be arrays.");
+                ArrayElementExpression element = element(new VariableExpression(name, jasic));
+                consume(TokenType.EQUALS);
+                statements.add(new ArrayAssignStatement(element, expression()));
             } else if (match("print")) {
-                statements.add(new PrintStatement(expression()));
+                statements.add(new PrintStatement(expression(), jasic));
             } else if (match("input")) {
-                statements.add(new InputStatement(
-                        consume(TokenType.WORD).text, jasic));
+                String name = local(consume(TokenType.WORD).text, "Can't input into a shared variable.");
+                if (match(TokenType.LEFT_BRACKET)) {
+                    statements.add(new InputStatement(element(new VariableExpression(name, jasic)), jasic));
+                } else {
+                    statements.add(new InputStatement(name, jasic));
+                }
             } else if (match("goto")) {
                 statements.add(new GotoStatement(
                         consume(TokenType.WORD).text, jasic));
@@ -77,11 +112,34 @@ public class Parser {
                 consume("then");
                 String label = consume(TokenType.WORD).text;
                 statements.add(new IfThenStatement(condition, label, jasic));
+            } else if (match("for")) {
+                statements.add(forLoop(false, statements.size()));
+            } else if (match("parallel")) {
+                consume("for");
+                statements.add(forLoop(true, statements.size()));
+            } else if (match("next")) {
+                if (loops.isEmpty()) {
+                    throw new Error("'next' without 'for'.");
+                }
+                ForStatement loop = loops.pop();
+                if (match(TokenType.WORD) && !last(1).text.equals(loop.getName())) {
+                    throw new Error("'next " + last(1).text + "' doesn't match 'for " + loop.getName() + "'.");
+                }
+                loop.getLoop().setTail(statements.size());
+                statements.add(new NextStatement(loop.getName(), loop.getLoop(), jasic));
+            } else if (match("def")) {
+                define();
+            } else if (match(TokenType.WORD, TokenType.LEFT_PAREN)) {
+                statements.add(new CallStatement(call(last(2).text)));
             } else {
                 break; // Unexpected tokens (likely EOF), so end.
             }
         }
 
+        if (!loops.isEmpty()) {
+            throw new Error("'for " + loops.peek().getName() + "' without 'next'.");
+        }
+
         return statements;
     }
 
@@ -145,8 +203,26 @@ public class Parser {
      */
     private Expression atomic() {
         if (match(TokenType.WORD)) {
-            // A word is a reference to a variable.
-            return new VariableExpression(last(1).text, jasic);
+            // A word followed by ( is a function call.
+            if (match(TokenType.LEFT_PAREN)) {
+                return call(last(2).text);
+            }
+
+            // Otherwise it's a reference to a parameter or a variable, or to
+            // an element of an array if it's followed by [.
+            if (SharedVariables.isShared(last(1).text) && !parameters.containsKey(last(1).text)) {
+                if (get(0).type == TokenType.LEFT_BRACKET) {
+                    throw new Error("Shared variables can't be arrays.");
+                }
+                return new SharedVariableExpression(last(1).text, jasic);
+            }
+            Expression variable = parameters.containsKey(last(1).text)
+                    ? parameters.get(last(1).text)
+                    : new VariableExpression(last(1).text, jasic);
+            if (match(TokenType.LEFT_BRACKET)) {
+                return element(variable);
+            }
+            return variable;
         } else if (match(TokenType.NUMBER)) {
             return new NumberValue(last(1).text);
         } else if (match(TokenType.STRING)) {
@@ -163,6 +239,163 @@ public class Parser {
         throw new Error("Couldn't parse :(");
     }
 
+    /**
+     * Creates the statement for an assignment to a shared variable. One that
+     * applies an operator to the variable itself, like "shared.n = shared.n
+     * + 1", becomes an atomic update.
+     */
+    private Statement sharedAssign(String name, Expression value) {
+        if (value instanceof OperatorExpression) {
+            OperatorExpression operator = (OperatorExpression) value;
+            if (operator.getLeft() instanceof SharedVariableExpression
+                    && ((SharedVariableExpression) operator.getLeft()).getName().equals(name)) {
+                return new SharedUpdateStatement(name, operator, operator.getRight(), jasic);
+            }
+        }
+        return new SharedAssignStatement(name, value, jasic);
+    }
+
+    /**
+     * Checks that a variable used where only a variable of this interpreter
+     * can go isn't a shared one.
+     *
+     * @param name    The name of the variable.
+     * @param message The error if it is.
+     * @return The name.
+     */
+    private static String local(String name, String message) {
+        if (SharedVariables.isShared(name)) {
+            throw new Error(message);
+        }
+        return name;
+    }
+
+    /**
+     * Parses the head of a counted loop, like "for i = 1 to 10 step 2". The
+     * "for" has already been consumed. A parallel loop can end with a list of
+     * reductions, like "reduce + total, max best".
+     *
+     * @param parallel True for a "parallel for".
+     * @param index    The index the statement will have.
+     * @return The statement.
+     */
+    private ForStatement forLoop(boolean parallel, int index) {
+        String name = local(consume(TokenType.WORD).text, "A loop variable can't be shared.");
+        consume(TokenType.EQUALS);
+        Expression start = expression();
+        consume("to");
+        Expression end = expression();
+        Expression step = match("step") ? expression() : null;
+        ForStatement.Loop loop = new ForStatement.Loop();
+        loop.setHead(index);
+
+        ForStatement statement;
+        if (parallel) {
+            List<ParallelForStatement.Reduction> reductions = new ArrayList<>();
+            if (match("reduce")) {
+                do {
+                    String operator;
+                    if (match(TokenType.OPERATOR) && (last(1).text.equals("+") || last(1).text.equals("*"))) {
+                        operator = last(1).text;
+                    } else if (match("min") || match("max")) {
+                        operator = last(1).text;
+                    } else {
+                        throw new Error("Expected +, *, min or max.");
+                    }
+                    reductions.add(new ParallelForStatement.Reduction(operator,
+                            local(consume(TokenType.WORD).text, "A reduction variable can't be shared.")));
+                } while (match(TokenType.COMMA));
+            }
+            statement = new ParallelForStatement(name, start, end, step, loop, reductions, jasic);
+        } else {
+            statement = new ForStatement(name, start, end, step, loop, jasic);
+        }
+        loops.push(statement);
+        return statement;
+    }
+
+    /**
+     * Parses a function definition, like "def fn f(x, y) = x * y". The "def"
+     * has already been consumed, and the "fn" is optional.
+     */
+    private void define() {
+        if (get(0).text.equals("fn") && get(1).type == TokenType.WORD) {
+            position++;
+        }
+        String name = consume(TokenType.WORD).text;
+        if (functions.containsKey(name) || Intrinsics.get(name) != null) {
+            throw new Error("Function '" + name + "' is already defined.");
+        }
+        consume(TokenType.LEFT_PAREN);
+        List<String> names = new ArrayList<>();
+        if (!match(TokenType.RIGHT_PAREN)) {
+            do {
+                names.add(consume(TokenType.WORD).text);
+            } while (match(TokenType.COMMA));
+            consume(TokenType.RIGHT_PAREN);
+        }
+        consume(TokenType.EQUALS);
+
+        Value[] arguments = new Value[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            parameters.put(names.get(i), new ParameterExpression(names.get(i), i, arguments));
+        }
+        Expression body;
+        try {
+            body = expression();
+        } finally {
+            parameters = new HashMap<>();
+        }
+
+        // Small functions are inlined, so only bigger ones are worth a cache.
+        boolean pure = Inliner.isPure(body);
+        int cacheSize = Inliner.size(body) > Inliner.MAX_SIZE ? jasic.getMemoCacheSize() : 0;
+        functions.put(name, new UserFunction(name, names, body, arguments, pure, cacheSize));
+    }
+
+    /**
+     * Parses the arguments of a function call and binds it to the function.
+     * The opening ( has already been consumed.
+     *
+     * @param name The name of the function.
+     * @return The call expression.
+     */
+    private Expression call(String name) {
+        List<Expression> arguments = new ArrayList<>();
+        if (!match(TokenType.RIGHT_PAREN)) {
+            do {
+                arguments.add(expression());
+            } while (match(TokenType.COMMA));
+            consume(TokenType.RIGHT_PAREN);
+        }
+        if (functions.containsKey(name)) {
+            return Inliner.call(functions.get(name), arguments, jasic);
+        }
+        Intrinsic intrinsic = Intrinsics.get(name);
+        if (intrinsic == null) {
+            throw new Error("Unknown function '" + name + "'.");
+        }
+        return Simplifier.simplify(intrinsic.bind(arguments));
+    }
+
+    /**
+     * Parses the indexes of an array element, like [i] or [i][j]. The
+     * opening [ has already been consumed.
+     *
+     * @param array The array being indexed.
+     * @return The parsed element.
+     */
+    private ArrayElementExpression element(Expression array) {
+        ArrayElementExpression element;
+        do {
+            Expression index = expression();
+            consume(TokenType.RIGHT_BRACKET);
+            element = new ArrayElementExpression(array, index, jasic);
+            array = element;
+        } while (match(TokenType.LEFT_BRACKET));
+        return element;
+    }
+
     /**
      * Consumes the next two tokens if they are the given type (in order).
      * Consumes no tokens if either check fails.
@@ -21,11 +21,12 @@ public class Tokenizer {
 
         // Many tokens are a single character, like operators and ().
         String operatorsTokens = "=+-*/%<>";
-        String charTokens = "\n" + operatorsTokens + "()";
+        String charTokens = "\n" + operatorsTokens + "()[],";
         TokenType[] tokenTypes = {TokenType.LINE, TokenType.EQUALS,
                 TokenType.OPERATOR, TokenType.OPERATOR, TokenType.OPERATOR,
                 TokenType.OPERATOR, TokenType.OPERATOR, TokenType.OPERATOR,
-                TokenType.OPERATOR, TokenType.LEFT_PAREN, TokenType.RIGHT_PAREN
+                TokenType.OPERATOR, TokenType.LEFT_PAREN, TokenType.RIGHT_PAREN,
+                TokenType.LEFT_BRACKET, TokenType.RIGHT_BRACKET, TokenType.COMMA
         };
 
         // Scan through the code one character at a time, building up the list
@@ -36,10 +37,6 @@ public class Tokenizer {
                 prevC = source.charAt(i - 1);
             }
             char c = source.charAt(i);
-            char nextC = 0;
-            if (i < source.length() - 1) {
-                nextC = source.charAt(i + 1);
-            }
             switch (state) {
                 case DEFAULT:
                     if (charTokens.indexOf(c) != -1) {
@@ -65,7 +62,7 @@ public class Tokenizer {
                     break;
 
                 case WORD:
-                    if (isWordAcceptable(c, prevC, nextC, token)) {
+                    if (isWordAcceptable(c)) {
                         token += c;
                     } else if (c == ':') {
                         tokens.add(new Token(token, TokenType.LABEL));
@@ -125,16 +122,7 @@ public class Tokenizer {
         return tokens;
     }
 
-    private static boolean isWordAcceptable(char c, char prevC, char nextC, String word) {
-        long count = 0;
-        if (c == ']' || c == '"') {
-            long count1 = word.chars().filter(ch -> ch == '[').count();
-            long count2 = word.chars().filter(ch -> ch == ']').count();
-            count = count1 - count2;
-        }
-        if (count != 0) {
-            return true;
-        }
-        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '[';
+    private static boolean isWordAcceptable(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
     }
 }
@@ -0,0 +1,516 @@
+package org.marasm.basicscript.batch;
+
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.expressions.VariableExpression;
+import org.marasm.basicscript.functions.BinaryMathCall;
+import org.marasm.basicscript.functions.CallExpression;
+import org.marasm.basicscript.functions.ParameterExpression;
+import org.marasm.basicscript.functions.UnaryMathCall;
+import org.marasm.basicscript.functions.UserCallExpression;
+import org.marasm.basicscript.statements.AssignStatement;
+import org.marasm.basicscript.statements.ForStatement;
+import org.marasm.basicscript.statements.GotoStatement;
+import org.marasm.basicscript.statements.IfThenStatement;
+import org.marasm.basicscript.statements.NextStatement;
+import org.marasm.basicscript.statements.PrintStatement;
+import org.marasm.basicscript.statements.RangeSwitchStatement;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.StringValue;
+import org.marasm.basicscript.values.Value;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Runs one numeric script over many sets of inputs at once, in lockstep.
+ * Every set of inputs is a lane, and every variable is a column: a double[]
+ * with one element per lane. Each statement runs for all of the lanes that
+ * are at it in one go, and each operator is a plain loop over a range of
+ * lanes, so the cost of walking the program is paid once per statement
+ * instead of once per statement per lane, and the JIT can vectorize the
+ * loops.
+ * <p>
+ * Every lane has its own program counter, and waits in line at the
+ * statement it points at. At each step the first statement in the program
+ * that has lanes waiting runs, for all of them. Lanes
+ * that branch different ways at an "if" split up, and the ones left behind
+ * catch up until they all meet again, usually at the statement where the
+ * branches join.
+ * <p>
+ * Only numbers are supported: variables, arithmetic, comparisons, math
+ * functions, user-defined functions, and printing numbers and string
+ * constants. Each lane's printed lines are kept apart and written out in
+ * lane order at the end, so the output is the same as running the script
+ * once per lane.
+ */
+public class BatchRunner {
+    private final List<Statement> statements;
+    private final Map<String, Integer> labels;
+    private final int lanes;
+
+    private final Map<String, double[]> columns = new HashMap<>();
+    private final int[] pc;
+    private final StringBuilder[] output;
+    /**
+     * Where each expression node puts its result.
+     */
+    private final Map<Expression, double[]> scratch = new IdentityHashMap<>();
+    /**
+     * The bound and step of every "for" loop, per lane.
+     */
+    private final Map<ForStatement.Loop, double[][]> loops = new IdentityHashMap<>();
+    /**
+     * The argument columns of the call being evaluated, per function.
+     */
+    private final Map<Value[], double[][]> arguments = new IdentityHashMap<>();
+    /**
+     * Where each call copies its arguments to.
+     */
+    private final Map<UserCallExpression, double[][]> argumentCopies = new IdentityHashMap<>();
+    /**
+     * Where each lane at a range switch goes, while the cases are tried.
+     */
+    private final int[] targets;
+
+    /**
+     * The lanes waiting at each statement.
+     */
+    private final int[][] waiting;
+    private final int[] waitingCount;
+    /**
+     * The lanes at the statement being run.
+     */
+    private int[] active;
+    private int count;
+    /**
+     * The range from the first to the last active lane.
+     */
+    private int low;
+    private int high;
+    /**
+     * True if most lanes in the range are active.
+     */
+    private boolean dense;
+
+    /**
+     * @param statements The program, parsed but not compiled.
+     * @param labels     The labels of the program.
+     * @param names      The variables each lane starts with.
+     * @param inputs     The values of those variables, one row per lane.
+     */
+    public BatchRunner(List<Statement> statements, Map<String, Integer> labels, String[] names, double[][] inputs) {
+        this.statements = statements;
+        this.labels = labels;
+        this.lanes = inputs.length;
+        for (Statement statement : statements) {
+            check(statement);
+        }
+        for (int n = 0; n < names.length; n++) {
+            double[] column = column(names[n]);
+            for (int lane = 0; lane < lanes; lane++) {
+                column[lane] = inputs[lane][n];
+            }
+        }
+        pc = new int[lanes];
+        targets = new int[lanes];
+        waiting = new int[statements.size()][];
+        waitingCount = new int[statements.size()];
+        for (int lane = 0; lane < lanes; lane++) {
+            wait(lane);
+        }
+        output = new StringBuilder[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            output[lane] = new StringBuilder();
+        }
+    }
+
+    /**
+     * Runs every lane to the end and writes their output.
+     *
+     * @param out Where to print to.
+     */
+    public void run(PrintStream out) {
+        int current = 0;
+        while (true) {
+            // Run the first statement any lane is waiting at.
+            while (current < waiting.length && waitingCount[current] == 0) {
+                current++;
+            }
+            if (current == waiting.length) {
+                break;
+            }
+            active = waiting[current];
+            count = waitingCount[current];
+            waiting[current] = null;
+            waitingCount[current] = 0;
+            low = lanes;
+            high = 0;
+            for (int k = 0; k < count; k++) {
+                low = Math.min(low, active[k]);
+                high = Math.max(high, active[k] + 1);
+            }
+            dense = count * 4 >= high - low;
+            execute(current);
+
+            // Usually the lanes all go on to the same statement, and if no
+            // one is waiting there they can take their line along.
+            int next = pc[active[0]];
+            boolean together = true;
+            for (int k = 1; k < count && together; k++) {
+                together = pc[active[k]] == next;
+            }
+            if (together && next < waiting.length && waitingCount[next] == 0) {
+                waiting[next] = active;
+                waitingCount[next] = count;
+            } else {
+                for (int k = 0; k < count; k++) {
+                    wait(active[k]);
+                }
+            }
+            for (int k = 0; k < count; k++) {
+                current = Math.min(current, pc[active[k]]);
+            }
+        }
+        for (StringBuilder lane : output) {
+            out.print(lane);
+        }
+        out.flush();
+    }
+
+    /**
+     * Puts a lane in line for the statement its counter points at.
+     */
+    private void wait(int lane) {
+        int index = pc[lane];
+        if (index >= waiting.length) {
+            return; // Done.
+        }
+        if (waiting[index] == null) {
+            waiting[index] = new int[16];
+        } else if (waitingCount[index] == waiting[index].length) {
+            waiting[index] = Arrays.copyOf(waiting[index], Math.min(lanes, waitingCount[index] * 2));
+        }
+        waiting[index][waitingCount[index]++] = lane;
+    }
+
+    /**
+     * @return The values of a variable, one per lane.
+     */
+    public double[] getColumn(String name) {
+        return column(name);
+    }
+
+    /**
+     * Runs one statement for the active lanes.
+     */
+    private void execute(int index) {
+        Statement statement = statements.get(index);
+        if (statement instanceof AssignStatement) {
+            AssignStatement assign = (AssignStatement) statement;
+            copy(evaluate(assign.getValue()), column(assign.getName()));
+            jump(null, index + 1, index + 1);
+        } else if (statement instanceof PrintStatement) {
+            Expression expression = ((PrintStatement) statement).getExpression();
+            double[] value = expression instanceof StringValue ? null : evaluate(expression);
+            for (int k = 0; k < count; k++) {
+                int lane = active[k];
+                output[lane].append(value == null ? expression.toString() : new NumberValue(value[lane]).toString())
+                        .append(System.lineSeparator());
+                pc[lane] = index + 1;
+            }
+        } else if (statement instanceof GotoStatement) {
+            jump(null, labels.getOrDefault(((GotoStatement) statement).getLabel(), index + 1), index + 1);
+        } else if (statement instanceof IfThenStatement) {
+            IfThenStatement ifThen = (IfThenStatement) statement;
+            Integer target = labels.get(ifThen.getLabel());
+            if (target == null) {
+                jump(null, index + 1, index + 1);
+            } else {
+                jump(evaluate(ifThen.getCondition()), target, index + 1);
+            }
+        } else if (statement instanceof RangeSwitchStatement) {
+            // Each lane goes where the first case that matches it says.
+            RangeSwitchStatement rangeSwitch = (RangeSwitchStatement) statement;
+            for (int k = 0; k < count; k++) {
+                targets[active[k]] = -1;
+            }
+            for (RangeSwitchStatement.Case c : rangeSwitch.getCases()) {
+                double[] condition = evaluate(c.getCondition());
+                for (int k = 0; k < count; k++) {
+                    int lane = active[k];
+                    if (targets[lane] < 0 && condition[lane] != 0) {
+                        targets[lane] = c.getTarget();
+                    }
+                }
+            }
+            for (int k = 0; k < count; k++) {
+                int lane = active[k];
+                pc[lane] = targets[lane] < 0 ? rangeSwitch.getFallthrough() : targets[lane];
+            }
+        } else if (statement instanceof ForStatement) {
+            ForStatement loop = (ForStatement) statement;
+            double[] start = evaluate(loop.getStart());
+            double[] limit = evaluate(loop.getEnd());
+            double[] step = loop.getStep() == null ? null : evaluate(loop.getStep());
+            double[][] state = loops.computeIfAbsent(loop.getLoop(), l -> new double[][]{new double[lanes], new double[lanes]});
+            double[] column = column(loop.getName());
+            for (int k = 0; k < count; k++) {
+                int lane = active[k];
+                state[0][lane] = limit[lane];
+                state[1][lane] = step == null ? 1 : step[lane];
+                column[lane] = start[lane];
+                pc[lane] = continues(state, lane, start[lane]) ? index + 1 : loop.getLoop().getExit();
+            }
+        } else if (statement instanceof NextStatement) {
+            NextStatement next = (NextStatement) statement;
+            double[][] state = loops.get(next.getLoop());
+            double[] column = column(next.getName());
+            for (int k = 0; k < count; k++) {
+                int lane = active[k];
+                column[lane] += state[1][lane];
+                pc[lane] = continues(state, lane, column[lane]) ? next.getLoop().getBody() : index + 1;
+            }
+        }
+    }
+
+    /**
+     * Moves the active lanes to a target if their condition holds (or
+     * unconditionally if there is none), and to the next statement
+     * otherwise.
+     */
+    private void jump(double[] condition, int target, int next) {
+        if (condition == null && count == high - low) {
+            Arrays.fill(pc, low, high, target);
+            return;
+        }
+        for (int k = 0; k < count; k++) {
+            int lane = active[k];
+            pc[lane] = condition == null || condition[lane] != 0 ? target : next;
+        }
+    }
+
+    private static boolean continues(double[][] state, int lane, double value) {
+        return state[1][lane] >= 0 ? value <= state[0][lane] : value >= state[0][lane];
+    }
+
+    /**
+     * Evaluates an expression for the active lanes. While they are dense,
+     * every lane from the first to the last active one is computed, so that
+     * the loops are straight runs over the columns; once they thin out, only
+     * the active ones are.
+     *
+     * @return The results, indexed by lane. Other lanes hold garbage.
+     */
+    private double[] evaluate(Expression expression) {
+        if (expression instanceof VariableExpression) {
+            return column(((VariableExpression) expression).getName());
+        } else if (expression instanceof NumberValue) {
+            double[] result = scratch.get(expression);
+            if (result == null) {
+                result = new double[lanes];
+                Arrays.fill(result, expression.evaluateNumber());
+                scratch.put(expression, result);
+            }
+            return result;
+        } else if (expression instanceof ParameterExpression) {
+            ParameterExpression parameter = (ParameterExpression) expression;
+            return arguments.get(parameter.getArguments())[parameter.getIndex()];
+        }
+
+        double[] result = scratch.computeIfAbsent(expression, e -> new double[lanes]);
+        if (expression instanceof OperatorExpression) {
+            OperatorExpression operator = (OperatorExpression) expression;
+            double[] left = evaluate(operator.getLeft());
+            double[] right = evaluate(operator.getRight());
+            if (dense) {
+                apply(operator.getOperator(), left, right, result, low, high);
+            } else {
+                for (int k = 0; k < count; k++) {
+                    int lane = active[k];
+                    result[lane] = operator.evaluate(left[lane], right[lane]);
+                }
+            }
+        } else if (expression instanceof UnaryMathCall) {
+            DoubleUnaryOperator function = ((UnaryMathCall) expression).getOperator();
+            double[] argument = evaluate(((UnaryMathCall) expression).getArguments().get(0));
+            if (dense) {
+                for (int lane = low; lane < high; lane++) {
+                    result[lane] = function.applyAsDouble(argument[lane]);
+                }
+            } else {
+                for (int k = 0; k < count; k++) {
+                    result[active[k]] = function.applyAsDouble(argument[active[k]]);
+                }
+            }
+        } else if (expression instanceof BinaryMathCall) {
+            DoubleBinaryOperator function = ((BinaryMathCall) expression).getOperator();
+            double[] left = evaluate(((BinaryMathCall) expression).getArguments().get(0));
+            double[] right = evaluate(((BinaryMathCall) expression).getArguments().get(1));
+            if (dense) {
+                for (int lane = low; lane < high; lane++) {
+                    result[lane] = function.applyAsDouble(left[lane], right[lane]);
+                }
+            } else {
+                for (int k = 0; k < count; k++) {
+                    result[active[k]] = function.applyAsDouble(left[active[k]], right[active[k]]);
+                }
+            }
+        } else if (expression instanceof UserCallExpression) {
+            UserCallExpression call = (UserCallExpression) expression;
+            // Copy the arguments, so the body is free to reuse any column.
+            double[][] values = argumentCopies.computeIfAbsent(call,
+                    c -> new double[c.getArguments().size()][lanes]);
+            for (int i = 0; i < values.length; i++) {
+                copy(evaluate(call.getArguments().get(i)), values[i]);
+            }
+            arguments.put(call.getFunction().getArguments(), values);
+            copy(evaluate(call.getFunction().getBody()), result);
+        }
+        return result;
+    }
+
+    /**
+     * Copies the active lanes of one column to another.
+     */
+    private void copy(double[] from, double[] to) {
+        if (count == high - low) {
+            System.arraycopy(from, low, to, low, high - low);
+        } else {
+            for (int k = 0; k < count; k++) {
+                to[active[k]] = from[active[k]];
+            }
+        }
+    }
+
+    /**
+     * Applies an operator to two columns, lane by lane. Each operator gets
+     * its own loop so that the loops are simple enough to vectorize.
+     */
+    private static void apply(String operator, double[] left, double[] right, double[] result, int low, int high) {
+        switch (operator) {
+            case "+":
+                for (int i = low; i < high; i++) {
+                    result[i] = left[i] + right[i];
+                }
+                break;
+            case "-":
+                for (int i = low; i < high; i++) {
+                    result[i] = left[i] - right[i];
+                }
+                break;
+            case "*":
+                for (int i = low; i < high; i++) {
+                    result[i] = left[i] * right[i];
+                }
+                break;
+            case "/":
+            case "%":
+                for (int i = low; i < high; i++) {
+                    result[i] = left[i] / right[i];
+                }
+                break;
+            case "=":
+                for (int i = low; i < high; i++) {
+                    result[i] = left[i] == right[i] ? 1 : 0;
+                }
+                break;
+            case "<":
+                for (int i = low; i < high; i++) {
+                    result[i] = left[i] < right[i] ? 1 : 0;
+                }
+                break;
+            case "<=":
+                for (int i = low; i < high; i++) {
+                    result[i] = left[i] <= right[i] ? 1 : 0;
+                }
+                break;
+            case ">":
+                for (int i = low; i < high; i++) {
+                    result[i] = left[i] > right[i] ? 1 : 0;
+                }
+                break;
+            case ">=":
+                for (int i = low; i < high; i++) {
+                    result[i] = left[i] >= right[i] ? 1 : 0;
+                }
+                break;
+            default:
+                throw new Error("Batch mode can't run the operator '" + operator + "'.");
+        }
+    }
+
+    private double[] column(String name) {
+        return columns.computeIfAbsent(name, n -> new double[lanes]);
+    }
+
+    /**
+     * Makes sure a statement only uses what batch mode supports.
+     */
+    private void check(Statement statement) {
+        String problem = null;
+        if (statement instanceof AssignStatement) {
+            problem = checkNumeric(((AssignStatement) statement).getValue());
+        } else if (statement instanceof PrintStatement) {
+            Expression expression = ((PrintStatement) statement).getExpression();
+            problem = expression instanceof StringValue ? null : checkNumeric(expression);
+        } else if (statement instanceof IfThenStatement) {
+            problem = checkNumeric(((IfThenStatement) statement).getCondition());
+        } else if (statement instanceof RangeSwitchStatement) {
+            for (RangeSwitchStatement.Case c : ((RangeSwitchStatement) statement).getCases()) {
+                problem = problem != null ? problem : checkNumeric(c.getCondition());
+            }
+        } else if (statement instanceof ForStatement) {
+            ForStatement loop = (ForStatement) statement;
+            problem = checkNumeric(loop.getStart());
+            problem = problem != null ? problem : checkNumeric(loop.getEnd());
+            problem = problem != null || loop.getStep() == null ? problem : checkNumeric(loop.getStep());
+        } else if (!(statement instanceof GotoStatement) && !(statement instanceof NextStatement)) {
+            problem = "it isn't supported";
+        }
+        if (problem != null) {
+            throw new Error("Batch mode can't run '" + statement.decodedString() + "': " + problem + ".");
+        }
+    }
+
+    /**
+     * @return Why an expression can't be evaluated on columns, or null if it
+     * can.
+     */
+    private static String checkNumeric(Expression expression) {
+        if (expression instanceof NumberValue || expression instanceof VariableExpression
+                || expression instanceof ParameterExpression) {
+            return null;
+        } else if (expression instanceof OperatorExpression) {
+            String left = checkNumeric(((OperatorExpression) expression).getLeft());
+            return left != null ? left : checkNumeric(((OperatorExpression) expression).getRight());
+        } else if (expression instanceof UnaryMathCall || expression instanceof BinaryMathCall) {
+            for (Expression argument : ((CallExpression) expression).getArguments()) {
+                String problem = checkNumeric(argument);
+                if (problem != null) {
+                    return problem;
+                }
+            }
+            return null;
+        } else if (expression instanceof UserCallExpression) {
+            UserCallExpression call = (UserCallExpression) expression;
+            for (Expression argument : call.getArguments()) {
+                String problem = checkNumeric(argument);
+                if (problem != null) {
+                    return problem;
+                }
+            }
+            return checkNumeric(call.getFunction().getBody());
+        } else if (expression instanceof StringValue) {
+            return "it uses the string \"" + expression + "\"";
+        }
+        return "it uses '" + expression.decodedString() + "', which only works on single values";
+    }
+}
@@ -0,0 +1,293 @@
+package org.marasm.basicscript.bench;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.monitor.JasicMetrics;
+import org.marasm.basicscript.store.SharedVariables;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Times a script, for "jasic bench":
+ * <p>
+ * jasic bench [--runs=<n>] [--warmup=<n>] [--save=<file>]
+ * [--baseline=<file> [--threshold=<percent>]] [--threads=<n>]
+ * [--auto-parallel] <script>
+ * <p>
+ * The script is run a few times to warm the JVM up, and then the given
+ * number of times, each in a new interpreter, with no input. A run is timed
+ * from compiling the script to the end of it. What it prints
+ * is thrown away, but checksummed, so a change that makes a script faster by
+ * breaking it shows up. The report has the fastest, median and 99th
+ * percentile time of a run, statements per second at the median, and the
+ * median bytes allocated per run.
+ * <p>
+ * The results can be saved as JSON, and compared with results saved
+ * earlier: if the median got slower by more than the threshold (5% by
+ * default), or the output changed, the command fails.
+ */
+public class Bench {
+
+    private int runs = 10;
+    private int warmup = 3;
+    private String save;
+    private String baseline;
+    private double threshold = 5;
+    private int threads;
+    private boolean autoParallel;
+    private String path;
+
+    /**
+     * The results of a benchmark.
+     */
+    static class Result {
+        String script;
+        int runs;
+        double minMs;
+        double medianMs;
+        double p99Ms;
+        double statementsPerSecond;
+        long allocatedBytes;
+        String outputCrc;
+
+        String toJson() {
+            return String.format(Locale.ROOT, "{%n"
+                            + "  \"script\": \"%s\",%n"
+                            + "  \"runs\": %d,%n"
+                            + "  \"min_ms\": %.3f,%n"
+                            + "  \"median_ms\": %.3f,%n"
+                            + "  \"p99_ms\": %.3f,%n"
+                            + "  \"statements_per_second\": %.0f,%n"
+                            + "  \"allocated_bytes\": %d,%n"
+                            + "  \"output_crc\": \"%s\"%n"
+                            + "}%n",
+                    script.replace("\\", "\\\\").replace("\"", "\\\""), runs, minMs, medianMs, p99Ms,
+                    statementsPerSecond, allocatedBytes, outputCrc);
+        }
+
+        static Result fromJson(String json) {
+            Result result = new Result();
+            result.script = string(json, "script");
+            result.runs = (int) number(json, "runs");
+            result.minMs = number(json, "min_ms");
+            result.medianMs = number(json, "median_ms");
+            result.p99Ms = number(json, "p99_ms");
+            result.statementsPerSecond = number(json, "statements_per_second");
+            result.allocatedBytes = (long) number(json, "allocated_bytes");
+            result.outputCrc = string(json, "output_crc");
+            return result;
+        }
+
+        private static double number(String json, String name) {
+            Matcher matcher = Pattern.compile("\"" + name + "\"\\s*:\\s*([-0-9.eE+]+)").matcher(json);
+            if (!matcher.find()) {
+                throw new Error("The baseline has no \"" + name + "\".");
+            }
+            return Double.parseDouble(matcher.group(1));
+        }
+
+        private static String string(String json, String name) {
+            Matcher matcher = Pattern.compile("\"" + name + "\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"").matcher(json);
+            if (!matcher.find()) {
+                throw new Error("The baseline has no \"" + name + "\".");
+            }
+            return matcher.group(1).replace("\\\"", "\"").replace("\\\\", "\\");
+        }
+    }
+
+    /**
+     * An output stream that only keeps a checksum of what's written to it.
+     */
+    private static class ChecksumStream extends OutputStream {
+        final CRC32 crc = new CRC32();
+
+        @Override
+        public void write(int b) {
+            crc.update(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            crc.update(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Runs "jasic bench" with the arguments after "bench".
+     *
+     * @return True if there was no baseline, or the script is no slower than
+     * it and prints the same.
+     */
+    public static boolean main(String[] args) {
+        Bench bench = new Bench();
+        for (String arg : args) {
+            if (arg.matches("--runs=[1-9]\\d*")) {
+                bench.runs = Integer.parseInt(arg.substring("--runs=".length()));
+            } else if (arg.matches("--warmup=\\d+")) {
+                bench.warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            } else if (arg.startsWith("--save=")) {
+                bench.save = arg.substring("--save=".length());
+            } else if (arg.startsWith("--baseline=")) {
+                bench.baseline = arg.substring("--baseline=".length());
+            } else if (arg.matches("--threshold=\\d+(\\.\\d+)?")) {
+                bench.threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+            } else if (arg.matches("--threads=[1-9]\\d*")) {
+                bench.threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.equals("--auto-parallel")) {
+                bench.autoParallel = true;
+            } else if (bench.path == null && !arg.startsWith("--")) {
+                bench.path = arg;
+            } else {
+                bench.path = null;
+                break;
+            }
+        }
+        if (bench.path == null) {
+            System.out.println("Usage: jasic bench [--runs=<n>] [--warmup=<n>] [--save=<file>]"
+                    + " [--baseline=<file> [--threshold=<percent>]] [--threads=<n>] [--auto-parallel] <script>");
+            return true;
+        }
+        return bench.run(System.out);
+    }
+
+    private boolean run(PrintStream report) {
+        String source = Jasic.readFile(path);
+        if (source == null) {
+            throw new Error("Can't read " + path + ".");
+        }
+
+        // Count the statements once, in a run of its own, since counting
+        // them slows the runs down.
+        JasicMetrics metrics = new JasicMetrics();
+        runOnce(source, metrics);
+        long statements = metrics.getStatementsExecuted();
+        for (int i = 0; i < warmup; i++) {
+            runOnce(source, null);
+        }
+
+        long[] nanos = new long[runs];
+        long[] bytes = new long[runs];
+        String crc = null;
+        com.sun.management.ThreadMXBean threadBean = threadBean();
+        for (int i = 0; i < runs; i++) {
+            long allocated = allocatedBytes(threadBean);
+            long start = System.nanoTime();
+            String output = runOnce(source, null);
+            nanos[i] = System.nanoTime() - start;
+            bytes[i] = allocatedBytes(threadBean) - allocated;
+            if (crc != null && !crc.equals(output)) {
+                report.println("warning: the output changed from one run to the next");
+            }
+            crc = output;
+        }
+        Arrays.sort(nanos);
+        Arrays.sort(bytes);
+
+        Result result = new Result();
+        result.script = path;
+        result.runs = runs;
+        result.minMs = nanos[0] / 1e6;
+        result.medianMs = nanos[runs / 2] / 1e6;
+        result.p99Ms = nanos[Math.min(runs - 1, (int) Math.ceil(runs * 0.99) - 1)] / 1e6;
+        result.statementsPerSecond = statements * 1e3 / Math.max(result.medianMs, 1e-6);
+        result.allocatedBytes = bytes[runs / 2];
+        result.outputCrc = crc;
+
+        report.println(String.format(Locale.ROOT, "%s: %d runs, min %.3f ms, median %.3f ms, p99 %.3f ms",
+                path, runs, result.minMs, result.medianMs, result.p99Ms));
+        report.println(String.format(Locale.ROOT, "%d statements a run, %.0f statements/s, %d bytes allocated a run,"
+                + " output crc %s", statements, result.statementsPerSecond, result.allocatedBytes, crc));
+
+        if (save != null) {
+            write(save, result.toJson());
+        }
+        if (baseline != null) {
+            return compare(result, Result.fromJson(read(baseline)), report);
+        }
+        return true;
+    }
+
+    private boolean compare(Result result, Result base, PrintStream report) {
+        boolean ok = true;
+        double change = 100 * (result.medianMs - base.medianMs) / base.medianMs;
+        report.println(String.format(Locale.ROOT, "baseline median %.3f ms, now %.3f ms (%+.1f%%)",
+                base.medianMs, result.medianMs, change));
+        if (change > threshold) {
+            report.println(String.format(Locale.ROOT, "REGRESSION: more than %.1f%% slower than the baseline",
+                    threshold));
+            ok = false;
+        }
+        if (!base.outputCrc.equals(result.outputCrc)) {
+            report.println("REGRESSION: the output isn't the same as the baseline's");
+            ok = false;
+        }
+        return ok;
+    }
+
+    /**
+     * Runs the script once in a new interpreter.
+     *
+     * @return The checksum of what it printed.
+     */
+    private String runOnce(String source, JasicMetrics metrics) {
+        ChecksumStream output = new ChecksumStream();
+        Jasic jasic = new Jasic();
+        jasic.setOut(new PrintStream(output, false));
+        jasic.setLineIn(new BufferedReader(new StringReader("")));
+        // Every run starts from scratch, shared variables included.
+        jasic.setShared(new SharedVariables());
+        jasic.setAutoParallel(autoParallel);
+        if (threads > 0) {
+            jasic.setParallelism(threads);
+        }
+        jasic.setMetrics(metrics);
+        try {
+            jasic.interpret(source);
+        } finally {
+            // Otherwise every run would leave the threads of its parallel
+            // loops behind.
+            jasic.close();
+        }
+        jasic.getOut().flush();
+        return Long.toHexString(output.crc.getValue());
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threadBean) {
+        return threadBean == null ? 0 : threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String read(String path) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new Error("Can't read " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static void write(String path, String contents) {
+        try {
+            Files.write(Paths.get(path), contents.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new Error("Can't write " + path + ": " + e.getMessage());
+        }
+    }
+}
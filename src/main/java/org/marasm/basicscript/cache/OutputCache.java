@@ -0,0 +1,229 @@
+package org.marasm.basicscript.cache;
+
+import org.marasm.basicscript.Jasic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps what scripts printed on disk, so a script that depends on nothing
+ * but its source (see {@link org.marasm.basicscript.tools.Determinism}) is
+ * only ever run once. After that, running it again just prints what it
+ * printed the first time.
+ * <p>
+ * Each output is a file named after a hash of the script, the settings it
+ * ran with and the version of the interpreter, so a new build never replays
+ * what an older one printed. Outputs bigger than {@link #MAX_ENTRY} aren't
+ * kept, and once the files add up to more than the size of the cache, the
+ * ones used least recently are removed. A file's modification time is when
+ * it was last used.
+ */
+public class OutputCache {
+    public static final long DEFAULT_SIZE = 64L << 20;
+    public static final int MAX_ENTRY = 4 << 20;
+
+    private static final String SUFFIX = ".out";
+
+    private final Path directory;
+    private final long size;
+
+    /**
+     * @param directory Where the outputs go. It's created if need be.
+     * @param size      How many bytes of outputs to keep at most.
+     */
+    public OutputCache(Path directory, long size) {
+        this.directory = directory;
+        this.size = size;
+    }
+
+    /**
+     * An output stream that passes everything through to another one, and
+     * keeps a copy of it as long as it's no bigger than {@link #MAX_ENTRY}.
+     */
+    public static class Recorder extends OutputStream {
+        private final OutputStream out;
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private boolean overflowed;
+
+        public Recorder(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            keep(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            keep(bytes, offset, length);
+        }
+
+        private void keep(byte[] bytes, int offset, int length) {
+            if (overflowed || copy.size() + length > MAX_ENTRY) {
+                overflowed = true;
+                copy.reset();
+            } else {
+                copy.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * @return Everything written so far, or null if it was too much.
+         */
+        public byte[] recorded() {
+            return overflowed ? null : copy.toByteArray();
+        }
+    }
+
+    /**
+     * @return The directory outputs go in by default: jasic/output in the
+     * user's cache directory.
+     */
+    public static Path defaultDirectory() {
+        String cache = System.getenv("XDG_CACHE_HOME");
+        Path base = cache != null && !cache.isEmpty()
+                ? Paths.get(cache) : Paths.get(System.getProperty("user.home"), ".cache");
+        return base.resolve("jasic").resolve("output");
+    }
+
+    /**
+     * Works out what the output of a script run by an interpreter is kept
+     * under, taking the interpreter's settings into account.
+     */
+    public static String key(Jasic jasic, String source) {
+        return key(source, "threads=" + jasic.getParallelism() + " auto-parallel=" + jasic.isAutoParallel());
+    }
+
+    /**
+     * Works out what an output is kept under.
+     *
+     * @param source   The script.
+     * @param settings Anything else that can change what it prints.
+     */
+    public static String key(String source, String settings) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(engineVersion().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(settings.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * @return The version of the interpreter. Builds without one are told
+     * apart by when the interpreter was compiled.
+     */
+    static String engineVersion() {
+        String version = Jasic.class.getPackage().getImplementationVersion();
+        URL classFile = Jasic.class.getResource("Jasic.class");
+        long modified = 0;
+        try {
+            modified = classFile == null ? 0 : classFile.openConnection().getLastModified();
+        } catch (IOException e) {
+            // Then the version alone has to do.
+        }
+        return version + "/" + modified;
+    }
+
+    /**
+     * Looks an output up, and marks it as just used.
+     *
+     * @return The output, or null if it isn't there.
+     */
+    public byte[] get(String key) {
+        Path entry = directory.resolve(key + SUFFIX);
+        try {
+            byte[] output = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return output;
+        } catch (IOException e) {
+            // Not there, or a cache that can't be read, which is as good as
+            // empty.
+            return null;
+        }
+    }
+
+    /**
+     * Keeps an output, and makes room for it if need be.
+     */
+    public void put(String key, byte[] output) {
+        if (output.length > MAX_ENTRY || output.length > size) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            // Another run may be writing the same output at the same time.
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, output);
+            Files.move(temporary, directory.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException e) {
+            // A cache that can't be written just doesn't remember anything.
+        }
+    }
+
+    /**
+     * Removes the outputs used least recently until the rest fit.
+     */
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                entries.add(file);
+                total += Files.size(file);
+            }
+        }
+        if (total <= size) {
+            return;
+        }
+        entries.sort(Comparator.comparing(OutputCache::lastUsed));
+        for (Path entry : entries) {
+            if (total <= size) {
+                break;
+            }
+            total -= Files.size(entry);
+            Files.deleteIfExists(entry);
+        }
+    }
+
+    private static FileTime lastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
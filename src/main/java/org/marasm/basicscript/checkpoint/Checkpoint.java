@@ -0,0 +1,214 @@
+package org.marasm.basicscript.checkpoint;
+
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.statements.ForStatement;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.store.HeapVariableStore;
+import org.marasm.basicscript.store.VariableStore;
+import org.marasm.basicscript.tools.ControlFlow;
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.Value;
+import org.marasm.basicscript.values.ValueCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * The state of a run of a script at the start of one of its statements:
+ * which statement that is, the values of the variables, and the bound and
+ * step of every "for" loop. A run can carry on from a checkpoint in another
+ * process, as long as it runs the same script.
+ * <p>
+ * Taking a checkpoint is cheap: numbers and strings never change, so the
+ * variables are just copied, and arrays are snapshotted (see
+ * {@link ArrayValue#snapshot()}). Writing it out can then happen on another
+ * thread while the script goes on, after which it should be released.
+ * <p>
+ * On disk a checkpoint is a small header followed by the variables, each one
+ * a name and a value (see {@link ValueCodec}).
+ */
+public class Checkpoint {
+    private static final int MAGIC = 0x4A434B50;
+    private static final int VERSION = 1;
+
+    /**
+     * A checksum of the source of the script, to make sure a checkpoint is
+     * only used to resume the script it was taken from.
+     */
+    @Getter
+    private final long script;
+    @Getter
+    private final int currentStatement;
+    /**
+     * The bound and step of every loop, in the order the loops appear in the
+     * script.
+     */
+    private final double[] loops;
+    private final VariableStore variables;
+
+    private Checkpoint(long script, int currentStatement, double[] loops, VariableStore variables) {
+        this.script = script;
+        this.currentStatement = currentStatement;
+        this.loops = loops;
+        this.variables = variables;
+    }
+
+    /**
+     * Takes a checkpoint of an interpreter between two statements.
+     */
+    public static Checkpoint take(Jasic jasic) {
+        VariableStore store = jasic.getStore();
+        VariableStore variables = new HeapVariableStore();
+        for (int slot = 0; slot < store.size(); slot++) {
+            if (!store.isAssigned(slot)) {
+                continue;
+            }
+            Value value = store.get(slot);
+            if (value instanceof ArrayValue) {
+                value = ((ArrayValue) value).snapshot();
+            }
+            variables.set(variables.slot(store.name(slot)), value);
+        }
+
+        List<ForStatement.Loop> loops = loops(jasic.getStatements());
+        double[] state = new double[loops.size() * 2];
+        for (int i = 0; i < loops.size(); i++) {
+            state[i * 2] = loops.get(i).getLimit();
+            state[i * 2 + 1] = loops.get(i).getIncrement();
+        }
+        return new Checkpoint(checksum(jasic.getSource()), jasic.getCurrentStatement(), state, variables);
+    }
+
+    /**
+     * Puts an interpreter that has compiled the same script back in the state
+     * the checkpoint was taken in.
+     */
+    public void restore(Jasic jasic) {
+        if (script != checksum(jasic.getSource())) {
+            throw new Error("The checkpoint was taken from a different script.");
+        }
+        List<ForStatement.Loop> compiled = loops(jasic.getStatements());
+        if (compiled.size() * 2 != loops.length) {
+            throw new Error("The checkpoint was taken from a different script.");
+        }
+        for (int i = 0; i < compiled.size(); i++) {
+            compiled.get(i).restore(loops[i * 2], loops[i * 2 + 1]);
+        }
+
+        VariableStore store = jasic.getStore();
+        for (int slot = 0; slot < variables.size(); slot++) {
+            store.set(store.slot(variables.name(slot)), variables.get(slot));
+        }
+        jasic.setCurrentStatement(currentStatement);
+    }
+
+    /**
+     * Lets go of the snapshots of the arrays, once the checkpoint has been
+     * written (see {@link ArrayValue#release()}). The checkpoint can't be
+     * used afterwards.
+     */
+    public void release() {
+        for (int slot = 0; slot < variables.size(); slot++) {
+            Value value = variables.get(slot);
+            if (value instanceof ArrayValue) {
+                ((ArrayValue) value).release();
+            }
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a file. The file is replaced in one step, so
+     * if the process dies half-way through, the last checkpoint is still
+     * there.
+     */
+    public void write(Path path) throws IOException {
+        Path temporary = temporary(path);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(script);
+            out.writeInt(currentStatement);
+            out.writeInt(loops.length);
+            for (double value : loops) {
+                out.writeDouble(value);
+            }
+            out.writeInt(variables.size());
+            for (int slot = 0; slot < variables.size(); slot++) {
+                ValueCodec.writeString(out, variables.name(slot));
+                ValueCodec.write(out, variables.get(slot));
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint written by {@link #write(Path)}.
+     */
+    public static Checkpoint read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new Error(path + " isn't a checkpoint.");
+            }
+            long script = in.readLong();
+            int currentStatement = in.readInt();
+            double[] loops = new double[in.readInt()];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = in.readDouble();
+            }
+            VariableStore variables = new HeapVariableStore();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = ValueCodec.readString(in);
+                variables.set(variables.slot(name), ValueCodec.read(in));
+            }
+            return new Checkpoint(script, currentStatement, loops, variables);
+        }
+    }
+
+    /**
+     * @return Where a checkpoint is written before it replaces the one at
+     * the given path.
+     */
+    static Path temporary(Path path) {
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    /**
+     * @return A checksum of the source of a script, to tell whether saved
+     * state belongs to it.
+     */
+    public static long checksum(String source) {
+        CRC32 crc = new CRC32();
+        crc.update(source.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * @return Every "for" loop of a compiled script, in order.
+     */
+    public static List<ForStatement.Loop> loops(List<Statement> statements) {
+        Set<ForStatement.Loop> loops = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<ForStatement.Loop> ordered = new ArrayList<>();
+        for (Statement statement : statements) {
+            ForStatement.Loop loop = ControlFlow.loopOf(statement);
+            if (loop != null && loops.add(loop)) {
+                ordered.add(loop);
+            }
+        }
+        return ordered;
+    }
+}
@@ -0,0 +1,154 @@
+package org.marasm.basicscript.checkpoint;
+
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps a checkpoint file of a long run of a script up to date, so that it
+ * can be resumed if the process dies. A checkpoint is taken every so many
+ * statements, or as soon as possible after the process gets a signal, and
+ * written to the file on a background thread while the script goes on.
+ * <p>
+ * If the previous checkpoint is still being written when the next one is
+ * due, the next one is skipped rather than making the script wait.
+ */
+public class Checkpointer {
+
+    @Getter
+    private final Path path;
+    /**
+     * How many statements to run between two checkpoints.
+     */
+    @Getter
+    private final long interval;
+    private long countdown;
+    private volatile boolean requested;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpoint writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> pending;
+
+    public Checkpointer(Path path, long interval) {
+        this.path = path;
+        this.interval = interval;
+        this.countdown = interval;
+    }
+
+    /**
+     * Takes a checkpoint at the start of the next statement whenever the
+     * process gets a signal, like HUP.
+     * <p>
+     * Signals can only be caught through sun.misc.Signal, which isn't there
+     * on every JVM, so it's looked up at run time. Where it's missing, or
+     * the system doesn't have the signal, this prints a warning and
+     * checkpoints are only taken every so many statements.
+     *
+     * @param name The name of the signal, without "SIG".
+     * @return True if the signal is caught.
+     */
+    public boolean onSignal(String name) {
+        String problem;
+        try {
+            Class<?> signal = Class.forName("sun.misc.Signal");
+            Class<?> handler = Class.forName("sun.misc.SignalHandler");
+            Object request = Proxy.newProxyInstance(handler.getClassLoader(), new Class<?>[]{handler},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "handle":
+                                requested = true;
+                                return null;
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return "checkpoint on SIG" + name;
+                        }
+                    });
+            signal.getMethod("handle", signal, handler)
+                    .invoke(null, signal.getConstructor(String.class).newInstance(name), request);
+            return true;
+        } catch (InvocationTargetException e) {
+            // Most likely an IllegalArgumentException: no such signal here,
+            // or the JVM uses it itself.
+            problem = e.getCause().getMessage();
+        } catch (ReflectiveOperationException | LinkageError | SecurityException e) {
+            problem = "this JVM can't catch signals";
+        }
+        System.err.println("jasic: can't take checkpoints on SIG" + name + ": " + problem);
+        return false;
+    }
+
+    /**
+     * Called by the interpreter before every statement.
+     *
+     * @return True if a checkpoint should be taken now.
+     */
+    public boolean isDue() {
+        return --countdown <= 0 || requested;
+    }
+
+    /**
+     * Takes a checkpoint of an interpreter and starts writing it out.
+     */
+    public void save(Jasic jasic) {
+        countdown = interval;
+        if (pending != null) {
+            if (!pending.isDone()) {
+                return;
+            }
+            check(pending);
+        }
+        requested = false;
+        Checkpoint checkpoint = Checkpoint.take(jasic);
+        pending = writer.submit(() -> {
+            try {
+                checkpoint.write(path);
+            } finally {
+                checkpoint.release();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Waits for the last checkpoint to be written, and then removes the
+     * file, since a script that ran to the end has nothing to resume.
+     */
+    public void finish() {
+        try {
+            if (pending != null) {
+                check(pending);
+            }
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(Checkpoint.temporary(path));
+        } catch (IOException e) {
+            throw new Error("Can't remove checkpoint " + path + ": " + e.getMessage());
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    private void check(Future<?> write) {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Error("Interrupted while writing checkpoint " + path + ".");
+        } catch (ExecutionException e) {
+            throw new Error("Can't write checkpoint " + path + ": " + e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.marasm.basicscript.expressions;
+
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.Value;
+
+/**
+ * An array element expression evaluates to one element of an array:
+ * <p>
+ * a[i]
+ * <p>
+ * The index is evaluated every time. Indexing something that isn't an array
+ * gives 0, like reading a variable that was never set.
+ */
+public class ArrayElementExpression implements Expression {
+
+    @Getter
+    private final Expression array;
+    @Getter
+    private final Expression index;
+    private final boolean numericIndex;
+    private final Jasic jasic;
+
+    /**
+     * @param array The array being indexed. This is either a variable or
+     *              another element, for arrays of arrays.
+     * @param index The index of the element.
+     * @param jasic The interpreter.
+     */
+    public ArrayElementExpression(Expression array, Expression index, Jasic jasic) {
+        this.array = array;
+        this.index = index;
+        this.numericIndex = index instanceof NumericExpression;
+        this.jasic = jasic;
+    }
+
+    @Override
+    public Value evaluate() {
+        Value value = array.evaluate();
+        if (value instanceof ArrayValue) {
+            return ((ArrayValue) value).get(index.evaluate());
+        }
+        return new NumberValue(0);
+    }
+
+    @Override
+    public double evaluateNumber() {
+        Value value = array.evaluate();
+        if (!(value instanceof ArrayValue)) {
+            return 0;
+        }
+        if (numericIndex) {
+            return ((ArrayValue) value).getNumber(index.evaluateNumber());
+        }
+        return ((ArrayValue) value).get(index.evaluate()).toNumber();
+    }
+
+    /**
+     * Stores a value in this element, creating the array (and any arrays it
+     * is nested in) if needed.
+     */
+    public void assign(Value value) {
+        ArrayValue target = vivify();
+        if (numericIndex) {
+            if (value instanceof NumberValue) {
+                target.setNumber(index.evaluateNumber(), value.toNumber());
+            } else {
+                target.set(new NumberValue(index.evaluateNumber()), value);
+            }
+        } else {
+            target.set(index.evaluate(), value);
+        }
+    }
+
+    /**
+     * Stores a number in this element without boxing it (unless the index
+     * isn't numeric), creating the array if needed.
+     */
+    public void assignNumber(double value) {
+        ArrayValue target = vivify();
+        if (numericIndex) {
+            target.setNumber(index.evaluateNumber(), value);
+        } else {
+            target.set(index.evaluate(), new NumberValue(value));
+        }
+    }
+
+    /**
+     * Gets the array this element lives in, ready to be written to. If the
+     * variable (or outer element) doesn't hold an array yet, a new empty one
+     * replaces it, and if it holds a shared one, a copy of it does.
+     */
+    private ArrayValue vivify() {
+        if (array instanceof ArrayElementExpression) {
+            return ((ArrayElementExpression) array).vivifyElement();
+        }
+        return ((VariableExpression) array).vivify();
+    }
+
+    /**
+     * Gets the array in this element, ready to be written to, the same way
+     * {@link VariableExpression#vivify()} does for a variable.
+     */
+    public ArrayValue vivifyElement() {
+        ArrayValue target = vivify();
+        Value key = index.evaluate();
+        Value value = target.get(key);
+        if (value instanceof ArrayValue && !((ArrayValue) value).isShared()) {
+            return (ArrayValue) value;
+        }
+        ArrayValue created = value instanceof ArrayValue ? ((ArrayValue) value).copy() : new ArrayValue();
+        target.set(key, created);
+        return created;
+    }
+
+    /**
+     * @return The name of the variable at the root of this element, or null
+     * if the root isn't a variable: a function's parameter, say, or a value
+     * an inlined call put there.
+     */
+    public String getRootName() {
+        if (array instanceof ArrayElementExpression) {
+            return ((ArrayElementExpression) array).getRootName();
+        }
+        return array instanceof VariableExpression ? ((VariableExpression) array).getName() : null;
+    }
+
+    @Override
+    public String decodedString() {
+        return array.decodedString() + "[" + index.decodedString() + "]";
+    }
+}
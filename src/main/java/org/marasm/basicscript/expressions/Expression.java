@@ -18,5 +18,15 @@ public interface Expression {
      */
     Value evaluate();
 
+    /**
+     * Evaluates the expression and converts the result to a number.
+     * Expressions that can produce a number without boxing it override this.
+     *
+     * @return The numeric value of the calculated expression.
+     */
+    default double evaluateNumber() {
+        return evaluate().toNumber();
+    }
+
     String decodedString();
 }
@@ -0,0 +1,20 @@
+package org.marasm.basicscript.expressions;
+
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.Value;
+
+/**
+ * An expression that always produces a number. The type inference pass
+ * compiles expressions it can prove numeric into these, so that they can be
+ * evaluated as primitive doubles without allocating or type-checking
+ * values.
+ */
+public interface NumericExpression extends Expression {
+    @Override
+    double evaluateNumber();
+
+    @Override
+    default Value evaluate() {
+        return new NumberValue(evaluateNumber());
+    }
+}
@@ -0,0 +1,39 @@
+package org.marasm.basicscript.expressions;
+
+import lombok.Getter;
+
+/**
+ * A numeric operator expression applies an operator to two operands that
+ * are known to be numbers, using the primitive form of the operator.
+ */
+public class NumericOperatorExpression implements NumericExpression {
+
+    @Getter
+    private final OperatorExpression operator;
+    @Getter
+    private final Expression left;
+    @Getter
+    private final Expression right;
+
+    /**
+     * @param operator The operator expression being compiled. Only its
+     *                 operator is used, not its operands.
+     * @param left     The compiled left-hand operand.
+     * @param right    The compiled right-hand operand.
+     */
+    public NumericOperatorExpression(OperatorExpression operator, Expression left, Expression right) {
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public double evaluateNumber() {
+        return operator.evaluate(left.evaluateNumber(), right.evaluateNumber());
+    }
+
+    @Override
+    public String decodedString() {
+        return "(" + left.decodedString() + " " + operator.getOperator() + " " + right.decodedString() + ")";
+    }
+}
@@ -63,7 +63,16 @@ public abstract class OperatorExpression implements Expression {
         return operatorExpression;
     }
 
-    protected abstract Value evaluate(Value leftVal, Value rightVal);
+    public abstract Value evaluate(Value leftVal, Value rightVal);
+
+    /**
+     * Operator classes implement this to apply the operator to two numbers
+     * without boxing them. Only called when both operands are known to be
+     * numbers.
+     *
+     * @return The numeric result of the operator.
+     */
+    public abstract double evaluate(double leftVal, double rightVal);
 
     @Override
     public Value evaluate() {
@@ -0,0 +1,31 @@
+package org.marasm.basicscript.expressions;
+
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.values.Value;
+
+/**
+ * Evaluates to the current value of a shared variable (see
+ * {@link org.marasm.basicscript.store.SharedVariables}).
+ */
+public class SharedVariableExpression implements Expression {
+
+    @Getter
+    private final String name;
+    private final Jasic jasic;
+
+    public SharedVariableExpression(String name, Jasic jasic) {
+        this.name = name;
+        this.jasic = jasic;
+    }
+
+    @Override
+    public Value evaluate() {
+        return jasic.getShared().get(name);
+    }
+
+    @Override
+    public String decodedString() {
+        return name;
+    }
+}
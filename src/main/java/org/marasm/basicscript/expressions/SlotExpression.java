@@ -0,0 +1,29 @@
+package org.marasm.basicscript.expressions;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+
+/**
+ * A slot expression reads a variable that only ever holds numbers, straight
+ * from its slot in the variable store, without boxing it.
+ */
+@AllArgsConstructor
+public class SlotExpression implements NumericExpression {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int slot;
+    private final Jasic jasic;
+
+    @Override
+    public double evaluateNumber() {
+        return jasic.getStore().getNumber(slot);
+    }
+
+    @Override
+    public String decodedString() {
+        return name;
+    }
+}
@@ -1,62 +1,58 @@
 package org.marasm.basicscript.expressions;
 
+import lombok.Getter;
 import org.marasm.basicscript.Jasic;
-import org.marasm.basicscript.Parser;
-import org.marasm.basicscript.Tokenizer;
-import org.marasm.basicscript.tools.Simplifier;
+import org.marasm.basicscript.values.ArrayValue;
 import org.marasm.basicscript.values.NumberValue;
-import org.marasm.basicscript.values.StringValue;
 import org.marasm.basicscript.values.Value;
 
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.stream.Collectors;
-
 /**
  * A variable expression evaluates to the current value stored in that
  * variable.
  */
 public class VariableExpression implements Expression {
 
-    private final Expression variable;
+    @Getter
+    private final String name;
     private final Jasic jasic;
 
-    public VariableExpression(String variable, Jasic jasic) {
+    public VariableExpression(String name, Jasic jasic) {
         this.jasic = jasic;
-        this.variable = parseVariableExpression(variable, jasic);
+        this.name = name;
     }
 
-    public static Expression parseVariableExpression(String variable, Jasic jasic) {
-        if (!variable.contains("[")) {
-            return new StringValue(variable);
+    @Override
+    public Value evaluate() {
+        Value value = jasic.getVariables().get(name);
+        if (value != null) {
+            return value;
         }
-        List<String> strings = new LinkedList<>(Arrays.asList(variable.split("\\[")));
-        strings.remove(0);
-        List<Expression> collect = strings.stream()
-                .map(s -> s.split("]")[0])
-                .map(s -> new Parser(jasic, Tokenizer.tokenize(s + "\n")).expression())
-                .map(Simplifier::simplify)
-                .collect(Collectors.toList());
-        return new StringValue(collect.stream()
-                .map(Expression::evaluate)
-                .map(Value::toString)
-                .map(s -> "[" + s + "]")
-                .collect(Collectors.joining()));
+        return new NumberValue(0);
     }
 
     @Override
-    public Value evaluate() {
-        String name = variable.evaluate().toString();
-        if (jasic.getVariables().containsKey(name)) {
-            return jasic.getVariables().get(name);
+    public double evaluateNumber() {
+        return jasic.getStore().getNumber(name);
+    }
+
+    /**
+     * Gets the array in this variable, ready to be written to. If the
+     * variable doesn't hold an array yet, a new empty one replaces it, and
+     * if it holds one shared with a forked run, a copy of it does.
+     */
+    public ArrayValue vivify() {
+        Value value = jasic.getVariables().get(name);
+        if (value instanceof ArrayValue && !((ArrayValue) value).isShared()) {
+            return (ArrayValue) value;
         }
-        return new NumberValue(0);
+        ArrayValue created = value instanceof ArrayValue ? ((ArrayValue) value).copy() : new ArrayValue();
+        jasic.getVariables().put(name, created);
+        return created;
     }
 
     @Override
     public String decodedString() {
-        return variable.toString();
+        return name;
     }
 
 
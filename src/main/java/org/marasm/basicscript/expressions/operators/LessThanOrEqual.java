@@ -13,7 +13,7 @@ public class LessThanOrEqual extends OperatorExpression {
     }
 
     @Override
-    protected Value evaluate(Value leftVal, Value rightVal) {
+    public Value evaluate(Value leftVal, Value rightVal) {
         // Coerce to the left argument's type, then compare.
         if (leftVal instanceof NumberValue && rightVal instanceof NumberValue) {
             return new NumberValue((leftVal.toNumber() <= rightVal.toNumber()) ? 1 : 0);
@@ -21,6 +21,11 @@ public class LessThanOrEqual extends OperatorExpression {
         return new NumberValue((leftVal.toString().compareTo(rightVal.toString()) <= 0) ? 1 : 0);
     }
 
+    @Override
+    public double evaluate(double leftVal, double rightVal) {
+        return (leftVal <= rightVal) ? 1 : 0;
+    }
+
     @Override
     public String getOperator() {
         return "<=";
@@ -17,6 +17,11 @@ public class Minus extends OperatorExpression {
         return new NumberValue(leftVal.toNumber() - rightVal.toNumber());
     }
 
+    @Override
+    public double evaluate(double leftVal, double rightVal) {
+        return leftVal - rightVal;
+    }
+
     @Override
     public String getOperator() {
         return "-";
@@ -21,6 +21,11 @@ public class MoreThanOrEqual extends OperatorExpression {
         return new NumberValue((leftVal.toString().compareTo(rightVal.toString()) >= 0) ? 1 : 0);
     }
 
+    @Override
+    public double evaluate(double leftVal, double rightVal) {
+        return (leftVal >= rightVal) ? 1 : 0;
+    }
+
     @Override
     public String getOperator() {
         return ">=";
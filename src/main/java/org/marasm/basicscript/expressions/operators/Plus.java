@@ -23,6 +23,11 @@ public class Plus extends OperatorExpression {
         return new StringValue(leftVal.toString() + rightVal.toString());
     }
 
+    @Override
+    public double evaluate(double leftVal, double rightVal) {
+        return leftVal + rightVal;
+    }
+
     @Override
     public String getOperator() {
         return "+";
@@ -0,0 +1,46 @@
+package org.marasm.basicscript.functions;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.ArrayElementExpression;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.VariableExpression;
+import org.marasm.basicscript.tools.TypeInference.Type;
+import org.marasm.basicscript.values.Value;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A call to an intrinsic that writes to an array it's given, like fill().
+ * Just like assigning to an element, the call creates the array if the
+ * variable (or element) it's given doesn't hold one yet, and copies it if
+ * it holds one shared with a forked run:
+ * <p>
+ * fill(a, 0, 1000)
+ * <p>
+ * makes a an array of 1000 zeros, whatever it held before.
+ */
+public class ArrayCall extends ValueCall {
+    /**
+     * Which argument is the array written to.
+     */
+    @Getter
+    private final int destination;
+
+    public ArrayCall(Intrinsic intrinsic, List<Expression> arguments, Function<Value[], Value> function,
+                     int destination) {
+        super(intrinsic, arguments, function, Type.DYNAMIC);
+        this.destination = destination;
+    }
+
+    @Override
+    public Value evaluate() {
+        Expression array = getArguments().get(destination);
+        if (array instanceof VariableExpression) {
+            ((VariableExpression) array).vivify();
+        } else if (array instanceof ArrayElementExpression) {
+            ((ArrayElementExpression) array).vivifyElement();
+        }
+        return super.evaluate();
+    }
+}
@@ -0,0 +1,30 @@
+package org.marasm.basicscript.functions;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.NumericExpression;
+
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * A call to a math intrinsic that takes two numbers and returns a number.
+ */
+public class BinaryMathCall extends CallExpression implements NumericExpression {
+    @Getter
+    private final DoubleBinaryOperator operator;
+    private final Expression left;
+    private final Expression right;
+
+    public BinaryMathCall(Intrinsic intrinsic, List<Expression> arguments, DoubleBinaryOperator operator) {
+        super(intrinsic, arguments);
+        this.operator = operator;
+        this.left = arguments.get(0);
+        this.right = arguments.get(1);
+    }
+
+    @Override
+    public double evaluateNumber() {
+        return operator.applyAsDouble(left.evaluateNumber(), right.evaluateNumber());
+    }
+}
@@ -0,0 +1,39 @@
+package org.marasm.basicscript.functions;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.values.Value;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Base class for a call to an intrinsic. Subclasses implement the call for
+ * a particular shape of intrinsic.
+ */
+public abstract class CallExpression implements Expression {
+    @Getter
+    private final Intrinsic intrinsic;
+    @Getter
+    private final List<Expression> arguments;
+
+    protected CallExpression(Intrinsic intrinsic, List<Expression> arguments) {
+        this.intrinsic = intrinsic;
+        this.arguments = arguments;
+    }
+
+    protected Value[] evaluateArguments() {
+        Value[] values = new Value[arguments.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = arguments.get(i).evaluate();
+        }
+        return values;
+    }
+
+    @Override
+    public String decodedString() {
+        return intrinsic.getName() + "(" + arguments.stream()
+                .map(Expression::decodedString)
+                .collect(Collectors.joining(", ")) + ")";
+    }
+}
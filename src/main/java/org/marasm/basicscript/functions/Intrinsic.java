@@ -0,0 +1,48 @@
+package org.marasm.basicscript.functions;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.Expression;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * A built-in function implemented in Java. The parser looks intrinsics up
+ * by name once, and binds each call to the expression class that implements
+ * it, so calling one at run time never involves a name lookup.
+ */
+public class Intrinsic {
+    @Getter
+    private final String name;
+    private final int minArguments;
+    private final int maxArguments;
+    /**
+     * True if the result only depends on the arguments, so a call with
+     * constant arguments can be evaluated when the script is parsed.
+     */
+    @Getter
+    private final boolean pure;
+    private final BiFunction<Intrinsic, List<Expression>, Expression> binder;
+
+    public Intrinsic(String name, int minArguments, int maxArguments, boolean pure,
+                     BiFunction<Intrinsic, List<Expression>, Expression> binder) {
+        this.name = name;
+        this.minArguments = minArguments;
+        this.maxArguments = maxArguments;
+        this.pure = pure;
+        this.binder = binder;
+    }
+
+    /**
+     * Creates the call site for a call to this intrinsic.
+     *
+     * @param arguments The argument expressions.
+     * @return The call expression.
+     */
+    public Expression bind(List<Expression> arguments) {
+        if (arguments.size() < minArguments || arguments.size() > maxArguments) {
+            throw new Error("Wrong number of arguments for " + name + "().");
+        }
+        return binder.apply(this, arguments);
+    }
+}
@@ -0,0 +1,157 @@
+package org.marasm.basicscript.functions;
+
+import org.marasm.basicscript.tools.TypeInference.Type;
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.StringValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The registry of built-in functions. They are called like:
+ * <p>
+ * d = sqrt(x * x + y * y)
+ * <p>
+ * Math functions take and return numbers. String functions work on the
+ * string form of their arguments. Array functions work on an array stored in
+ * a variable, which is passed by reference, so fill() and copy() change the
+ * array they are given. They create it if the variable doesn't hold an
+ * array yet (see {@link ArrayCall}).
+ */
+public class Intrinsics {
+    private static final Map<String, Intrinsic> intrinsics = new HashMap<>();
+    private static final Set<String> NONDETERMINISTIC = new HashSet<>(Arrays.asList("rnd", "timer"));
+
+    static {
+        // Math.
+        unary("abs", Math::abs);
+        unary("sqrt", Math::sqrt);
+        unary("floor", Math::floor);
+        unary("ceil", Math::ceil);
+        unary("round", x -> Math.floor(x + 0.5));
+        unary("trunc", x -> x < 0 ? Math.ceil(x) : Math.floor(x));
+        unary("sgn", Math::signum);
+        unary("sin", Math::sin);
+        unary("cos", Math::cos);
+        unary("tan", Math::tan);
+        unary("atan", Math::atan);
+        unary("exp", Math::exp);
+        unary("log", Math::log);
+        binary("min", Math::min);
+        binary("max", Math::max);
+        binary("pow", Math::pow);
+        binary("atan2", Math::atan2);
+        binary("mod", (x, y) -> x % y);
+        number("rnd", 0, 0, false, args -> Math.random());
+        number("timer", 0, 0, false, args -> System.currentTimeMillis() / 1000.0);
+
+        // Strings.
+        number("len", 1, 1, true, args -> args[0] instanceof ArrayValue
+                ? ((ArrayValue) args[0]).length() : args[0].toString().length());
+        number("find", 2, 3, true, args -> args[0].toString().indexOf(args[1].toString(),
+                args.length > 2 ? (int) args[2].toNumber() : 0));
+        number("val", 1, 1, true, args -> {
+            try {
+                return Double.parseDouble(args[0].toString().trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        });
+        value("substr", 2, 3, true, Type.STRING, args -> {
+            String string = args[0].toString();
+            int start = Math.max(0, Math.min(string.length(), (int) args[1].toNumber()));
+            int end = args.length > 2
+                    ? Math.max(start, Math.min(string.length(), start + (int) args[2].toNumber()))
+                    : string.length();
+            return new StringValue(string.substring(start, end));
+        });
+        value("str", 1, 1, true, Type.STRING, args -> new StringValue(args[0].toString()));
+
+        // Arrays.
+        number("sum", 1, 1, false, args -> args[0] instanceof ArrayValue ? ((ArrayValue) args[0]).sum() : 0);
+        array("fill", 2, 3, 0, args -> {
+            ArrayValue array = writableArray(args[0], "fill");
+            array.fill(args[1], args.length > 2 ? (int) args[2].toNumber() : array.length());
+            return array;
+        });
+        array("copy", 2, 2, 1, args -> {
+            ArrayValue destination = writableArray(args[1], "copy");
+            destination.copyFrom(array(args[0], "copy"));
+            return destination;
+        });
+    }
+
+    /**
+     * @return False for the intrinsics whose result isn't decided by their
+     * arguments alone, like rnd() and timer().
+     */
+    public static boolean isDeterministic(Intrinsic intrinsic) {
+        return !NONDETERMINISTIC.contains(intrinsic.getName());
+    }
+
+    /**
+     * Looks up an intrinsic.
+     *
+     * @param name The name of the function.
+     * @return The intrinsic, or null if there isn't one with that name.
+     */
+    public static Intrinsic get(String name) {
+        return intrinsics.get(name);
+    }
+
+    private static ArrayValue array(Value value, String function) {
+        if (!(value instanceof ArrayValue)) {
+            throw new Error(function + "() needs an array.");
+        }
+        return (ArrayValue) value;
+    }
+
+    private static ArrayValue writableArray(Value value, String function) {
+        ArrayValue array = array(value, function);
+        if (array.isShared()) {
+            throw new Error(function + "() can't change an array shared with a forked run."
+                    + " Give it the variable that holds the array instead.");
+        }
+        if (array.isLocked()) {
+            throw new Error(function + "() can't change an array while a parallel loop writes to it.");
+        }
+        return array;
+    }
+
+    private static void unary(String name, DoubleUnaryOperator operator) {
+        intrinsics.put(name, new Intrinsic(name, 1, 1, true,
+                (intrinsic, arguments) -> new UnaryMathCall(intrinsic, arguments, operator)));
+    }
+
+    private static void binary(String name, DoubleBinaryOperator operator) {
+        intrinsics.put(name, new Intrinsic(name, 2, 2, true,
+                (intrinsic, arguments) -> new BinaryMathCall(intrinsic, arguments, operator)));
+    }
+
+    private static void number(String name, int minArguments, int maxArguments, boolean pure,
+                               ToDoubleFunction<Value[]> function) {
+        intrinsics.put(name, new Intrinsic(name, minArguments, maxArguments, pure,
+                (intrinsic, arguments) -> new NumberCall(intrinsic, arguments, function)));
+    }
+
+    private static void array(String name, int minArguments, int maxArguments, int destination,
+                              Function<Value[], Value> function) {
+        intrinsics.put(name, new Intrinsic(name, minArguments, maxArguments, false,
+                (intrinsic, arguments) -> new ArrayCall(intrinsic, arguments, function, destination)));
+    }
+
+    private static void value(String name, int minArguments, int maxArguments, boolean pure, Type type,
+                              Function<Value[], Value> function) {
+        intrinsics.put(name, new Intrinsic(name, minArguments, maxArguments, pure,
+                (intrinsic, arguments) -> new ValueCall(intrinsic, arguments, function, type)));
+    }
+}
@@ -0,0 +1,26 @@
+package org.marasm.basicscript.functions;
+
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.NumericExpression;
+import org.marasm.basicscript.values.Value;
+
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A call to an intrinsic that takes any values and always returns a
+ * number.
+ */
+public class NumberCall extends CallExpression implements NumericExpression {
+    private final ToDoubleFunction<Value[]> function;
+
+    public NumberCall(Intrinsic intrinsic, List<Expression> arguments, ToDoubleFunction<Value[]> function) {
+        super(intrinsic, arguments);
+        this.function = function;
+    }
+
+    @Override
+    public double evaluateNumber() {
+        return function.applyAsDouble(evaluateArguments());
+    }
+}
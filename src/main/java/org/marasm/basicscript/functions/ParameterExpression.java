@@ -0,0 +1,37 @@
+package org.marasm.basicscript.functions;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.values.Value;
+
+/**
+ * A reference to a parameter in the body of a {@link UserFunction}. It
+ * evaluates to the matching argument of the current call.
+ */
+public class ParameterExpression implements Expression {
+    @Getter
+    private final String name;
+    @Getter
+    private final int index;
+    /**
+     * The arguments array of the function the parameter belongs to.
+     */
+    @Getter
+    private final Value[] arguments;
+
+    public ParameterExpression(String name, int index, Value[] arguments) {
+        this.name = name;
+        this.index = index;
+        this.arguments = arguments;
+    }
+
+    @Override
+    public Value evaluate() {
+        return arguments[index];
+    }
+
+    @Override
+    public String decodedString() {
+        return name;
+    }
+}
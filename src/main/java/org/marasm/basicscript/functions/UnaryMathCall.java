@@ -0,0 +1,28 @@
+package org.marasm.basicscript.functions;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.NumericExpression;
+
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A call to a math intrinsic that takes one number and returns a number.
+ */
+public class UnaryMathCall extends CallExpression implements NumericExpression {
+    @Getter
+    private final DoubleUnaryOperator operator;
+    private final Expression argument;
+
+    public UnaryMathCall(Intrinsic intrinsic, List<Expression> arguments, DoubleUnaryOperator operator) {
+        super(intrinsic, arguments);
+        this.operator = operator;
+        this.argument = arguments.get(0);
+    }
+
+    @Override
+    public double evaluateNumber() {
+        return operator.applyAsDouble(argument.evaluateNumber());
+    }
+}
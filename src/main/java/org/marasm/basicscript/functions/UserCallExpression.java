@@ -0,0 +1,39 @@
+package org.marasm.basicscript.functions;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.values.Value;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A call to a {@link UserFunction} that wasn't inlined.
+ */
+public class UserCallExpression implements Expression {
+    @Getter
+    private final UserFunction function;
+    @Getter
+    private final List<Expression> arguments;
+
+    public UserCallExpression(UserFunction function, List<Expression> arguments) {
+        this.function = function;
+        this.arguments = arguments;
+    }
+
+    @Override
+    public Value evaluate() {
+        Value[] values = new Value[arguments.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = arguments.get(i).evaluate();
+        }
+        return function.call(values);
+    }
+
+    @Override
+    public String decodedString() {
+        return function.getName() + "(" + arguments.stream()
+                .map(Expression::decodedString)
+                .collect(Collectors.joining(", ")) + ")";
+    }
+}
@@ -0,0 +1,135 @@
+package org.marasm.basicscript.functions;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A function defined by the script itself:
+ * <p>
+ * def fn hyp(x, y) = sqrt(x * x + y * y)
+ * <p>
+ * The body is an expression template whose parameters read the arguments of
+ * the current call. Functions can only call functions defined before them,
+ * so a call can never reenter the function it was made from.
+ * <p>
+ * A pure function (one whose body only depends on its parameters) can cache
+ * its results. The cache is keyed on the numbers passed in and evicts the
+ * least recently used result once it is full. Calls with anything other
+ * than numbers skip the cache.
+ * <p>
+ * A function belongs to one interpreter and is only ever called from the
+ * thread running it: calls share one argument buffer, and the cache isn't
+ * synchronized. Threads that run parts of a script in parallel each get an
+ * interpreter, and so functions, of their own (see
+ * {@link org.marasm.basicscript.parallel.WorkerPool}).
+ */
+public class UserFunction {
+    @Getter
+    private final String name;
+    @Getter
+    private final List<String> parameters;
+    @Getter
+    private final Expression body;
+    /**
+     * The arguments of the current call, read by the parameters of the body.
+     * Calls can't reenter the function, so one buffer is enough.
+     */
+    @Getter
+    private final Value[] arguments;
+    @Getter
+    private final boolean pure;
+    private final Map<Key, Value> cache;
+    @Getter
+    private final int cacheSize;
+
+    /**
+     * @param cacheSize The most results to remember, or 0 to not remember
+     *                  any. Ignored unless the function is pure.
+     */
+    public UserFunction(String name, List<String> parameters, Expression body, Value[] arguments,
+                        boolean pure, int cacheSize) {
+        this.name = name;
+        this.parameters = parameters;
+        this.body = body;
+        this.arguments = arguments;
+        this.pure = pure;
+        this.cacheSize = pure ? cacheSize : 0;
+        this.cache = this.cacheSize > 0 ? new LinkedHashMap<Key, Value>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Value> eldest) {
+                return size() > UserFunction.this.cacheSize;
+            }
+        } : null;
+    }
+
+    /**
+     * @return True if results of this function are cached.
+     */
+    public boolean isMemoized() {
+        return cache != null;
+    }
+
+    /**
+     * Calls the function.
+     *
+     * @param values The values of the arguments.
+     * @return The result.
+     */
+    public Value call(Value[] values) {
+        if (cache == null) {
+            return evaluate(values);
+        }
+        double[] numbers = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (!(values[i] instanceof NumberValue)) {
+                return evaluate(values);
+            }
+            numbers[i] = values[i].toNumber();
+        }
+        Key key = new Key(numbers);
+        Value result = cache.get(key);
+        if (result == null) {
+            result = evaluate(values);
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    private Value evaluate(Value[] values) {
+        System.arraycopy(values, 0, arguments, 0, arguments.length);
+        return body.evaluate();
+    }
+
+    /**
+     * The arguments of a cached call. Compares numbers by their bits, so
+     * NaN finds NaN and -0 is not 0.
+     */
+    private static class Key {
+        private final double[] numbers;
+        private final int hash;
+
+        Key(double[] numbers) {
+            this.numbers = numbers;
+            this.hash = Arrays.hashCode(numbers);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(numbers, ((Key) other).numbers);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
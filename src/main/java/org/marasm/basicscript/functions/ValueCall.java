@@ -0,0 +1,29 @@
+package org.marasm.basicscript.functions;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.tools.TypeInference.Type;
+import org.marasm.basicscript.values.Value;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A call to an intrinsic that returns a string or an array.
+ */
+public class ValueCall extends CallExpression {
+    private final Function<Value[], Value> function;
+    @Getter
+    private final Type type;
+
+    public ValueCall(Intrinsic intrinsic, List<Expression> arguments, Function<Value[], Value> function, Type type) {
+        super(intrinsic, arguments);
+        this.function = function;
+        this.type = type;
+    }
+
+    @Override
+    public Value evaluate() {
+        return function.apply(evaluateArguments());
+    }
+}
@@ -0,0 +1,143 @@
+package org.marasm.basicscript.monitor;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.store.VariableStore;
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.StringValue;
+import org.marasm.basicscript.values.Value;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters for the interpreters of a JVM, registered as the MBean
+ * "org.marasm.basicscript:type=Jasic". Interpreters that have them set (see
+ * {@link Jasic#setMetrics}) add to the statement and jump counts in
+ * batches as they run, and are looked at directly for the rest.
+ */
+public class JasicMetrics implements JasicMetricsMBean {
+    public static final String NAME = "org.marasm.basicscript:type=Jasic";
+
+    private static JasicMetrics global;
+
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder jumps = new LongAdder();
+    private final Set<Jasic> runs = ConcurrentHashMap.newKeySet();
+    private long lastTime = System.nanoTime();
+    private long lastStatements;
+
+    /**
+     * @return The metrics registered with the platform MBean server,
+     * registering them the first time.
+     */
+    public static synchronized JasicMetrics global() {
+        if (global == null) {
+            global = new JasicMetrics();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(global, new ObjectName(NAME));
+            } catch (JMException e) {
+                throw new Error("Can't register " + NAME + ": " + e.getMessage());
+            }
+        }
+        return global;
+    }
+
+    /**
+     * Called when an interpreter starts running a script.
+     */
+    public void runStarted(Jasic jasic) {
+        runs.add(jasic);
+    }
+
+    /**
+     * Called when an interpreter is done running a script.
+     */
+    public void runFinished(Jasic jasic) {
+        runs.remove(jasic);
+    }
+
+    /**
+     * Adds to the counters.
+     */
+    public void count(long statements, long jumps) {
+        this.statements.add(statements);
+        this.jumps.add(jumps);
+    }
+
+    @Override
+    public synchronized double getStatementsPerSecond() {
+        long now = System.nanoTime();
+        long count = statements.sum();
+        double rate = (count - lastStatements) * 1e9 / Math.max(1, now - lastTime);
+        lastTime = now;
+        lastStatements = count;
+        return rate;
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getJumpsTaken() {
+        return jumps.sum();
+    }
+
+    @Override
+    public long getVariableCount() {
+        long count = 0;
+        for (Jasic run : runs) {
+            count += run.getStore().size();
+        }
+        return count;
+    }
+
+    @Override
+    public long getStringBytes() {
+        long bytes = 0;
+        for (Jasic run : runs) {
+            VariableStore store = run.getStore();
+            // The run keeps going while we look, so this is only an estimate.
+            try {
+                for (int slot = 0; slot < store.size(); slot++) {
+                    if (!store.isNumber(slot)) {
+                        bytes += stringBytes(store.get(slot));
+                    }
+                }
+            } catch (RuntimeException e) {
+                // A variable was added or changed under us. Count what we got.
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public int getActiveRuns() {
+        return runs.size();
+    }
+
+    private static long stringBytes(Value value) {
+        if (value instanceof StringValue) {
+            return 2L * value.toString().length();
+        } else if (value instanceof ArrayValue) {
+            ArrayValue array = (ArrayValue) value;
+            long bytes = 0;
+            if (!array.isNumeric()) {
+                for (int i = 0; i < array.length(); i++) {
+                    bytes += stringBytes(array.get(new NumberValue(i)));
+                }
+            }
+            for (Value element : array.keyed().values()) {
+                bytes += stringBytes(element);
+            }
+            return bytes;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,40 @@
+package org.marasm.basicscript.monitor;
+
+/**
+ * The live counters of the interpreters in a JVM, as seen through JMX (see
+ * {@link JasicMetrics}).
+ */
+public interface JasicMetricsMBean {
+
+    /**
+     * @return How many statements were run since the last time this was
+     * asked, per second.
+     */
+    double getStatementsPerSecond();
+
+    /**
+     * @return How many statements were run in total.
+     */
+    long getStatementsExecuted();
+
+    /**
+     * @return How many statements went somewhere other than the next one.
+     */
+    long getJumpsTaken();
+
+    /**
+     * @return How many variables the running scripts have, together.
+     */
+    long getVariableCount();
+
+    /**
+     * @return Roughly how many bytes the strings held in the variables of
+     * the running scripts take, arrays included.
+     */
+    long getStringBytes();
+
+    /**
+     * @return How many scripts are running.
+     */
+    int getActiveRuns();
+}
@@ -0,0 +1,126 @@
+package org.marasm.basicscript.monitor;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A JFR event for one phase of running a script (see {@link Phases}). The
+ * duration is the event's own. Events cost next to nothing unless a
+ * recording is asking for them.
+ * <p>
+ * JFR isn't there on every Java 8, so the event type is made at run time
+ * with jdk.jfr.EventFactory, through reflection, and nothing here refers to
+ * jdk.jfr when it's compiled. Without JFR, events do nothing.
+ */
+public class PhaseEvent {
+
+    private static final Factory FACTORY = Factory.load();
+
+    private final Object event;
+    private final String phase;
+    private final int sourceSize;
+    private long statements;
+
+    public PhaseEvent(String phase, int sourceSize) {
+        this.phase = phase;
+        this.sourceSize = sourceSize;
+        event = FACTORY == null ? null : FACTORY.newEvent();
+    }
+
+    public void setStatements(long statements) {
+        this.statements = statements;
+    }
+
+    /**
+     * Starts timing the phase.
+     */
+    public void begin() {
+        if (event != null) {
+            FACTORY.invoke(FACTORY.begin, event);
+        }
+    }
+
+    /**
+     * Ends the phase, and records it if a recording wants it.
+     */
+    public void commit() {
+        if (event != null && (Boolean) FACTORY.invoke(FACTORY.shouldCommit, event)) {
+            FACTORY.invoke(FACTORY.set, event, 0, phase);
+            FACTORY.invoke(FACTORY.set, event, 1, sourceSize);
+            FACTORY.invoke(FACTORY.set, event, 2, statements);
+            FACTORY.invoke(FACTORY.commit, event);
+        }
+    }
+
+    /**
+     * The event type, and the methods of jdk.jfr.Event.
+     */
+    private static class Factory {
+        private final Object factory;
+        private final Method newEvent;
+        private final Method begin;
+        private final Method shouldCommit;
+        private final Method set;
+        private final Method commit;
+
+        private Factory(Object factory) throws ReflectiveOperationException {
+            this.factory = factory;
+            newEvent = factory.getClass().getMethod("newEvent");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            begin = event.getMethod("begin");
+            shouldCommit = event.getMethod("shouldCommit");
+            set = event.getMethod("set", int.class, Object.class);
+            commit = event.getMethod("commit");
+        }
+
+        /**
+         * @return The event type, or null if there's no JFR.
+         */
+        static Factory load() {
+            try {
+                Class<?> annotation = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> field = Class.forName("jdk.jfr.ValueDescriptor");
+                Constructor<?> element = annotation.getConstructor(Class.class, Object.class);
+                Constructor<?> descriptor = field.getConstructor(Class.class, String.class, List.class);
+
+                List<Object> type = Arrays.asList(
+                        element.newInstance(Class.forName("jdk.jfr.Name"), "org.marasm.basicscript.Phase"),
+                        element.newInstance(Class.forName("jdk.jfr.Label"), "Jasic Phase"),
+                        element.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"Jasic"}),
+                        element.newInstance(Class.forName("jdk.jfr.Description"), "A phase of running a Jasic script"));
+                List<Object> fields = Arrays.asList(
+                        descriptor.newInstance(String.class, "phase", Collections.singletonList(
+                                element.newInstance(Class.forName("jdk.jfr.Label"), "Phase"))),
+                        descriptor.newInstance(int.class, "sourceSize", Arrays.asList(
+                                element.newInstance(Class.forName("jdk.jfr.Label"), "Source Size"),
+                                element.newInstance(Class.forName("jdk.jfr.Description"),
+                                        "The length of the script, in characters"))),
+                        descriptor.newInstance(long.class, "statements", Arrays.asList(
+                                element.newInstance(Class.forName("jdk.jfr.Label"), "Statements"),
+                                element.newInstance(Class.forName("jdk.jfr.Description"),
+                                        "How many statements (or, for tokenize, tokens) the phase produced. For"
+                                                + " execute, how many ran, if the run was counting them"))));
+                Object factory = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class)
+                        .invoke(null, type, fields);
+                return new Factory(factory);
+            } catch (ReflectiveOperationException | LinkageError | SecurityException e) {
+                return null;
+            }
+        }
+
+        Object newEvent() {
+            return invoke(newEvent, factory);
+        }
+
+        Object invoke(Method method, Object target, Object... arguments) {
+            try {
+                return method.invoke(target, arguments);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+}
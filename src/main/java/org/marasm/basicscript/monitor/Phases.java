@@ -0,0 +1,107 @@
+package org.marasm.basicscript.monitor;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs the phases of an interpreter's pipeline: tokenize, parse, simplify
+ * (the control flow), analyze (for --auto-parallel), numeric (compiling for
+ * the variable store), fuse (superinstructions), parallel (installing
+ * parallel loops), superblocks (with --pgo) and execute.
+ * <p>
+ * Every phase is recorded as a {@link PhaseEvent}. On request, each one's
+ * wall time and allocation is also noted, and the program is dumped after
+ * the phases that change it.
+ */
+public class Phases {
+
+    /**
+     * The phases that produce a program that can be dumped.
+     */
+    public static final List<String> DUMPABLE = Arrays.asList("parse", "simplify", "numeric", "fuse", "parallel",
+            "superblocks");
+
+    /**
+     * True to note how long each phase took and how much it allocated.
+     */
+    @Getter
+    @Setter
+    private boolean timed;
+
+    /**
+     * The phases after which the program is dumped.
+     */
+    @Getter
+    private final Set<String> dumped = new HashSet<>();
+
+    /**
+     * Where dumps go.
+     */
+    @Getter
+    @Setter
+    private PrintStream out = System.err;
+
+    /**
+     * A line for every phase that ran while {@link #timed} was on.
+     */
+    @Getter
+    private final List<String> timings = new ArrayList<>();
+
+    private final com.sun.management.ThreadMXBean threads;
+
+    public Phases() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        threads = bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    /**
+     * @return True if the program should be dumped after a phase.
+     */
+    public boolean isDumped(String phase) {
+        return dumped.contains(phase);
+    }
+
+    /**
+     * Runs a phase.
+     *
+     * @param phase      The name of the phase.
+     * @param sourceSize The length of the script.
+     * @param pass       The phase.
+     * @param size       How many things (statements, tokens...) the result
+     *                   of the phase holds, or -1 if that isn't known.
+     * @param unit       What those things are, for the timings.
+     * @return What the phase returned.
+     */
+    public <T> T run(String phase, int sourceSize, Supplier<T> pass, ToLongFunction<T> size, String unit) {
+        PhaseEvent event = new PhaseEvent(phase, sourceSize);
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        event.begin();
+        T result = pass.get();
+        long count = size.applyAsLong(result);
+        event.setStatements(Math.max(count, 0));
+        event.commit();
+        if (timed) {
+            long time = System.nanoTime() - start;
+            timings.add(String.format("%-9s %10.3f ms %10.1f KB", phase, time / 1e6,
+                    (allocatedBytes() - allocated) / 1024.0) + (count < 0 ? "" : "  " + count + " " + unit));
+        }
+        return result;
+    }
+
+    private long allocatedBytes() {
+        return threads == null || !timed ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,73 @@
+package org.marasm.basicscript.parallel;
+
+import org.marasm.basicscript.Jasic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Runs forked interpreters (see {@link Jasic#fork()}) to the end, or
+ * through any other task, in parallel. Like the tasks of a {@link WorkerPool}, each one's output is
+ * kept until they are all done and then written out in order.
+ */
+public class Forks {
+
+    /**
+     * Resumes interpreters in parallel and waits for all of them.
+     *
+     * @param children The interpreters.
+     * @param threads  How many to run at once.
+     * @param out      Where to write their output.
+     */
+    public static void resume(List<Jasic> children, int threads, PrintStream out) {
+        run(children, threads, out, child -> child.resume());
+    }
+
+    /**
+     * Runs something on each of several interpreters in parallel, and waits
+     * for all of them.
+     *
+     * @param children The interpreters.
+     * @param threads  How many to run at once.
+     * @param out      Where to write their output.
+     * @param task     What to run on each one.
+     */
+    public static void run(List<Jasic> children, int threads, PrintStream out, Consumer<Jasic> task) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            List<ByteArrayOutputStream> outputs = new ArrayList<>();
+            for (Jasic child : children) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                outputs.add(output);
+                child.setOut(new PrintStream(output, true));
+                futures.add(pool.submit(() -> task.accept(child)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new Error("Interrupted while waiting for a forked run.");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw new Error(e.getCause());
+                }
+            }
+            for (ByteArrayOutputStream output : outputs) {
+                out.write(output.toByteArray(), 0, output.size());
+            }
+            out.flush();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.marasm.basicscript.parallel;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.store.HeapVariableStore;
+import org.marasm.basicscript.store.VariableStore;
+import org.marasm.basicscript.values.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiFunction;
+
+/**
+ * Runs parts of a script on several threads at once. Compiled statements
+ * belong to the interpreter they were compiled for, so every thread gets a
+ * worker: a child interpreter that compiles the parent's script once and is
+ * then reused.
+ * <p>
+ * Every task starts from a private copy of the variables the parent had
+ * when {@link #run} was called, so what a task writes never shows up in the
+ * parent or in another task, and the result of a task doesn't depend on
+ * which worker ran it. Arrays are copied by reference and so are shared:
+ * tasks can fill in different elements of an array, but the array should
+ * already be big enough (with fill(), say) before it's shared.
+ * <p>
+ * Whatever a task prints is kept until every task is done, and then written
+ * to the parent's output in task order, so the output is the same as if the
+ * tasks had run one after the other.
+ */
+public class WorkerPool {
+
+    private final Jasic parent;
+    private final int size;
+    private final LinkedBlockingQueue<Jasic> idle = new LinkedBlockingQueue<>();
+    private final List<Jasic> workers = new ArrayList<>();
+    private ForkJoinPool pool;
+
+    /**
+     * @param parent The interpreter the workers work for.
+     * @param size   The number of threads to use.
+     */
+    public WorkerPool(Jasic parent, int size) {
+        this.parent = parent;
+        this.size = size;
+    }
+
+    /**
+     * @return The number of threads tasks are spread across.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Runs tasks in parallel and waits for all of them.
+     *
+     * @param tasks The number of tasks.
+     * @param task  The task to run, given the worker to run it on and the
+     *              index of the task.
+     * @return The results of the tasks, in task order.
+     */
+    public <T> List<T> run(int tasks, BiFunction<Jasic, Integer, T> task) {
+        Map<String, Value> snapshot = new HashMap<>(parent.getVariables());
+        while (workers.size() < Math.min(size, tasks)) {
+            Jasic worker = createWorker(snapshot);
+            workers.add(worker);
+            idle.add(worker);
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(size);
+        }
+
+        List<Future<T>> futures = new ArrayList<>();
+        List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            int index = i;
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            outputs.add(output);
+            futures.add(pool.submit(() -> {
+                Jasic worker = idle.take();
+                try {
+                    reset(worker, snapshot);
+                    worker.setOut(new PrintStream(output, true));
+                    return task.apply(worker, index);
+                } finally {
+                    worker.getOut().flush();
+                    idle.add(worker);
+                }
+            }));
+        }
+
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new Error("Interrupted while waiting for a parallel loop.");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                // The pool can hand back a copy of what the task threw,
+                // wrapped around the original.
+                while (cause.getCause() != null && cause.getCause().getClass() == cause.getClass()) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new Error(cause);
+            }
+        }
+        for (ByteArrayOutputStream output : outputs) {
+            parent.getOut().write(output.toByteArray(), 0, output.size());
+        }
+        parent.getOut().flush();
+        return results;
+    }
+
+    /**
+     * Stops the threads and lets the workers go. The pool starts new ones if
+     * it runs tasks again after that.
+     */
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        for (Jasic worker : workers) {
+            worker.close();
+        }
+        workers.clear();
+        idle.clear();
+    }
+
+    private Jasic createWorker(Map<String, Value> snapshot) {
+        Jasic worker = new Jasic(new HeapVariableStore());
+        worker.setWorker(true);
+        worker.setMemoCacheSize(parent.getMemoCacheSize());
+        worker.setLineIn(parent.getLineIn());
+        worker.setShared(parent.getShared());
+        worker.getVariables().putAll(snapshot);
+        worker.compile(parent.getSource());
+        return worker;
+    }
+
+    /**
+     * Sets the variables of a worker to the snapshot of the parent's.
+     * Variables the parent didn't have are unset.
+     */
+    private static void reset(Jasic worker, Map<String, Value> snapshot) {
+        VariableStore store = worker.getStore();
+        for (int slot = 0; slot < store.size(); slot++) {
+            if (!snapshot.containsKey(store.name(slot))) {
+                store.unset(slot);
+            }
+        }
+        worker.getVariables().putAll(snapshot);
+    }
+}
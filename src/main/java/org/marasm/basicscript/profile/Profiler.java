@@ -0,0 +1,160 @@
+package org.marasm.basicscript.profile;
+
+import org.marasm.basicscript.statements.ProfiledStatement;
+import org.marasm.basicscript.statements.Statement;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts how many times each statement of a script runs, how long it takes
+ * and how much memory it allocates, and adds it all up for each label too.
+ * A label's region goes from the label up to the next one.
+ * <p>
+ * Profiling works by wrapping every compiled statement in a
+ * {@link ProfiledStatement}, so when it's off the statements run exactly as
+ * they always do. Times include everything a statement does, like calling
+ * functions or, for a parallel loop, waiting for its workers. Allocations
+ * only count the interpreter's own thread, and are left out if the JVM
+ * can't measure them.
+ */
+public class Profiler {
+
+    private final com.sun.management.ThreadMXBean threads;
+    private long thread;
+    private long[] counts = new long[0];
+    private long[] nanos = new long[0];
+    private long[] bytes = new long[0];
+    private int depth;
+    private long total;
+
+    public Profiler() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threads = null;
+        }
+    }
+
+    /**
+     * Wraps every statement of a compiled script so it gets profiled, and
+     * forgets about any earlier script.
+     *
+     * @return The wrapped statements, in the same order.
+     */
+    public List<Statement> instrument(List<Statement> statements) {
+        counts = new long[statements.size()];
+        nanos = new long[statements.size()];
+        bytes = new long[statements.size()];
+        total = 0;
+        thread = Thread.currentThread().getId();
+        List<Statement> instrumented = new ArrayList<>(statements.size());
+        for (int i = 0; i < statements.size(); i++) {
+            instrumented.add(new ProfiledStatement(statements.get(i), i, this));
+        }
+        return instrumented;
+    }
+
+    /**
+     * @return How many bytes the interpreter's thread has allocated so far,
+     * or 0 if that can't be measured.
+     */
+    public long allocatedBytes() {
+        return threads == null ? 0 : threads.getThreadAllocatedBytes(thread);
+    }
+
+    /**
+     * Called when a statement starts.
+     *
+     * @return The time it started.
+     */
+    public long start() {
+        depth++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Called when a statement is done.
+     *
+     * @param index     The index of the statement.
+     * @param start     What {@link #start()} returned.
+     * @param allocated What {@link #allocatedBytes()} returned before it
+     *                  started.
+     */
+    public void record(int index, long start, long allocated) {
+        long time = System.nanoTime() - start;
+        depth--;
+        counts[index]++;
+        nanos[index] += time;
+        bytes[index] += allocatedBytes() - allocated;
+        // Statements run by other statements are already in their time.
+        if (depth == 0) {
+            total += time;
+        }
+    }
+
+    /**
+     * Prints the listing of the script with the numbers of every statement
+     * that ran next to it, followed by the label regions, hottest first.
+     */
+    public void report(PrintStream out, Map<String, Integer> labels, List<Statement> statements) {
+        Map<Integer, String> names = new HashMap<>();
+        labels.forEach((label, index) -> names.put(index, label));
+        out.println(String.format("profile: %.3f s in %d statements", total / 1e9, statements.size())
+                + (threads == null ? ", allocations not measured" : ""));
+        out.println(String.format("%12s %10s %6s %10s  %s", "count", "time", "%", "allocated", "statement"));
+        for (int i = 0; i < statements.size(); i++) {
+            String label = names.containsKey(i) ? names.get(i) + ": " : "";
+            out.println(line(counts[i], nanos[i], bytes[i]) + "  " + label + statements.get(i).decodedString());
+        }
+
+        // Add up the regions, from each label to the next one.
+        TreeMap<Integer, String> starts = new TreeMap<>(names);
+        List<long[]> regions = new ArrayList<>();
+        List<String> titles = new ArrayList<>();
+        for (Map.Entry<Integer, String> entry : starts.entrySet()) {
+            int head = entry.getKey();
+            Integer next = starts.higherKey(head);
+            int end = next == null ? statements.size() : next;
+            long[] region = {head < counts.length ? counts[head] : 0, 0, 0};
+            for (int i = head; i < end; i++) {
+                region[1] += nanos[i];
+                region[2] += bytes[i];
+            }
+            regions.add(region);
+            titles.add(entry.getValue() + " (statements " + head + "-" + (end - 1) + ")");
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < regions.size(); i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Long.compare(regions.get(b)[1], regions.get(a)[1]));
+        out.println(String.format("%12s %10s %6s %10s  %s", "entries", "time", "%", "allocated", "label"));
+        for (int i : order) {
+            long[] region = regions.get(i);
+            out.println(line(region[0], region[1], region[2]) + "  " + titles.get(i));
+        }
+    }
+
+    private String line(long count, long time, long allocated) {
+        double percent = total == 0 ? 0 : 100.0 * time / total;
+        return String.format("%12d %8.3f s %5.1f%% %10s", count, time / 1e9, percent, size(allocated));
+    }
+
+    private static String size(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
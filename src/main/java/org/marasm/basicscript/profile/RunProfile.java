@@ -0,0 +1,141 @@
+package org.marasm.basicscript.profile;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.checkpoint.Checkpoint;
+import org.marasm.basicscript.statements.Statement;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How often each statement of a script ran and how often it jumped, kept
+ * from one run to guide how the next one is compiled (see
+ * {@link org.marasm.basicscript.tools.Superblocks}).
+ * <p>
+ * The file is text, one line per statement that ran, with the listing of
+ * the statement after a "#" so it can be read as a profile too:
+ * <p>
+ * 14 2313434 168074  # if (d > 4) then enditer
+ */
+public class RunProfile {
+    private static final String HEADER = "jasic-profile 1";
+
+    private long script;
+    private long[] counts = new long[0];
+    private long[] taken = new long[0];
+
+    /**
+     * Starts (or carries on) recording a run of a compiled script.
+     */
+    public void begin(Jasic jasic) {
+        long checksum = Checkpoint.checksum(jasic.getSource());
+        if (checksum != script || counts.length != jasic.getStatements().size()) {
+            script = checksum;
+            counts = new long[jasic.getStatements().size()];
+            taken = new long[counts.length];
+        }
+    }
+
+    /**
+     * Called every time a statement runs.
+     */
+    public void count(int index) {
+        counts[index]++;
+    }
+
+    /**
+     * Called every time a statement jumps somewhere other than the next one.
+     */
+    public void jumped(int index) {
+        taken[index]++;
+    }
+
+    /**
+     * @return The number of statements the profile is for.
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    public long getCount(int index) {
+        return counts[index];
+    }
+
+    public long getTaken(int index) {
+        return taken[index];
+    }
+
+    /**
+     * @return True if the profile was recorded from this script.
+     */
+    public boolean matches(String source) {
+        return script == Checkpoint.checksum(source);
+    }
+
+    /**
+     * Writes the profile, along with the listing of the compiled script.
+     */
+    public void write(Path path, Jasic jasic) throws IOException {
+        Map<Integer, String> labels = new HashMap<>();
+        jasic.getLabels().forEach((label, index) -> labels.put(index, label));
+        List<Statement> statements = jasic.getStatements();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            out.println(HEADER);
+            out.println("script " + script);
+            out.println("statements " + counts.length);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    String label = labels.containsKey(i) ? labels.get(i) + ": " : "";
+                    out.println(i + " " + counts[i] + " " + taken[i] + "  # " + label
+                            + statements.get(i).decodedString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a profile written by {@link #write}.
+     */
+    public static RunProfile read(Path path) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(in.readLine())) {
+                throw new Error(path + " isn't a profile.");
+            }
+            RunProfile profile = new RunProfile();
+            profile.script = Long.parseLong(field(in.readLine(), "script", path));
+            int size = Integer.parseInt(field(in.readLine(), "statements", path));
+            profile.counts = new long[size];
+            profile.taken = new long[size];
+            String line;
+            while ((line = in.readLine()) != null) {
+                int comment = line.indexOf('#');
+                String[] fields = (comment < 0 ? line : line.substring(0, comment)).trim().split("\\s+");
+                if (fields.length != 3) {
+                    continue;
+                }
+                int index = Integer.parseInt(fields[0]);
+                if (index < size) {
+                    profile.counts[index] = Long.parseLong(fields[1]);
+                    profile.taken[index] = Long.parseLong(fields[2]);
+                }
+            }
+            return profile;
+        } catch (NumberFormatException e) {
+            throw new Error(path + " isn't a valid profile: " + e.getMessage());
+        }
+    }
+
+    private static String field(String line, String name, Path path) {
+        if (line == null || !line.startsWith(name + " ")) {
+            throw new Error(path + " isn't a valid profile: expected '" + name + "'.");
+        }
+        return line.substring(name.length() + 1).trim();
+    }
+}
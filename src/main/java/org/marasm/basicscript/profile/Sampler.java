@@ -0,0 +1,122 @@
+package org.marasm.basicscript.profile;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.statements.Statement;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A profiler cheap enough to leave on: a background thread looks at which
+ * statement an interpreter is running every so often and counts how many
+ * times it saw each one. Unlike the {@link Profiler}, the script itself
+ * runs exactly as it would without it.
+ * <p>
+ * The counts come out as collapsed stacks, one line per statement that was
+ * seen, which flame graph tools read directly:
+ * <p>
+ * script;iterloop;9 x1 = (x1 + x) 412
+ * <p>
+ * The frames are the script, the label whose region the statement is in and
+ * the statement itself.
+ */
+public class Sampler {
+
+    private final Jasic jasic;
+    private final long intervalNanos;
+    private long[] samples = new long[0];
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param jasic          The interpreter to watch.
+     * @param intervalMicros How long to wait between two samples.
+     */
+    public Sampler(Jasic jasic, long intervalMicros) {
+        this.jasic = jasic;
+        this.intervalNanos = TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+    }
+
+    /**
+     * Starts taking samples on a daemon thread.
+     */
+    public void start() {
+        jasic.setSampled(true);
+        running = true;
+        thread = new Thread(this::sample, "sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops taking samples, and waits for the last one.
+     */
+    public void stop() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        jasic.setSampled(false);
+    }
+
+    private void sample() {
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            List<Statement> statements = jasic.getStatements();
+            int index = jasic.getExecutingStatement();
+            if (statements == null || index < 0 || index >= statements.size()) {
+                continue;
+            }
+            synchronized (this) {
+                if (index >= samples.length) {
+                    samples = Arrays.copyOf(samples, statements.size());
+                }
+                samples[index]++;
+            }
+        }
+    }
+
+    /**
+     * @return How many samples were taken in each statement.
+     */
+    public synchronized long[] getSamples() {
+        return samples.clone();
+    }
+
+    /**
+     * Writes the samples as collapsed stacks.
+     *
+     * @param out    Where to write them.
+     * @param script The name of the script, for the bottom frame.
+     */
+    public void writeCollapsed(PrintStream out, String script) {
+        long[] samples = getSamples();
+        List<Statement> statements = jasic.getStatements();
+        TreeMap<Integer, String> regions = new TreeMap<>();
+        for (Map.Entry<String, Integer> label : jasic.getLabels().entrySet()) {
+            regions.put(label.getValue(), label.getKey());
+        }
+        for (int i = 0; i < samples.length && i < statements.size(); i++) {
+            if (samples[i] == 0) {
+                continue;
+            }
+            Map.Entry<Integer, String> region = regions.floorEntry(i);
+            String label = region == null ? "(start)" : region.getValue();
+            out.println(frame(script) + ";" + frame(label) + ";" + frame(i + " " + statements.get(i).decodedString())
+                    + " " + samples[i]);
+        }
+        out.flush();
+    }
+
+    // Semicolons separate frames, and the last space separates the count.
+    private static String frame(String name) {
+        return name.replace(';', ',');
+    }
+}
@@ -0,0 +1,124 @@
+package org.marasm.basicscript.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Runs a script on a {@link Server}, for "jasic client":
+ * <p>
+ * jasic client [--port=<n>] [--no-input] <script>
+ * <p>
+ * The script is read here and sent over, along with everything on standard
+ * input unless that's a terminal or --no-input is given. What the script
+ * prints comes back as it's printed. "jasic client --stats" prints how the
+ * server's cache is doing instead. Either way, the request starts with the
+ * server's token, read from the file the server wrote it to (see
+ * {@link Server#tokenFile}).
+ * <p>
+ * This never loads the interpreter, so it starts about as fast as a JVM
+ * can. The protocol is simple enough for anything that can open a socket.
+ */
+public class Client {
+
+    private int port = Server.DEFAULT_PORT;
+    private boolean input = true;
+    private boolean stats;
+    private String path;
+
+    /**
+     * Runs "jasic client" with the arguments after "client".
+     *
+     * @return The exit status: 0 if the script ran to the end.
+     */
+    public static int main(String[] args) {
+        Client client = new Client();
+        for (String arg : args) {
+            if (arg.matches("--port=\\d+")) {
+                client.port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.equals("--no-input")) {
+                client.input = false;
+            } else if (arg.equals("--stats")) {
+                client.stats = true;
+            } else if (client.path == null && !arg.startsWith("--")) {
+                client.path = arg;
+            } else {
+                client.path = null;
+                client.stats = false;
+                break;
+            }
+        }
+        if (client.path == null && !client.stats) {
+            System.out.println("Usage: jasic client [--port=<n>] [--no-input] <script>");
+            System.out.println("       jasic client [--port=<n>] --stats");
+            return 0;
+        }
+        try {
+            return client.run();
+        } catch (ConnectException e) {
+            throw new Error("No server on port " + client.port + ". Start one with 'jasic serve'.");
+        } catch (IOException e) {
+            throw new Error("Lost the server: " + e.getMessage());
+        }
+    }
+
+    private int run() throws IOException {
+        byte[] token = Server.readToken(port);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            Server.writeLine(out, "token " + new String(token, StandardCharsets.UTF_8).trim());
+            if (stats) {
+                Server.writeLine(out, "stats");
+            } else {
+                byte[] source;
+                try {
+                    source = Files.readAllBytes(Paths.get(path));
+                } catch (IOException e) {
+                    throw new Error("Can't read " + path + ": " + e.getMessage());
+                }
+                Server.writeFrame(out, "source", source);
+                if (input && System.console() == null) {
+                    Server.writeFrame(out, "input", readAll(System.in));
+                }
+                Server.writeLine(out, "run");
+            }
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String line;
+            while ((line = Server.readLine(in)) != null) {
+                if (line.startsWith("out ")) {
+                    byte[] bytes = Server.readBytes(in, Integer.parseInt(line.substring("out ".length())));
+                    System.out.write(bytes, 0, bytes.length);
+                    System.out.flush();
+                } else if (line.startsWith("error ")) {
+                    byte[] bytes = Server.readBytes(in, Integer.parseInt(line.substring("error ".length())));
+                    System.err.println(new String(bytes, StandardCharsets.UTF_8));
+                } else if (line.startsWith("exit ")) {
+                    return Integer.parseInt(line.substring("exit ".length()));
+                }
+            }
+            throw new IOException("The connection ended early.");
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,107 @@
+package org.marasm.basicscript.server;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.store.SharedVariables;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps compiled scripts around between runs. Compiled statements belong to
+ * the interpreter they were compiled for, so what's kept is the interpreter:
+ * a script is run again with {@link Jasic#restart()}, which skips
+ * tokenizing, parsing and every optimization, and reuses the threads of its
+ * parallel loops.
+ * <p>
+ * Scripts are looked up by their source, so a script that changed is simply
+ * a new one. Each script keeps a few idle interpreters, as many as ran it
+ * at once, up to {@link #IDLE_PER_SCRIPT}, and the scripts used least
+ * recently are dropped once there are more than the cache holds. An
+ * interpreter that's dropped, or whose run failed, is closed (see
+ * {@link Jasic#close()}), so the threads of its parallel loops go with it.
+ */
+public class ProgramCache {
+    public static final int IDLE_PER_SCRIPT = 4;
+
+    private final Map<String, ArrayDeque<Jasic>> idle;
+    private final Consumer<Jasic> setup;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param size  How many scripts to keep.
+     * @param setup Sets up a new interpreter before it compiles a script.
+     */
+    public ProgramCache(int size, Consumer<Jasic> setup) {
+        this.setup = setup;
+        idle = new LinkedHashMap<String, ArrayDeque<Jasic>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ArrayDeque<Jasic>> eldest) {
+                if (size() <= size) {
+                    return false;
+                }
+                eldest.getValue().forEach(Jasic::close);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Takes an interpreter that has compiled a script, compiling it in a new
+     * one if there isn't an idle one. Give it back with {@link #release}.
+     */
+    public Jasic take(String source) {
+        synchronized (this) {
+            ArrayDeque<Jasic> ready = idle.get(source);
+            if (ready != null && !ready.isEmpty()) {
+                hits++;
+                return ready.pop();
+            }
+            misses++;
+        }
+        Jasic jasic = new Jasic();
+        // Runs don't see each other's shared variables.
+        jasic.setShared(new SharedVariables());
+        try {
+            setup.accept(jasic);
+            jasic.compile(source);
+        } catch (RuntimeException | Error e) {
+            jasic.close();
+            throw e;
+        }
+        return jasic;
+    }
+
+    /**
+     * Gives an interpreter back once its run is over. One whose run failed
+     * shouldn't be given back, since it may have stopped anywhere: it goes
+     * to {@link #discard} instead.
+     */
+    public synchronized void release(Jasic jasic) {
+        ArrayDeque<Jasic> ready = idle.computeIfAbsent(jasic.getSource(), source -> new ArrayDeque<>());
+        if (ready.size() < IDLE_PER_SCRIPT) {
+            ready.push(jasic);
+        } else {
+            jasic.close();
+        }
+    }
+
+    /**
+     * Lets go of an interpreter whose run failed.
+     */
+    public void discard(Jasic jasic) {
+        jasic.close();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
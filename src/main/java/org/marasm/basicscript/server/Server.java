@@ -0,0 +1,396 @@
+package org.marasm.basicscript.server;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.cache.OutputCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps one warm JVM running scripts for "jasic serve", so running a script
+ * costs neither starting a JVM nor compiling the script again:
+ * <p>
+ * jasic serve [--port=<n>] [--cache=<n>] [--threads=<n>] [--auto-parallel]
+ * <p>
+ * The server only listens on the loopback address, and only runs scripts
+ * for whoever can read its token: a random one it writes, when it starts,
+ * to a file only its owner can read (see {@link #tokenFile}). Every
+ * connection runs one script on a thread of its own, using
+ * {@link ProgramCache}. A request is a few lines of text, some of them
+ * followed by a number of bytes of UTF-8, at most {@link #MAX_TEXT}. No
+ * line can be longer than {@link #MAX_LINE}, and a client that hasn't sent
+ * the token within {@link #LOGIN_TIMEOUT} milliseconds is hung up on, so
+ * nobody who can't read the token can tie up the server's memory or its
+ * threads:
+ * <p>
+ * token <token>       first, the server's token
+ * source <n>          the script: the n bytes that follow
+ * input <n>           what "input" statements read (nothing by default)
+ * run                 end of the request
+ * <p>
+ * Scripts are only ever sent, never read from a path, so a client can't
+ * make the server read a file the client couldn't read itself.
+ * <p>
+ * A request of just "stats" asks how the cache is doing. The answer is a
+ * series of frames, "out <n>" followed by n bytes the script printed, as it
+ * prints them, then maybe "error <n>" followed by why the script stopped,
+ * and last "exit <status>". {@link Client} speaks this.
+ */
+public class Server {
+    public static final int DEFAULT_PORT = 7878;
+    /**
+     * The most bytes a script, or its input, can have.
+     */
+    public static final int MAX_TEXT = 64 << 20;
+    /**
+     * The most bytes a line of a request can have.
+     */
+    public static final int MAX_LINE = 4096;
+    /**
+     * How long a client has to send the token.
+     */
+    public static final int LOGIN_TIMEOUT = 10_000;
+
+    private int port = DEFAULT_PORT;
+    private int cacheSize = 32;
+    private int threads;
+    private boolean autoParallel;
+    private ProgramCache cache;
+    private byte[] token;
+    private long runs;
+
+    /**
+     * Sends what it's given as "out" frames, one every time it's flushed.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private static final int MAX_FRAME = 1 << 16;
+
+        private final OutputStream socket;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        FrameOutputStream(OutputStream socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer.write(b);
+            if (buffer.size() >= MAX_FRAME) {
+                flush();
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            buffer.write(bytes, offset, length);
+            if (buffer.size() >= MAX_FRAME) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer.size() > 0) {
+                synchronized (socket) {
+                    writeFrame(socket, "out", buffer.toByteArray());
+                    socket.flush();
+                }
+                buffer.reset();
+            }
+        }
+    }
+
+    /**
+     * Runs "jasic serve" with the arguments after "serve". Only returns if
+     * the server can't start.
+     */
+    public static void main(String[] args) {
+        Server server = new Server();
+        for (String arg : args) {
+            if (arg.matches("--port=\\d+")) {
+                server.port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.matches("--cache=[1-9]\\d*")) {
+                server.cacheSize = Integer.parseInt(arg.substring("--cache=".length()));
+            } else if (arg.matches("--threads=[1-9]\\d*")) {
+                server.threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.equals("--auto-parallel")) {
+                server.autoParallel = true;
+            } else {
+                System.out.println("Usage: jasic serve [--port=<n>] [--cache=<n>] [--threads=<n>] [--auto-parallel]");
+                return;
+            }
+        }
+        server.serve();
+    }
+
+    /**
+     * @return The file the server on a port keeps its token in: in the
+     * user's cache directory, next to the outputs of {@link OutputCache}.
+     */
+    public static Path tokenFile(int port) {
+        return OutputCache.defaultDirectory().resolveSibling("server-" + port + ".token");
+    }
+
+    /**
+     * Makes a new token, and writes it where clients can find it.
+     */
+    private void writeToken() {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder text = new StringBuilder();
+        for (byte b : random) {
+            text.append(String.format("%02x", b));
+        }
+        token = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        Path file = tokenFile(port);
+        try {
+            Files.createDirectories(file.getParent());
+            FileAttribute<?>[] ownerOnly = FileSystems.getDefault().supportedFileAttributeViews().contains("posix")
+                    ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(
+                    EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE))}
+                    : new FileAttribute<?>[0];
+            Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp", ownerOnly);
+            Files.write(temporary, token);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new Error("Can't write the server's token to " + file + ": " + e.getMessage());
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // The next server writes over it anyway.
+            }
+        }));
+    }
+
+    /**
+     * Reads the token of the server on a port, for a client. The file has
+     * to be one only its owner can read, or anybody could have written it.
+     */
+    static byte[] readToken(int port) throws IOException {
+        Path file = tokenFile(port);
+        if (!Files.exists(file)) {
+            throw new Error("No server on port " + port + ". Start one with 'jasic serve'.");
+        }
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+            permissions.removeAll(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+            if (!permissions.isEmpty()) {
+                throw new Error("The server's token in " + file + " can be read by others. Restart the server.");
+            }
+        }
+        return Files.readAllBytes(file);
+    }
+
+    private void serve() {
+        cache = new ProgramCache(cacheSize, jasic -> {
+            jasic.setAutoParallel(autoParallel);
+            if (threads > 0) {
+                jasic.setParallelism(threads);
+            }
+        });
+        ExecutorService connections = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "jasic-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocket listener = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            // The port may be an ephemeral one.
+            port = listener.getLocalPort();
+            writeToken();
+            System.err.println("jasic: serving on " + listener.getInetAddress().getHostAddress() + ":"
+                    + listener.getLocalPort());
+            while (true) {
+                Socket socket = listener.accept();
+                connections.execute(() -> handle(socket));
+            }
+        } catch (IOException e) {
+            throw new Error("Can't serve on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket connection = socket) {
+            connection.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(connection.getInputStream());
+            OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+            try {
+                request(connection, in, out);
+            } catch (ProtocolException e) {
+                fail(out, e.getMessage());
+            }
+        } catch (IOException e) {
+            // The client went away. There's nobody left to tell.
+        }
+    }
+
+    /**
+     * Reads a request, and answers it.
+     */
+    private void request(Socket connection, InputStream in, OutputStream out) throws IOException {
+        String source = null;
+        String input = "";
+        connection.setSoTimeout(LOGIN_TIMEOUT);
+        String line = readLine(in);
+        if (line == null || !line.startsWith("token ") || !MessageDigest.isEqual(token,
+                line.substring("token ".length()).getBytes(StandardCharsets.UTF_8))) {
+            fail(out, "Wrong token. It's in " + tokenFile(port) + ".");
+            return;
+        }
+        // Sending a big script can take a while.
+        connection.setSoTimeout(0);
+        while ((line = readLine(in)) != null && !line.equals("run")) {
+            if (line.equals("stats")) {
+                writeFrame(out, "out", stats().getBytes(StandardCharsets.UTF_8));
+                writeLine(out, "exit 0");
+                out.flush();
+                return;
+            } else if (line.startsWith("source ")) {
+                // Like Jasic.readFile(), make sure the last statement ends
+                // in a newline.
+                source = readText(in, line, "source ") + "\n";
+            } else if (line.startsWith("input ")) {
+                input = readText(in, line, "input ");
+            } else {
+                fail(out, "Unknown request '" + line + "'.");
+                return;
+            }
+        }
+        if (source == null) {
+            fail(out, "No script to run.");
+            return;
+        }
+        run(source, input, out);
+    }
+
+    private void run(String source, String input, OutputStream out) throws IOException {
+        Jasic jasic;
+        try {
+            jasic = cache.take(source);
+        } catch (RuntimeException | Error e) {
+            fail(out, describe(e));
+            return;
+        }
+        FrameOutputStream frames = new FrameOutputStream(out);
+        jasic.setOut(new PrintStream(frames, true, "UTF-8"));
+        jasic.setLineIn(new BufferedReader(new StringReader(input)));
+        try {
+            jasic.restart();
+        } catch (RuntimeException | Error e) {
+            jasic.getOut().flush();
+            cache.discard(jasic);
+            fail(out, describe(e));
+            return;
+        }
+        jasic.getOut().flush();
+        cache.release(jasic);
+        synchronized (this) {
+            runs++;
+        }
+        writeLine(out, "exit 0");
+        out.flush();
+    }
+
+    private synchronized String stats() {
+        return "runs " + runs + "\ncache hits " + cache.getHits() + "\ncache misses " + cache.getMisses() + "\n";
+    }
+
+    private static String describe(Throwable e) {
+        return e.getMessage() != null ? e.getMessage() : e.toString();
+    }
+
+    private static void fail(OutputStream out, String message) throws IOException {
+        writeFrame(out, "error", message.getBytes(StandardCharsets.UTF_8));
+        writeLine(out, "exit 1");
+        out.flush();
+    }
+
+    private static String readText(InputStream in, String line, String prefix) throws IOException {
+        int length;
+        try {
+            length = Integer.parseInt(line.substring(prefix.length()).trim());
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Bad length in '" + line + "'.");
+        }
+        if (length < 0 || length > MAX_TEXT) {
+            throw new ProtocolException("Bad length in '" + line + "': it can be up to " + MAX_TEXT + " bytes.");
+        }
+        return new String(readBytes(in, length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a frame: a line with its kind and length, and then its bytes.
+     */
+    static void writeFrame(OutputStream out, String kind, byte[] bytes) throws IOException {
+        writeLine(out, kind + " " + bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeLine(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return The next line, without the line ending, or null at the end.
+     * @throws ProtocolException If the line is longer than {@link #MAX_LINE}.
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                break;
+            }
+            if (line.size() >= MAX_LINE) {
+                throw new ProtocolException("A line is longer than " + MAX_LINE + " bytes.");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString("UTF-8");
+    }
+
+    static byte[] readBytes(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(bytes, read, length - read);
+            if (count < 0) {
+                throw new IOException("The connection ended early.");
+            }
+            read += count;
+        }
+        return bytes;
+    }
+}
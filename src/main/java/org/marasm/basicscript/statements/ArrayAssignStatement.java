@@ -0,0 +1,39 @@
+package org.marasm.basicscript.statements;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.ArrayElementExpression;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.NumericExpression;
+
+/**
+ * An array assignment evaluates an expression and stores the result in an
+ * element of an array.
+ */
+public class ArrayAssignStatement implements Statement {
+
+    @Getter
+    private final ArrayElementExpression element;
+    @Getter
+    private final Expression value;
+    private final boolean numeric;
+
+    public ArrayAssignStatement(ArrayElementExpression element, Expression value) {
+        this.element = element;
+        this.value = value;
+        this.numeric = value instanceof NumericExpression;
+    }
+
+    @Override
+    public void execute() {
+        if (numeric) {
+            element.assignNumber(value.evaluateNumber());
+        } else {
+            element.assign(value.evaluate());
+        }
+    }
+
+    @Override
+    public String decodedString() {
+        return element.decodedString() + " = " + value.decodedString();
+    }
+}
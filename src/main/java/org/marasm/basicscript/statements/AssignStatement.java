@@ -1,8 +1,8 @@
 package org.marasm.basicscript.statements;
 
+import lombok.Getter;
 import org.marasm.basicscript.Jasic;
 import org.marasm.basicscript.expressions.Expression;
-import org.marasm.basicscript.expressions.VariableExpression;
 
 /**
  * An assignment statement evaluates an expression and stores the result in
@@ -10,23 +10,25 @@ import org.marasm.basicscript.expressions.VariableExpression;
  */
 public class AssignStatement implements Statement {
 
-    private final Expression variable;
+    @Getter
+    private final String name;
+    @Getter
     private final Expression value;
     private final Jasic jasic;
 
     public AssignStatement(String variableName, Expression value, Jasic jasic) {
         this.value = value;
         this.jasic = jasic;
-        this.variable = VariableExpression.parseVariableExpression(variableName, jasic);
+        this.name = variableName;
     }
 
     @Override
     public void execute() {
-        jasic.getVariables().put(variable.evaluate().toString(), value.evaluate());
+        jasic.getVariables().put(name, value.evaluate());
     }
 
     @Override
     public String decodedString() {
-        return variable.toString() + " = " + value.decodedString();
+        return name + " = " + value.decodedString();
     }
 }
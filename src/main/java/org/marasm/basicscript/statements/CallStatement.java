@@ -0,0 +1,29 @@
+package org.marasm.basicscript.statements;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.Expression;
+
+/**
+ * A call statement calls a function for its effect and throws the result
+ * away, like:
+ * <p>
+ * fill(a, 0, 100)
+ */
+public class CallStatement implements Statement {
+    @Getter
+    private final Expression call;
+
+    public CallStatement(Expression call) {
+        this.call = call;
+    }
+
+    @Override
+    public void execute() {
+        call.evaluate();
+    }
+
+    @Override
+    public String decodedString() {
+        return call.decodedString();
+    }
+}
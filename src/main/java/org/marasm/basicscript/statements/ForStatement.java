@@ -0,0 +1,123 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.values.NumberValue;
+
+/**
+ * A "for" statement starts a counted loop:
+ * <p>
+ * for i = 1 to 10 step 2
+ * print i
+ * next
+ * <p>
+ * It evaluates the start, the bound and the step once, stores the start in
+ * the loop variable, and skips the whole loop if the start is already past
+ * the bound. The matching {@link NextStatement} does the counting.
+ */
+@AllArgsConstructor
+public class ForStatement implements Statement {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final Expression start;
+    @Getter
+    private final Expression end;
+    @Getter
+    private final Expression step;
+    @Getter
+    private final Loop loop;
+    private final Jasic jasic;
+
+    @Override
+    public void execute() {
+        double value = loop.begin(start, end, step);
+        jasic.getVariables().put(name, new NumberValue(value));
+        if (!loop.continues(value)) {
+            jasic.setCurrentStatement(loop.getExit());
+        }
+    }
+
+    @Override
+    public String decodedString() {
+        return "for " + name + " = " + start.decodedString() + " to " + end.decodedString()
+                + (step == null ? "" : " step " + step.decodedString());
+    }
+
+    /**
+     * The state shared by a "for" statement and its "next": where the loop
+     * starts and ends in the program, and the bound and step of the current
+     * run of the loop.
+     */
+    public static class Loop {
+        /**
+         * The index of the "for" statement.
+         */
+        @Getter
+        @Setter
+        private int head;
+        /**
+         * The index of the "next" statement.
+         */
+        @Getter
+        @Setter
+        private int tail;
+        @Getter
+        private double limit;
+        @Getter
+        private double increment;
+
+        /**
+         * @return The index of the first statement of the loop body.
+         */
+        public int getBody() {
+            return head + 1;
+        }
+
+        /**
+         * @return The index of the statement after the loop.
+         */
+        public int getExit() {
+            return tail + 1;
+        }
+
+        /**
+         * Evaluates the bound and the step for a new run of the loop.
+         *
+         * @return The start value of the loop variable.
+         */
+        public double begin(Expression start, Expression end, Expression step) {
+            double value = start.evaluateNumber();
+            limit = end.evaluateNumber();
+            increment = step == null ? 1 : step.evaluateNumber();
+            return value;
+        }
+
+        /**
+         * Puts back the bound and the step of a run of the loop that was
+         * interrupted, when resuming from a checkpoint.
+         */
+        public void restore(double limit, double increment) {
+            this.limit = limit;
+            this.increment = increment;
+        }
+
+        /**
+         * @return The next value of the loop variable.
+         */
+        public double advance(double value) {
+            return value + increment;
+        }
+
+        /**
+         * @return True if the loop variable hasn't passed the bound yet.
+         */
+        public boolean continues(double value) {
+            return increment >= 0 ? value <= limit : value >= limit;
+        }
+    }
+}
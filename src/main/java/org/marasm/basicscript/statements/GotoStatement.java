@@ -1,6 +1,7 @@
 package org.marasm.basicscript.statements;
 
 import lombok.AllArgsConstructor;
+import lombok.Getter;
 import org.marasm.basicscript.Jasic;
 
 /**
@@ -9,6 +10,7 @@ import org.marasm.basicscript.Jasic;
 @AllArgsConstructor
 public class GotoStatement implements Statement {
 
+    @Getter
     private final String label;
     private final Jasic jasic;
 
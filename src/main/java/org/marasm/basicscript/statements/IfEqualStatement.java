@@ -0,0 +1,36 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.store.VariableStore;
+
+/**
+ * Fused form of "if v = w then [label]" for two numeric variables. The
+ * label is resolved when the statement is built.
+ */
+@AllArgsConstructor
+public class IfEqualStatement implements Statement {
+
+    private final String leftName;
+    private final int leftSlot;
+    private final String rightName;
+    private final int rightSlot;
+    private final String label;
+    @Getter
+    private final int target;
+    private final Jasic jasic;
+
+    @Override
+    public void execute() {
+        VariableStore store = jasic.getStore();
+        if (store.getNumber(leftSlot) == store.getNumber(rightSlot)) {
+            jasic.setCurrentStatement(target);
+        }
+    }
+
+    @Override
+    public String decodedString() {
+        return "if " + leftName + " = " + rightName + " then " + label;
+    }
+}
@@ -0,0 +1,33 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+
+/**
+ * Fused form of "if v < [number] then [label]" for a numeric variable. The
+ * label is resolved when the statement is built.
+ */
+@AllArgsConstructor
+public class IfLessThanConstantStatement implements Statement {
+
+    private final String name;
+    private final int slot;
+    private final double limit;
+    private final String label;
+    @Getter
+    private final int target;
+    private final Jasic jasic;
+
+    @Override
+    public void execute() {
+        if (jasic.getStore().getNumber(slot) < limit) {
+            jasic.setCurrentStatement(target);
+        }
+    }
+
+    @Override
+    public String decodedString() {
+        return "if " + name + " < " + limit + " then " + label;
+    }
+}
@@ -1,5 +1,6 @@
 package org.marasm.basicscript.statements;
 
+import lombok.Getter;
 import org.marasm.basicscript.Jasic;
 import org.marasm.basicscript.expressions.Expression;
 
@@ -10,7 +11,9 @@ import org.marasm.basicscript.expressions.Expression;
 public class IfThenStatement implements Statement {
 
     private final Jasic jasic;
+    @Getter
     private final Expression condition;
+    @Getter
     private final String label;
 
     public IfThenStatement(Expression condition, String label, Jasic jasic) {
@@ -22,7 +25,7 @@ public class IfThenStatement implements Statement {
     @Override
     public void execute() {
         if (jasic.getLabels().containsKey(label)) {
-            double value = condition.evaluate().toNumber();
+            double value = condition.evaluateNumber();
             if (value != 0) {
                 jasic.setCurrentStatement(jasic.getLabels().get(label));
             }
@@ -0,0 +1,28 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.store.VariableStore;
+
+/**
+ * Fused form of "v = v + [number]" for a numeric variable.
+ */
+@AllArgsConstructor
+public class IncrementStatement implements Statement {
+
+    private final String name;
+    private final int slot;
+    private final double amount;
+    private final Jasic jasic;
+
+    @Override
+    public void execute() {
+        VariableStore store = jasic.getStore();
+        store.setNumber(slot, store.getNumber(slot) + amount);
+    }
+
+    @Override
+    public String decodedString() {
+        return name + " += " + amount;
+    }
+}
@@ -1,10 +1,11 @@
 package org.marasm.basicscript.statements;
 
+import lombok.Getter;
 import org.marasm.basicscript.Jasic;
-import org.marasm.basicscript.expressions.Expression;
-import org.marasm.basicscript.expressions.VariableExpression;
+import org.marasm.basicscript.expressions.ArrayElementExpression;
 import org.marasm.basicscript.values.NumberValue;
 import org.marasm.basicscript.values.StringValue;
+import org.marasm.basicscript.values.Value;
 
 import java.io.IOException;
 
@@ -14,11 +15,25 @@ import java.io.IOException;
  */
 public class InputStatement implements Statement {
 
-    private final Expression variable;
+    @Getter
+    private final String name;
+    @Getter
+    private final ArrayElementExpression element;
     private final Jasic jasic;
 
     public InputStatement(String name, Jasic jasic) {
-        this.variable = VariableExpression.parseVariableExpression(name, jasic);
+        this.name = name;
+        this.element = null;
+        this.jasic = jasic;
+    }
+
+    /**
+     * Creates an input statement that stores into an array element instead
+     * of a variable.
+     */
+    public InputStatement(ArrayElementExpression element, Jasic jasic) {
+        this.name = element.getRootName();
+        this.element = element;
         this.jasic = jasic;
     }
 
@@ -28,11 +43,16 @@ public class InputStatement implements Statement {
             String input = jasic.getLineIn().readLine();
 
             // Store it as a number if possible, otherwise use a string.
+            Value value;
             try {
-                double value = Double.parseDouble(input);
-                jasic.getVariables().put(variable.evaluate().toString(), new NumberValue(value));
+                value = new NumberValue(Double.parseDouble(input));
             } catch (NumberFormatException e) {
-                jasic.getVariables().put(variable.evaluate().toString(), new StringValue(input));
+                value = new StringValue(input);
+            }
+            if (element != null) {
+                element.assign(value);
+            } else {
+                jasic.getVariables().put(name, value);
             }
         } catch (IOException e1) {
             // HACK: Just ignore the problem.
@@ -41,6 +61,6 @@ public class InputStatement implements Statement {
 
     @Override
     public String decodedString() {
-        return "input " + variable.decodedString();
+        return "input " + (element != null ? element.decodedString() : name);
     }
 }
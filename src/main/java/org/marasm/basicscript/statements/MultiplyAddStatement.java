@@ -0,0 +1,30 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.Expression;
+
+/**
+ * Fused form of "v = a * b + c" for a numeric variable, where each operand
+ * is a numeric variable or a number.
+ */
+@AllArgsConstructor
+public class MultiplyAddStatement implements Statement {
+
+    private final String name;
+    private final int slot;
+    private final Expression a;
+    private final Expression b;
+    private final Expression c;
+    private final Jasic jasic;
+
+    @Override
+    public void execute() {
+        jasic.getStore().setNumber(slot, a.evaluateNumber() * b.evaluateNumber() + c.evaluateNumber());
+    }
+
+    @Override
+    public String decodedString() {
+        return name + " = " + a.decodedString() + " * " + b.decodedString() + " + " + c.decodedString();
+    }
+}
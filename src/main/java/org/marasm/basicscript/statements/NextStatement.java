@@ -0,0 +1,35 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.values.NumberValue;
+
+/**
+ * A "next" statement ends the body of a counted loop. It adds the step to
+ * the loop variable and jumps back to the start of the body until the
+ * variable passes the bound.
+ */
+@AllArgsConstructor
+public class NextStatement implements Statement {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final ForStatement.Loop loop;
+    private final Jasic jasic;
+
+    @Override
+    public void execute() {
+        double value = loop.advance(jasic.getStore().getNumber(name));
+        jasic.getVariables().put(name, new NumberValue(value));
+        if (loop.continues(value)) {
+            jasic.setCurrentStatement(loop.getBody());
+        }
+    }
+
+    @Override
+    public String decodedString() {
+        return "next " + name;
+    }
+}
@@ -0,0 +1,32 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.Expression;
+
+/**
+ * A numeric assignment stores the result of an expression in a variable
+ * that only ever holds numbers, without boxing it.
+ */
+@AllArgsConstructor
+public class NumericAssignStatement implements Statement {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int slot;
+    @Getter
+    private final Expression value;
+    private final Jasic jasic;
+
+    @Override
+    public void execute() {
+        jasic.getStore().setNumber(slot, value.evaluateNumber());
+    }
+
+    @Override
+    public String decodedString() {
+        return name + " = " + value.decodedString();
+    }
+}
@@ -0,0 +1,43 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.Expression;
+
+/**
+ * The form of a "for" statement whose loop variable only ever holds numbers
+ * and lives in a slot of the variable store.
+ */
+@AllArgsConstructor
+public class NumericForStatement implements Statement {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int slot;
+    @Getter
+    private final Expression start;
+    @Getter
+    private final Expression end;
+    @Getter
+    private final Expression step;
+    @Getter
+    private final ForStatement.Loop loop;
+    private final Jasic jasic;
+
+    @Override
+    public void execute() {
+        double value = loop.begin(start, end, step);
+        jasic.getStore().setNumber(slot, value);
+        if (!loop.continues(value)) {
+            jasic.setCurrentStatement(loop.getExit());
+        }
+    }
+
+    @Override
+    public String decodedString() {
+        return "for " + name + " = " + start.decodedString() + " to " + end.decodedString()
+                + (step == null ? "" : " step " + step.decodedString());
+    }
+}
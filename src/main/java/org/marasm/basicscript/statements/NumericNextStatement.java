@@ -0,0 +1,38 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.store.VariableStore;
+
+/**
+ * The form of a "next" statement whose loop variable lives in a slot of the
+ * variable store. Counting and testing the bound is done on primitive
+ * doubles.
+ */
+@AllArgsConstructor
+public class NumericNextStatement implements Statement {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int slot;
+    @Getter
+    private final ForStatement.Loop loop;
+    private final Jasic jasic;
+
+    @Override
+    public void execute() {
+        VariableStore store = jasic.getStore();
+        double value = loop.advance(store.getNumber(slot));
+        store.setNumber(slot, value);
+        if (loop.continues(value)) {
+            jasic.setCurrentStatement(loop.getBody());
+        }
+    }
+
+    @Override
+    public String decodedString() {
+        return "next " + name;
+    }
+}
@@ -0,0 +1,209 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A "parallel for" statement starts a counted loop whose iterations are
+ * independent of each other, and spreads them across threads:
+ * <p>
+ * parallel for y = 0 to 99 reduce + total
+ * ...
+ * next
+ * <p>
+ * The iterations are split into contiguous chunks, and each chunk runs on
+ * a worker that starts from a private copy of the variables (see
+ * {@link org.marasm.basicscript.parallel.WorkerPool}). Once every chunk is
+ * done:
+ * <p>
+ * - Everything printed comes out in the same order as in a sequential loop.
+ * - Each reduction variable is combined with the partial results of the
+ * chunks, in chunk order. Within a chunk it starts at the identity of its
+ * operator (0 for +, 1 for *, and infinity for min and -infinity for max).
+ * - The loop variable is left where the sequential loop would leave it.
+ * - Any other variable the body writes keeps its value from before the loop.
+ * <p>
+ * Arrays are the one thing the chunks share, so the body can fill in an
+ * array, one element per iteration. Every array it writes to has to exist
+ * before the loop (see {@link org.marasm.basicscript.tools.ParallelArrays})
+ * and be big enough already: while the chunks run, the arrays are locked
+ * (see {@link ArrayValue#lock()}) and can't grow. Each chunk should write
+ * to different elements of them.
+ * <p>
+ * The body can't jump out of the loop. A parallel loop nested in another
+ * one runs sequentially.
+ */
+public class ParallelForStatement extends ForStatement {
+
+    @Getter
+    private final List<Reduction> reductions;
+    /**
+     * The arrays the body writes to.
+     */
+    @Getter
+    @Setter
+    private List<String> arrays = Collections.emptyList();
+    private final Jasic jasic;
+
+    public ParallelForStatement(String name, Expression start, Expression end, Expression step,
+                                Loop loop, List<Reduction> reductions, Jasic jasic) {
+        super(name, start, end, step, loop, jasic);
+        this.reductions = reductions;
+        this.jasic = jasic;
+    }
+
+    @Override
+    public void execute() {
+        if (jasic.isWorker()) {
+            super.execute();
+            return;
+        }
+
+        // Count the values of the loop variable exactly like the sequential
+        // loop would.
+        Loop loop = getLoop();
+        double value = loop.begin(getStart(), getEnd(), getStep());
+        double[] values = new double[16];
+        int count = 0;
+        while (loop.continues(value)) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+            double next = loop.advance(value);
+            if (next == value) {
+                throw new Error("A parallel loop needs a step that moves the loop variable.");
+            }
+            value = next;
+        }
+        if (count < 2) {
+            // Not worth a thread. Run it like any other loop.
+            jasic.getVariables().put(getName(), new NumberValue(count == 0 ? value : values[0]));
+            if (count == 0) {
+                jasic.setCurrentStatement(loop.getExit());
+            }
+            return;
+        }
+
+        double[] iterations = values;
+        int total = count;
+        int chunks = Math.min(total, jasic.getWorkers().size() * 4);
+        List<ArrayValue> locked = lockArrays();
+        List<double[]> partials;
+        try {
+            partials = jasic.getWorkers().run(chunks, (worker, chunk) -> {
+                for (Reduction reduction : reductions) {
+                    worker.getVariables().put(reduction.getName(), new NumberValue(reduction.identity()));
+                }
+                int end = (int) ((long) total * (chunk + 1) / chunks);
+                for (int i = (int) ((long) total * chunk / chunks); i < end; i++) {
+                    worker.getVariables().put(getName(), new NumberValue(iterations[i]));
+                    worker.runLoopBody(loop.getBody(), loop.getTail());
+                }
+                double[] partial = new double[reductions.size()];
+                for (int r = 0; r < partial.length; r++) {
+                    partial[r] = worker.getVariables().get(reductions.get(r).getName()).toNumber();
+                }
+                return partial;
+            });
+        } finally {
+            locked.forEach(ArrayValue::unlock);
+        }
+
+        for (int r = 0; r < reductions.size(); r++) {
+            Reduction reduction = reductions.get(r);
+            double result = jasic.getVariables().containsKey(reduction.getName())
+                    ? jasic.getVariables().get(reduction.getName()).toNumber() : 0;
+            for (double[] partial : partials) {
+                result = reduction.combine(result, partial[r]);
+            }
+            jasic.getVariables().put(reduction.getName(), new NumberValue(result));
+        }
+        jasic.getVariables().put(getName(), new NumberValue(value));
+        jasic.setCurrentStatement(loop.getExit());
+    }
+
+    /**
+     * Gets the arrays the body writes to ready to be shared by the chunks:
+     * makes sure they are arrays, gives this run copies of its own of any
+     * shared with a forked run, and locks them.
+     *
+     * @return The arrays it locked.
+     */
+    private List<ArrayValue> lockArrays() {
+        List<ArrayValue> locked = new ArrayList<>();
+        for (String name : arrays) {
+            Value value = jasic.getVariables().get(name);
+            if (!(value instanceof ArrayValue)) {
+                locked.forEach(ArrayValue::unlock);
+                throw new Error("The parallel loop over " + getName() + " writes to " + name
+                        + ", which isn't an array yet. Create it before the loop, and fill() it to its full size.");
+            }
+            ArrayValue array = (ArrayValue) value;
+            if (array.isShared()) {
+                array = array.copy();
+                jasic.getVariables().put(name, array);
+            }
+            array.lock();
+            locked.add(array);
+        }
+        return locked;
+    }
+
+    @Override
+    public String decodedString() {
+        return "parallel " + super.decodedString() + (reductions.isEmpty() ? "" : " reduce "
+                + reductions.stream().map(r -> r.getOperator() + " " + r.getName()).collect(Collectors.joining(", ")));
+    }
+
+    /**
+     * A variable that the chunks of a parallel loop each compute part of.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Reduction {
+        /**
+         * One of +, *, min or max.
+         */
+        private final String operator;
+        private final String name;
+
+        public double identity() {
+            switch (operator) {
+                case "+":
+                    return 0;
+                case "*":
+                    return 1;
+                case "min":
+                    return Double.POSITIVE_INFINITY;
+                default:
+                    return Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        public double combine(double left, double right) {
+            switch (operator) {
+                case "+":
+                    return left + right;
+                case "*":
+                    return left * right;
+                case "min":
+                    return Math.min(left, right);
+                default:
+                    return Math.max(left, right);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.marasm.basicscript.statements;
+
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.tools.AutoParallelizer;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Takes the place of the first statement of a loop that the
+ * {@link AutoParallelizer} found can run in parallel. When the loop is
+ * entered, it first counts the values the counter goes through, exactly
+ * like the loop would, and then runs the iterations in chunks across the
+ * workers, each iteration starting with the counter set to its value.
+ * <p>
+ * Printed lines come out in sequential order. Afterwards the counter holds
+ * the value that ended the loop, and every other variable the loop writes
+ * holds what the last iteration left in it.
+ * <p>
+ * Workers run the loop sequentially, and so does this statement if the loop
+ * has fewer than two iterations or too many to count.
+ */
+public class ParallelLoopStatement implements Statement {
+    private static final int MAX_ITERATIONS = 1 << 22;
+
+    /**
+     * The statement this one took the place of.
+     */
+    @Getter
+    private final Statement original;
+    @Getter
+    private final AutoParallelizer.Loop loop;
+    private final Jasic jasic;
+
+    public ParallelLoopStatement(Statement original, AutoParallelizer.Loop loop, Jasic jasic) {
+        this.original = original;
+        this.loop = loop;
+        this.jasic = jasic;
+    }
+
+    @Override
+    public void execute() {
+        if (jasic.isWorker()) {
+            original.execute();
+            return;
+        }
+
+        String counter = loop.getCounter();
+        Value first = jasic.getVariables().containsKey(counter)
+                ? jasic.getVariables().get(counter) : new NumberValue(0);
+        double[] values = new double[16];
+        int count = 0;
+        boolean ended = false;
+        double value = first instanceof NumberValue ? first.toNumber() : 0;
+        while (first instanceof NumberValue && count < MAX_ITERATIONS) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+            jasic.getVariables().put(counter, new NumberValue(value));
+            Value next = loop.getStep().evaluate();
+            if (!(next instanceof NumberValue)) {
+                break;
+            }
+            value = next.toNumber();
+            jasic.getVariables().put(counter, next);
+            if (loop.getCondition().evaluateNumber() == 0) {
+                ended = true;
+                break;
+            }
+        }
+        if (!ended || count < 2) {
+            // Too short, too long, or not counting with numbers.
+            jasic.getVariables().put(counter, first);
+            runSequentially();
+            return;
+        }
+
+        double[] iterations = values;
+        int total = count;
+        int chunks = Math.min(total, jasic.getWorkers().size() * 4);
+        List<Map<String, Value>> results = jasic.getWorkers().run(chunks, (worker, chunk) -> {
+            int end = (int) ((long) total * (chunk + 1) / chunks);
+            for (int i = (int) ((long) total * chunk / chunks); i < end; i++) {
+                worker.getVariables().put(counter, new NumberValue(iterations[i]));
+                worker.runLoopBody(loop.getHead(), loop.getUpdate());
+            }
+            if (chunk < chunks - 1) {
+                return null;
+            }
+            Map<String, Value> last = new HashMap<>();
+            for (String name : loop.getWritten()) {
+                if (worker.getVariables().containsKey(name)) {
+                    last.put(name, worker.getVariables().get(name));
+                }
+            }
+            return last;
+        });
+
+        jasic.getVariables().putAll(results.get(chunks - 1));
+        jasic.setCurrentStatement(loop.getTail() + 1);
+    }
+
+    /**
+     * Runs the whole loop here, one iteration after the other.
+     */
+    private void runSequentially() {
+        int next = loop.getHead();
+        do {
+            Statement statement = next == loop.getHead() ? original : jasic.getStatements().get(next);
+            jasic.setCurrentStatement(next + 1);
+            statement.execute();
+            next = jasic.getCurrentStatement();
+        } while (next >= loop.getHead() && next <= loop.getTail());
+    }
+
+    @Override
+    public String decodedString() {
+        return original.decodedString();
+    }
+}
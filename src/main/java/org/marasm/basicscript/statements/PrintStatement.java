@@ -1,5 +1,7 @@
 package org.marasm.basicscript.statements;
 
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
 import org.marasm.basicscript.expressions.Expression;
 
 /**
@@ -7,15 +9,18 @@ import org.marasm.basicscript.expressions.Expression;
  * string, and displays it to the user.
  */
 public class PrintStatement implements Statement {
+    @Getter
     private final Expression expression;
+    private final Jasic jasic;
 
-    public PrintStatement(Expression expression) {
+    public PrintStatement(Expression expression, Jasic jasic) {
         this.expression = expression;
+        this.jasic = jasic;
     }
 
     @Override
     public void execute() {
-        System.out.println(expression.evaluate().toString());
+        jasic.getOut().println(expression.evaluate().toString());
     }
 
     @Override
@@ -0,0 +1,32 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.marasm.basicscript.profile.Profiler;
+
+/**
+ * Runs another statement and tells a {@link Profiler} how long it took and
+ * how much it allocated. Statements are only wrapped in these when
+ * profiling is on.
+ */
+@AllArgsConstructor
+public class ProfiledStatement implements Statement {
+
+    @Getter
+    private final Statement statement;
+    private final int index;
+    private final Profiler profiler;
+
+    @Override
+    public void execute() {
+        long allocated = profiler.allocatedBytes();
+        long start = profiler.start();
+        statement.execute();
+        profiler.record(index, start, allocated);
+    }
+
+    @Override
+    public String decodedString() {
+        return statement.decodedString();
+    }
+}
@@ -0,0 +1,129 @@
+package org.marasm.basicscript.statements;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.NumericExpression;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A range switch replaces a run of "if" statements that all compare the same
+ * variable against constants, like:
+ * <p>
+ * if iter < 2 then draw0
+ * if iter < 4 then draw1
+ * <p>
+ * The constants split the number line into regions, and every region has a
+ * fixed statement to continue at: the target of the first "if" that would
+ * have matched, or the statement after the run if none would. Executing the
+ * switch evaluates the variable once and finds its region with a binary
+ * search instead of testing every condition in turn.
+ */
+public class RangeSwitchStatement implements Statement {
+
+    @Getter
+    private final Expression subject;
+    @Getter
+    private final List<Case> cases;
+    @Getter
+    private final double[] points;
+    @Getter
+    private final int[] targets;
+    @Getter
+    private final int fallthrough;
+    private final Jasic jasic;
+
+    /**
+     * @param subject     The expression all of the cases compare.
+     * @param cases       The original conditions, in source order.
+     * @param points      The distinct constants of the cases, sorted.
+     * @param targets     The statement to jump to for each region. Region
+     *                    2 * i + 1 is exactly points[i], region 2 * i is the
+     *                    open interval below it.
+     * @param fallthrough The statement to jump to if no case matches.
+     * @param jasic       The interpreter.
+     */
+    public RangeSwitchStatement(Expression subject, List<Case> cases, double[] points,
+                                int[] targets, int fallthrough, Jasic jasic) {
+        this.subject = subject;
+        this.cases = cases;
+        this.points = points;
+        this.targets = targets;
+        this.fallthrough = fallthrough;
+        this.jasic = jasic;
+    }
+
+    @Override
+    public void execute() {
+        if (subject instanceof NumericExpression) {
+            jasic.setCurrentStatement(lookup(subject.evaluateNumber()));
+            return;
+        }
+        Value value = subject.evaluate();
+        if (value instanceof NumberValue) {
+            jasic.setCurrentStatement(lookup(value.toNumber()));
+            return;
+        }
+
+        // Strings compare differently, so test the cases one at a time just
+        // like the original statements would have.
+        for (Case c : cases) {
+            if (c.getCondition().evaluate().toNumber() != 0) {
+                jasic.setCurrentStatement(c.getTarget());
+                return;
+            }
+        }
+        jasic.setCurrentStatement(fallthrough);
+    }
+
+    /**
+     * Finds the statement to continue at for a numeric subject.
+     *
+     * @param value The value of the subject.
+     * @return The index of the next statement to execute.
+     */
+    private int lookup(double value) {
+        // NaN fails every comparison.
+        if (value != value) {
+            return fallthrough;
+        }
+        // Arrays.binarySearch() orders -0.0 before 0.0, but the comparison
+        // operators consider them equal, so search by hand.
+        int low = 0;
+        int high = points.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (points[mid] < value) {
+                low = mid + 1;
+            } else if (points[mid] > value) {
+                high = mid - 1;
+            } else {
+                return targets[2 * mid + 1];
+            }
+        }
+        return targets[2 * low];
+    }
+
+    @Override
+    public String decodedString() {
+        return "switch " + subject.decodedString() + " { " + cases.stream()
+                .map(c -> c.getCondition().decodedString() + " then " + c.getLabel())
+                .collect(Collectors.joining(", ")) + " }";
+    }
+
+    /**
+     * One of the "if" statements folded into a switch.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Case {
+        private final Expression condition;
+        private final String label;
+        private final int target;
+    }
+}
@@ -0,0 +1,37 @@
+package org.marasm.basicscript.statements;
+
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.Expression;
+
+/**
+ * Assigns to a shared variable (see
+ * {@link org.marasm.basicscript.store.SharedVariables}). Another
+ * interpreter can change the variable between the time the value is
+ * evaluated and the time it's stored, so an update of the variable that
+ * has to be atomic should be a {@link SharedUpdateStatement} instead.
+ */
+public class SharedAssignStatement implements Statement {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final Expression value;
+    private final Jasic jasic;
+
+    public SharedAssignStatement(String name, Expression value, Jasic jasic) {
+        this.name = name;
+        this.value = value;
+        this.jasic = jasic;
+    }
+
+    @Override
+    public void execute() {
+        jasic.getShared().set(name, value.evaluate());
+    }
+
+    @Override
+    public String decodedString() {
+        return name + " = " + value.decodedString();
+    }
+}
@@ -0,0 +1,48 @@
+package org.marasm.basicscript.statements;
+
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.values.Value;
+
+/**
+ * Applies an operator to a shared variable in place, like:
+ * <p>
+ * shared.hits = shared.hits + 1
+ * <p>
+ * The operand is evaluated first, and then the variable is read, combined
+ * with it and written back as one atomic step, so updates made by other
+ * interpreters at the same time are never lost.
+ */
+public class SharedUpdateStatement implements Statement {
+
+    @Getter
+    private final String name;
+    /**
+     * The original right-hand side. Only used for its operator.
+     */
+    @Getter
+    private final OperatorExpression operator;
+    @Getter
+    private final Expression operand;
+    private final Jasic jasic;
+
+    public SharedUpdateStatement(String name, OperatorExpression operator, Expression operand, Jasic jasic) {
+        this.name = name;
+        this.operator = operator;
+        this.operand = operand;
+        this.jasic = jasic;
+    }
+
+    @Override
+    public void execute() {
+        Value value = operand.evaluate();
+        jasic.getShared().update(name, old -> operator.evaluate(old, value));
+    }
+
+    @Override
+    public String decodedString() {
+        return name + " = " + name + " " + operator.getOperator() + " " + operand.decodedString();
+    }
+}
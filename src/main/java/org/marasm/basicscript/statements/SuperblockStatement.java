@@ -0,0 +1,63 @@
+package org.marasm.basicscript.statements;
+
+import org.marasm.basicscript.Jasic;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a hot path through the program in one go, as picked by
+ * {@link org.marasm.basicscript.tools.Superblocks} from a profile of an
+ * earlier run. The path follows the way each branch on it went most of the
+ * time, even through jumps, so a whole loop iteration can run without
+ * going back to the interpreter loop.
+ * <p>
+ * The statements on the path stay where they were too, so the program can
+ * still jump to any of them. Whenever a branch goes another way than the
+ * path, the superblock stops there, and the interpreter carries on from
+ * wherever the branch went.
+ */
+public class SuperblockStatement implements Statement {
+
+    private final Statement[] statements;
+    /**
+     * Where each statement is in the program.
+     */
+    private final int[] indexes;
+    /**
+     * True for statements that never jump, and so don't need to be checked.
+     */
+    private final boolean[] straight;
+    private final Jasic jasic;
+
+    public SuperblockStatement(Statement[] statements, int[] indexes, boolean[] straight, Jasic jasic) {
+        this.statements = statements;
+        this.indexes = indexes;
+        this.straight = straight;
+        this.jasic = jasic;
+    }
+
+    @Override
+    public void execute() {
+        int last = statements.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (straight[i]) {
+                statements[i].execute();
+                continue;
+            }
+            jasic.setCurrentStatement(indexes[i] + 1);
+            statements[i].execute();
+            if (jasic.getCurrentStatement() != indexes[i + 1]) {
+                return;
+            }
+        }
+        jasic.setCurrentStatement(indexes[last] + 1);
+        statements[last].execute();
+    }
+
+    @Override
+    public String decodedString() {
+        return "superblock " + Arrays.stream(indexes).mapToObj(String::valueOf).collect(Collectors.joining(","))
+                + ": " + statements[0].decodedString();
+    }
+}
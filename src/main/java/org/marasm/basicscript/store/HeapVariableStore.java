@@ -0,0 +1,168 @@
+package org.marasm.basicscript.store;
+
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A variable store on the Java heap.
+ * <p>
+ * A slot holding a number keeps the bits of the double in a long[] and
+ * needs no object at all. Anything else (strings, arrays) is kept in a
+ * parallel Value[]; a non-null entry there tags the slot as holding a
+ * reference instead of a number. Reading or writing a numeric variable
+ * never allocates, and a frame of numbers costs 8 bytes per variable plus
+ * an empty reference. A parallel boolean[] says which slots were assigned.
+ * <p>
+ * Forking is copy-on-write: the fork and the original share their arrays
+ * until either one changes something, at which point that one copies them.
+ */
+public class HeapVariableStore implements VariableStore {
+    private Map<String, Integer> slots = new HashMap<>();
+    private String[] names = new String[16];
+    private long[] bits = new long[16];
+    private Value[] refs = new Value[16];
+    private boolean[] assigned = new boolean[16];
+    /**
+     * True while the arrays above may be shared with a fork.
+     */
+    private boolean copyOnWrite;
+    private final Map<String, Value> view = new VariableMap(this);
+
+    public HeapVariableStore() {
+    }
+
+    private HeapVariableStore(HeapVariableStore original) {
+        slots = original.slots;
+        names = original.names;
+        bits = original.bits;
+        refs = original.refs;
+        assigned = original.assigned;
+        copyOnWrite = true;
+    }
+
+    @Override
+    public int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        int added = slots.size();
+        unshare();
+        if (added == names.length) {
+            int capacity = added * 2;
+            names = Arrays.copyOf(names, capacity);
+            bits = Arrays.copyOf(bits, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+            assigned = Arrays.copyOf(assigned, capacity);
+        }
+        names[added] = name;
+        slots.put(name, added);
+        return added;
+    }
+
+    @Override
+    public int find(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    @Override
+    public int size() {
+        return slots.size();
+    }
+
+    @Override
+    public String name(int slot) {
+        return names[slot];
+    }
+
+    @Override
+    public boolean isNumber(int slot) {
+        return refs[slot] == null;
+    }
+
+    @Override
+    public double getNumber(int slot) {
+        return Double.longBitsToDouble(bits[slot]);
+    }
+
+    @Override
+    public void setNumber(int slot, double value) {
+        if (copyOnWrite) {
+            unshare();
+        }
+        bits[slot] = Double.doubleToRawLongBits(value);
+        assigned[slot] = true;
+    }
+
+    @Override
+    public boolean isAssigned(int slot) {
+        return assigned[slot];
+    }
+
+    @Override
+    public void unset(int slot) {
+        if (copyOnWrite) {
+            unshare();
+        }
+        bits[slot] = 0;
+        refs[slot] = null;
+        assigned[slot] = false;
+    }
+
+    @Override
+    public Value get(int slot) {
+        Value ref = refs[slot];
+        return ref != null ? ref : new NumberValue(Double.longBitsToDouble(bits[slot]));
+    }
+
+    @Override
+    public void set(int slot, Value value) {
+        if (copyOnWrite) {
+            unshare();
+        }
+        if (value instanceof NumberValue) {
+            bits[slot] = Double.doubleToRawLongBits(value.toNumber());
+            refs[slot] = null;
+        } else {
+            bits[slot] = 0;
+            refs[slot] = value;
+        }
+        assigned[slot] = true;
+    }
+
+    @Override
+    public Map<String, Value> asMap() {
+        return view;
+    }
+
+    @Override
+    public VariableStore fork() {
+        for (int slot = 0; slot < size(); slot++) {
+            if (refs[slot] instanceof ArrayValue) {
+                ((ArrayValue) refs[slot]).share();
+            }
+        }
+        copyOnWrite = true;
+        return new HeapVariableStore(this);
+    }
+
+    /**
+     * Makes private copies of the arrays if they may be shared.
+     */
+    private void unshare() {
+        if (copyOnWrite) {
+            slots = new HashMap<>(slots);
+            names = names.clone();
+            bits = bits.clone();
+            refs = refs.clone();
+            assigned = assigned.clone();
+            copyOnWrite = false;
+        }
+    }
+}
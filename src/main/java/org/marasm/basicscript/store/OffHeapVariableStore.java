@@ -0,0 +1,543 @@
+package org.marasm.basicscript.store;
+
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.StringValue;
+import org.marasm.basicscript.values.Value;
+import org.marasm.basicscript.values.ValueCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A variable store that keeps its variables outside of the Java heap, in a
+ * direct buffer or in a memory-mapped file. In a file the variables survive
+ * the process, and the next run that opens the same file starts with them.
+ * <p>
+ * The buffer is laid out as:
+ * <p>
+ * header   magic, version, capacity, count and the end of the used strings
+ * records  one per slot: the name's 64-bit hash, where the name is, a tag
+ * and the value
+ * table    an open addressing hash table from name hash to slot
+ * strings  the names of the variables, the contents of string values and
+ * saved arrays
+ * <p>
+ * Variables are looked up by the 64-bit hash of their name, and the name in
+ * the buffer is only compared when the hash matches, so no names are kept
+ * on the heap. Numbers and strings live in the buffer. Arrays live on the
+ * heap while the script runs, since their elements are changed in place. A
+ * store in a file saves them into the buffer (see {@link ValueCodec}) when
+ * it's flushed or closed, and the next run reads them back from there when
+ * it opens the file. Overwritten strings and arrays saved before leave
+ * their old bytes behind until the strings run out of room, at which point
+ * the buffer is rebuilt with only the live ones.
+ * <p>
+ * A store in a file should be closed when it's no longer needed, which
+ * writes it out and releases the file.
+ */
+public class OffHeapVariableStore implements VariableStore {
+    private static final int MAGIC = 0x4a535653;
+    private static final int VERSION = 3;
+
+    private static final int HEADER = 32;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_COUNT = 12;
+    private static final int HEADER_STRINGS_END = 16;
+
+    private static final int RECORD = 32;
+    private static final int RECORD_HASH = 0;
+    private static final int RECORD_NAME_OFFSET = 8;
+    private static final int RECORD_NAME_LENGTH = 12;
+    private static final int RECORD_TAG = 16;
+    private static final int RECORD_BITS = 24;
+
+    private static final int NUMBER = 0;
+    private static final int STRING = 1;
+    private static final int REFERENCE = 2;
+    /**
+     * An array on the heap that was saved into the strings when the store
+     * was last flushed.
+     */
+    private static final int SAVED = 3;
+    /**
+     * A number, 0, that was never assigned.
+     */
+    private static final int UNSET = 4;
+
+    private static final int MIN_CAPACITY = 64;
+    private static final int MIN_STRINGS = 4096;
+
+    /**
+     * The file the store is mapped from, or null if it only lives in memory.
+     */
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private int tableStart;
+    private int stringsStart;
+    private int stringsEnd;
+    private Value[] refs;
+    private final Map<String, Value> view = new VariableMap(this);
+
+    /**
+     * Creates an empty store in a direct buffer.
+     */
+    public OffHeapVariableStore() {
+        this.channel = null;
+        rebuild(MIN_CAPACITY, 0);
+    }
+
+    private OffHeapVariableStore(FileChannel channel) throws IOException {
+        this.channel = channel;
+        if (channel.size() < HEADER) {
+            rebuild(MIN_CAPACITY, 0);
+            return;
+        }
+
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        // Version 1 is the same without saved arrays, and 2 without unset
+        // slots.
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) < 1 || buffer.getInt(4) > VERSION) {
+            throw new IOException("not a variable store");
+        }
+        layout(buffer.getInt(HEADER_CAPACITY));
+        count = buffer.getInt(HEADER_COUNT);
+        stringsEnd = buffer.getInt(HEADER_STRINGS_END);
+        if (count > capacity || stringsStart > stringsEnd || stringsEnd > buffer.capacity()) {
+            throw new IOException("variable store is damaged");
+        }
+        refs = new Value[capacity];
+        for (int slot = 0; slot < count; slot++) {
+            if (tag(slot) == SAVED) {
+                long bits = buffer.getLong(record(slot) + RECORD_BITS);
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new BufferInputStream(buffer, (int) (bits >>> 32), (int) bits)))) {
+                    refs[slot] = ValueCodec.read(in);
+                }
+            } else if (tag(slot) == REFERENCE) {
+                // The process that set it died before saving it.
+                buffer.putInt(record(slot) + RECORD_TAG, NUMBER);
+                buffer.putLong(record(slot) + RECORD_BITS, 0);
+            }
+        }
+    }
+
+    /**
+     * Opens a store kept in a file, creating the file if it doesn't exist.
+     *
+     * @param path The file.
+     * @return The store.
+     */
+    public static OffHeapVariableStore open(Path path) {
+        try {
+            return new OffHeapVariableStore(FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            throw new Error("Can't open variable store " + path + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int slot(String name) {
+        int slot = find(name);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (count == capacity) {
+            rebuild(capacity * 2, 0);
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int offset = writeString(bytes);
+        return add(hash(name), offset, bytes.length);
+    }
+
+    @Override
+    public int find(String name) {
+        long hash = hash(name);
+        int mask = capacity * 2 - 1;
+        for (int i = index(hash) & mask; ; i = (i + 1) & mask) {
+            int entry = buffer.getInt(tableStart + i * 4);
+            if (entry == 0) {
+                return -1;
+            }
+            if (buffer.getLong(record(entry - 1) + RECORD_HASH) == hash && hasName(entry - 1, name)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public String name(int slot) {
+        return readString(buffer.getInt(record(slot) + RECORD_NAME_OFFSET),
+                buffer.getInt(record(slot) + RECORD_NAME_LENGTH));
+    }
+
+    @Override
+    public boolean isNumber(int slot) {
+        int tag = tag(slot);
+        return tag == NUMBER || tag == UNSET;
+    }
+
+    @Override
+    public double getNumber(int slot) {
+        return buffer.getDouble(HEADER + slot * RECORD + RECORD_BITS);
+    }
+
+    @Override
+    public void setNumber(int slot, double value) {
+        buffer.putInt(HEADER + slot * RECORD + RECORD_TAG, NUMBER);
+        buffer.putDouble(HEADER + slot * RECORD + RECORD_BITS, value);
+    }
+
+    @Override
+    public boolean isAssigned(int slot) {
+        return tag(slot) != UNSET;
+    }
+
+    @Override
+    public void unset(int slot) {
+        buffer.putInt(record(slot) + RECORD_TAG, UNSET);
+        buffer.putLong(record(slot) + RECORD_BITS, 0);
+        refs[slot] = null;
+    }
+
+    @Override
+    public Value get(int slot) {
+        switch (tag(slot)) {
+            case STRING:
+                long bits = buffer.getLong(record(slot) + RECORD_BITS);
+                return new StringValue(readString((int) (bits >>> 32), (int) bits));
+            case REFERENCE:
+            case SAVED:
+                return refs[slot];
+            default:
+                return new NumberValue(getNumber(slot));
+        }
+    }
+
+    @Override
+    public void set(int slot, Value value) {
+        if (value instanceof NumberValue) {
+            buffer.putInt(record(slot) + RECORD_TAG, NUMBER);
+            buffer.putDouble(record(slot) + RECORD_BITS, value.toNumber());
+            refs[slot] = null;
+        } else if (value instanceof StringValue) {
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            // Writing the string can rebuild the buffer, so do it first.
+            int offset = writeString(bytes);
+            buffer.putInt(record(slot) + RECORD_TAG, STRING);
+            buffer.putLong(record(slot) + RECORD_BITS, (long) offset << 32 | bytes.length);
+            refs[slot] = null;
+        } else {
+            if (channel != null && !(value instanceof ArrayValue)) {
+                throw new Error("Can't keep " + name(slot) + " in a variable store file: only numbers, "
+                        + "strings and arrays can be kept there.");
+            }
+            buffer.putInt(record(slot) + RECORD_TAG, REFERENCE);
+            buffer.putLong(record(slot) + RECORD_BITS, 0);
+            refs[slot] = value;
+        }
+    }
+
+    @Override
+    public Map<String, Value> asMap() {
+        return view;
+    }
+
+    /**
+     * Saves the arrays, and writes the store out to its file. Does nothing
+     * for stores that only live in memory.
+     */
+    @Override
+    public synchronized void flush() {
+        // Direct buffers are MappedByteBuffers too, so check for the file.
+        if (channel != null) {
+            saveArrays();
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    /**
+     * Saves every array into the strings, after making room for all of them
+     * at once: rebuilding the buffer drops the arrays saved before.
+     */
+    private void saveArrays() {
+        long total = 0;
+        for (int slot = 0; slot < count; slot++) {
+            if (refs[slot] != null) {
+                total += ValueCodec.size(refs[slot]);
+            }
+        }
+        if (total == 0) {
+            return;
+        }
+        if (stringsEnd + total > Integer.MAX_VALUE / 2) {
+            throw new Error("The arrays are too big to save in a variable store file.");
+        }
+        if (stringsEnd + total > buffer.capacity()) {
+            rebuild(capacity, (int) total);
+        }
+        for (int slot = 0; slot < count; slot++) {
+            if (refs[slot] == null) {
+                continue;
+            }
+            int size = (int) ValueCodec.size(refs[slot]);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new BufferOutputStream(buffer, stringsEnd)))) {
+                ValueCodec.write(out, refs[slot]);
+            } catch (IOException e) {
+                throw new Error("Can't save " + name(slot) + ": " + e.getMessage());
+            }
+            buffer.putInt(record(slot) + RECORD_TAG, SAVED);
+            buffer.putLong(record(slot) + RECORD_BITS, (long) stringsEnd << 32 | size);
+            stringsEnd += size;
+        }
+        buffer.putInt(HEADER_STRINGS_END, stringsEnd);
+    }
+
+    /**
+     * Writes the store out and closes its file. Does nothing for stores that
+     * only live in memory.
+     */
+    @Override
+    public synchronized void close() {
+        if (channel != null && channel.isOpen()) {
+            flush();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new Error("Can't close variable store: " + e.getMessage());
+            }
+        }
+    }
+
+    private static int record(int slot) {
+        return HEADER + slot * RECORD;
+    }
+
+    private int tag(int slot) {
+        return buffer.getInt(record(slot) + RECORD_TAG);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a name.
+     */
+    private static long hash(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static int index(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private void layout(int capacity) {
+        this.capacity = capacity;
+        tableStart = HEADER + capacity * RECORD;
+        stringsStart = tableStart + capacity * 2 * 4;
+    }
+
+    private int add(long hash, int nameOffset, int nameLength) {
+        int slot = count++;
+        int record = record(slot);
+        buffer.putLong(record + RECORD_HASH, hash);
+        buffer.putInt(record + RECORD_NAME_OFFSET, nameOffset);
+        buffer.putInt(record + RECORD_NAME_LENGTH, nameLength);
+        buffer.putInt(record + RECORD_TAG, UNSET);
+        buffer.putLong(record + RECORD_BITS, 0);
+        int mask = capacity * 2 - 1;
+        int i = index(hash) & mask;
+        while (buffer.getInt(tableStart + i * 4) != 0) {
+            i = (i + 1) & mask;
+        }
+        buffer.putInt(tableStart + i * 4, slot + 1);
+        buffer.putInt(HEADER_COUNT, count);
+        return slot;
+    }
+
+    private int writeString(byte[] bytes) {
+        if (stringsEnd + bytes.length > buffer.capacity()) {
+            rebuild(capacity, bytes.length);
+        }
+        int offset = stringsEnd;
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+        stringsEnd += bytes.length;
+        buffer.putInt(HEADER_STRINGS_END, stringsEnd);
+        return offset;
+    }
+
+    /**
+     * @return True if the name kept for a slot is the given one.
+     */
+    private boolean hasName(int slot, String name) {
+        int offset = buffer.getInt(record(slot) + RECORD_NAME_OFFSET);
+        int length = buffer.getInt(record(slot) + RECORD_NAME_LENGTH);
+        // Most names are ASCII, which can be compared without encoding them.
+        if (length == name.length()) {
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) {
+                char c = name.charAt(i);
+                if (c >= 0x80) {
+                    ascii = false;
+                } else if (buffer.get(offset + i) != c) {
+                    return false;
+                }
+            }
+            if (ascii) {
+                return true;
+            }
+        }
+        return readString(offset, length).equals(name);
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lays the buffer out again with room for more slots or more strings.
+     * Only the strings still in use are copied over.
+     *
+     * @param newCapacity The number of slots to make room for.
+     * @param extra       The number of string bytes that are about to be
+     *                    written.
+     */
+    private void rebuild(int newCapacity, int extra) {
+        // Copy everything to the heap first: in a file, the new layout
+        // overlaps the old one.
+        int oldCount = count;
+        String[] names = new String[oldCount];
+        int[] tags = new int[oldCount];
+        long[] bits = new long[oldCount];
+        String[] strings = new String[oldCount];
+        int used = extra;
+        for (int slot = 0; slot < oldCount; slot++) {
+            names[slot] = name(slot);
+            // Saved arrays are saved again by the next flush.
+            tags[slot] = tag(slot) == SAVED ? REFERENCE : tag(slot);
+            used += buffer.getInt(record(slot) + RECORD_NAME_LENGTH);
+            if (tags[slot] == STRING) {
+                strings[slot] = get(slot).toString();
+                used += (int) buffer.getLong(record(slot) + RECORD_BITS);
+            } else if (tags[slot] == NUMBER) {
+                bits[slot] = buffer.getLong(record(slot) + RECORD_BITS);
+            }
+        }
+        Value[] oldRefs = refs;
+
+        layout(newCapacity);
+        int size = stringsStart + Math.max(MIN_STRINGS, used * 2);
+        buffer = allocate(size);
+        for (int i = 0; i < stringsStart; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(HEADER_CAPACITY, capacity);
+        refs = oldRefs == null ? new Value[capacity] : Arrays.copyOf(oldRefs, capacity);
+        count = 0;
+        stringsEnd = stringsStart;
+        buffer.putInt(HEADER_STRINGS_END, stringsEnd);
+
+        for (int slot = 0; slot < oldCount; slot++) {
+            byte[] name = names[slot].getBytes(StandardCharsets.UTF_8);
+            add(hash(names[slot]), writeString(name), name.length);
+            if (tags[slot] == STRING) {
+                set(slot, new StringValue(strings[slot]));
+            } else {
+                buffer.putInt(record(slot) + RECORD_TAG, tags[slot]);
+                buffer.putLong(record(slot) + RECORD_BITS, bits[slot]);
+            }
+        }
+    }
+
+    /**
+     * Reads bytes out of part of a buffer.
+     */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer, int offset, int length) {
+            this.buffer = buffer.duplicate();
+            this.buffer.limit(offset + length).position(offset);
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+
+    /**
+     * Writes bytes into a buffer, from an offset on.
+     */
+    private static class BufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        BufferOutputStream(ByteBuffer buffer, int offset) {
+            this.buffer = buffer.duplicate();
+            this.buffer.position(offset);
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.put(bytes, offset, length);
+        }
+    }
+
+    private ByteBuffer allocate(int size) {
+        if (channel == null) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new Error("Can't grow variable store: " + e.getMessage());
+        }
+    }
+}
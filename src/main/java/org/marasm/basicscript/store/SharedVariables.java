@@ -0,0 +1,80 @@
+package org.marasm.basicscript.store;
+
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Variables that several interpreters see at once, like a hit counter that
+ * many scripts running on different threads add to. A script reaches them
+ * by giving a variable a name that starts with "shared.":
+ * <p>
+ * shared.hits = shared.hits + 1
+ * <p>
+ * Every interpreter uses {@link #global()} unless it's given another
+ * namespace, and the workers of a parallel loop use their parent's.
+ * <p>
+ * The variables are kept in a {@link ConcurrentHashMap}, so reads don't
+ * lock and writes only lock the one bucket they go in, never the whole map.
+ * {@link #update} changes a variable atomically, which is how statements
+ * like the one above keep from losing each other's updates.
+ */
+public class SharedVariables {
+    public static final String PREFIX = "shared.";
+
+    private static final SharedVariables GLOBAL = new SharedVariables();
+    private static final Value ZERO = new NumberValue(0);
+
+    private final ConcurrentHashMap<String, Value> values = new ConcurrentHashMap<>();
+
+    /**
+     * @return The namespace every interpreter in the process shares by
+     * default.
+     */
+    public static SharedVariables global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @return True if a variable name refers to a shared variable.
+     */
+    public static boolean isShared(String name) {
+        return name.startsWith(PREFIX);
+    }
+
+    /**
+     * @return The value of a variable, or 0 if it was never set.
+     */
+    public Value get(String name) {
+        return values.getOrDefault(name, ZERO);
+    }
+
+    public void set(String name, Value value) {
+        values.put(name, value);
+    }
+
+    /**
+     * Replaces the value of a variable with a function of it, as one atomic
+     * step. The function may be called while other updates of the same
+     * variable wait, so it should be quick and must not touch shared
+     * variables itself.
+     *
+     * @param name     The variable.
+     * @param function Computes the new value from the old one (0 if it was
+     *                 never set).
+     * @return The new value.
+     */
+    public Value update(String name, UnaryOperator<Value> function) {
+        return values.compute(name, (key, old) -> function.apply(old == null ? ZERO : old));
+    }
+
+    /**
+     * @return A live view of the variables, for the host.
+     */
+    public Map<String, Value> asMap() {
+        return values;
+    }
+}
@@ -0,0 +1,99 @@
+package org.marasm.basicscript.store;
+
+import org.marasm.basicscript.trace.TraceRecorder;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.Map;
+
+/**
+ * A variable store that passes everything on to another one, and records
+ * every write in a trace along the way.
+ */
+public class TracingVariableStore implements VariableStore {
+    private final VariableStore store;
+    private final TraceRecorder recorder;
+    private final Map<String, Value> view = new VariableMap(this);
+
+    public TracingVariableStore(VariableStore store, TraceRecorder recorder) {
+        this.store = store;
+        this.recorder = recorder;
+    }
+
+    @Override
+    public int slot(String name) {
+        return store.slot(name);
+    }
+
+    @Override
+    public int find(String name) {
+        return store.find(name);
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public String name(int slot) {
+        return store.name(slot);
+    }
+
+    @Override
+    public boolean isNumber(int slot) {
+        return store.isNumber(slot);
+    }
+
+    @Override
+    public double getNumber(int slot) {
+        return store.getNumber(slot);
+    }
+
+    @Override
+    public void setNumber(int slot, double value) {
+        recorder.write(slot, value);
+        store.setNumber(slot, value);
+    }
+
+    @Override
+    public boolean isAssigned(int slot) {
+        return store.isAssigned(slot);
+    }
+
+    @Override
+    public void unset(int slot) {
+        recorder.write(slot, 0);
+        store.unset(slot);
+    }
+
+    @Override
+    public Value get(int slot) {
+        return store.get(slot);
+    }
+
+    @Override
+    public void set(int slot, Value value) {
+        if (value instanceof NumberValue) {
+            recorder.write(slot, value.toNumber());
+        } else {
+            recorder.write(slot);
+        }
+        store.set(slot, value);
+    }
+
+    @Override
+    public Map<String, Value> asMap() {
+        return view;
+    }
+
+    @Override
+    public void flush() {
+        store.flush();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+}
@@ -0,0 +1,119 @@
+package org.marasm.basicscript.store;
+
+import org.marasm.basicscript.values.Value;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The map view of a {@link VariableStore}. Only assigned variables are in
+ * it: one that was only compiled isn't, even though it has a slot. Compiled
+ * code may still refer to the slot of any variable, so removing a variable,
+ * or clearing the map, unsets it (see {@link VariableStore#unset}) and
+ * leaves the slot where it is.
+ */
+class VariableMap extends AbstractMap<String, Value> {
+    private final VariableStore store;
+
+    VariableMap(VariableStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public Value get(Object key) {
+        int slot = assigned(key);
+        return slot < 0 ? null : store.get(slot);
+    }
+
+    @Override
+    public Value put(String key, Value value) {
+        int slot = store.slot(key);
+        Value old = store.isAssigned(slot) ? store.get(slot) : null;
+        store.set(slot, value);
+        return old;
+    }
+
+    @Override
+    public Value remove(Object key) {
+        int slot = assigned(key);
+        if (slot < 0) {
+            return null;
+        }
+        Value old = store.get(slot);
+        store.unset(slot);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        for (int slot = 0; slot < store.size(); slot++) {
+            store.unset(slot);
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return assigned(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int slot = 0; slot < store.size(); slot++) {
+            if (store.isAssigned(slot)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The slot of a key if it's an assigned variable, or -1.
+     */
+    private int assigned(Object key) {
+        int slot = key instanceof String ? store.find((String) key) : -1;
+        return slot >= 0 && store.isAssigned(slot) ? slot : -1;
+    }
+
+    @Override
+    public Set<Entry<String, Value>> entrySet() {
+        return new AbstractSet<Entry<String, Value>>() {
+            @Override
+            public Iterator<Entry<String, Value>> iterator() {
+                return new Iterator<Entry<String, Value>>() {
+                    private int next = skip(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < store.size();
+                    }
+
+                    @Override
+                    public Entry<String, Value> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int slot = next;
+                        next = skip(slot + 1);
+                        return new SimpleEntry<>(store.name(slot), store.get(slot));
+                    }
+
+                    private int skip(int slot) {
+                        while (slot < store.size() && !store.isAssigned(slot)) {
+                            slot++;
+                        }
+                        return slot;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return VariableMap.this.size();
+            }
+        };
+    }
+}
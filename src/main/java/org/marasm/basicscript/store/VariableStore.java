@@ -0,0 +1,138 @@
+package org.marasm.basicscript.store;
+
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.Map;
+
+/**
+ * Holds the values of the variables of an interpreter. Every variable gets a
+ * slot the first time it is stored or compiled, and keeps it for as long as
+ * the store lives, so compiled code can find it by index. A slot made by
+ * compiling holds 0 but isn't assigned until something is written to it,
+ * and {@link #unset} takes it back there.
+ * <p>
+ * Numbers are kept unboxed. How they, and everything else, are stored is up
+ * to the implementation: {@link HeapVariableStore} keeps them in arrays on
+ * the Java heap, {@link OffHeapVariableStore} outside of it, optionally in a
+ * file that outlives the process.
+ */
+public interface VariableStore {
+
+    /**
+     * Gets the slot of a variable, giving it a new one holding 0 if it
+     * doesn't have one yet.
+     */
+    int slot(String name);
+
+    /**
+     * @return The slot of a variable, or -1 if it doesn't have one.
+     */
+    int find(String name);
+
+    /**
+     * @return The number of slots in use.
+     */
+    int size();
+
+    /**
+     * @return The name of the variable in a slot.
+     */
+    String name(int slot);
+
+    /**
+     * @return True if the slot holds a number rather than a reference.
+     */
+    boolean isNumber(int slot);
+
+    /**
+     * Reads a slot that holds a number.
+     */
+    double getNumber(int slot);
+
+    /**
+     * Writes a number to a slot that doesn't hold a reference. Compiled code
+     * only uses this on variables that never hold anything but numbers.
+     */
+    void setNumber(int slot, double value);
+
+    /**
+     * Reads a variable by name as a number, without boxing it if it holds
+     * one.
+     *
+     * @return The number, or 0 if the variable doesn't have a slot.
+     */
+    default double getNumber(String name) {
+        int slot = find(name);
+        if (slot < 0) {
+            return 0;
+        }
+        return isNumber(slot) ? getNumber(slot) : get(slot).toNumber();
+    }
+
+    /**
+     * @return True if the slot was written to since it was made or last
+     * {@link #unset}.
+     */
+    boolean isAssigned(int slot);
+
+    /**
+     * Sets a slot back to 0 and marks it as never assigned. The variable
+     * keeps its slot.
+     */
+    void unset(int slot);
+
+    /**
+     * Reads a slot as a value, boxing it if it holds a number.
+     */
+    Value get(int slot);
+
+    /**
+     * Writes any value to a slot. Numbers are unboxed.
+     */
+    void set(int slot, Value value);
+
+    /**
+     * @return A live map view of the variables, by name.
+     */
+    Map<String, Value> asMap();
+
+    /**
+     * Makes sure every change so far has reached wherever the store keeps
+     * its values. Does nothing for stores that only live in memory.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Flushes the store and releases whatever it holds outside of the Java
+     * heap. The store can't be used afterwards. Does nothing for stores that
+     * only live in memory.
+     */
+    default void close() {
+    }
+
+    /**
+     * Creates a store that starts out with the same variables as this one,
+     * in the same slots, assigned or not. From then on the two are independent, except that
+     * arrays are shared until either side writes to them (see
+     * {@link ArrayValue#isShared()}).
+     * <p>
+     * This copies every variable into a new {@link HeapVariableStore}.
+     */
+    default VariableStore fork() {
+        HeapVariableStore fork = new HeapVariableStore();
+        for (int slot = 0; slot < size(); slot++) {
+            int forked = fork.slot(name(slot));
+            if (!isAssigned(slot)) {
+                continue;
+            }
+            Value value = get(slot);
+            if (value instanceof ArrayValue) {
+                ((ArrayValue) value).share();
+            }
+            fork.set(forked, value);
+        }
+        return fork;
+    }
+}
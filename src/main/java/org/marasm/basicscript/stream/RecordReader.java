@@ -0,0 +1,138 @@
+package org.marasm.basicscript.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the lines of a file, or of part of one, straight out of a channel
+ * into one big buffer, without going through a Reader. Lines are UTF-8, and
+ * end in "\n" or "\r\n".
+ * <p>
+ * A part of a file, from one byte offset to another, holds every line that
+ * starts inside it. That way a file can be cut anywhere into parts that are
+ * read at the same time, and every line is read by exactly one of them.
+ */
+public class RecordReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    /**
+     * How many bytes of the part are left to start lines in.
+     */
+    private long remaining;
+    private boolean eof;
+
+    /**
+     * Reads every line of a channel.
+     */
+    public RecordReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        remaining = Long.MAX_VALUE;
+        buffer.flip();
+    }
+
+    /**
+     * Reads the lines that start between two offsets of a file.
+     */
+    public RecordReader(FileChannel channel, long start, long end) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        if (start > 0) {
+            // The line that runs over the start belongs to the part before,
+            // unless the byte before the start ends a line.
+            channel.position(start - 1);
+            remaining = end - start + 1;
+            skipLine();
+        } else {
+            channel.position(0);
+            remaining = end;
+        }
+    }
+
+    /**
+     * @return The next line, without its line ending, or null if there are
+     * no more.
+     */
+    public String next() throws IOException {
+        if (remaining <= 0) {
+            return null;
+        }
+        int length = lineLength();
+        if (length < 0) {
+            return null;
+        }
+        int start = buffer.position();
+        int end = start + length;
+        int next = end < buffer.limit() ? end + 1 : end;
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        String line = new String(buffer.array(), start, end - start, StandardCharsets.UTF_8);
+        remaining -= next - start;
+        buffer.position(next);
+        return line;
+    }
+
+    private void skipLine() throws IOException {
+        int length = lineLength();
+        if (length >= 0) {
+            int next = Math.min(buffer.position() + length + 1, buffer.limit());
+            remaining -= next - buffer.position();
+            buffer.position(next);
+        }
+    }
+
+    /**
+     * Makes sure the whole of the next line is in the buffer.
+     *
+     * @return Its length, without the "\n", or -1 at the end of the input.
+     */
+    private int lineLength() throws IOException {
+        int scanned = buffer.position();
+        while (true) {
+            byte[] bytes = buffer.array();
+            for (int i = scanned; i < buffer.limit(); i++) {
+                if (bytes[i] == '\n') {
+                    return i - buffer.position();
+                }
+            }
+            scanned = buffer.limit();
+            if (eof) {
+                // The last line doesn't have to end in a newline.
+                return buffer.hasRemaining() ? buffer.remaining() : -1;
+            }
+            scanned -= fill();
+        }
+    }
+
+    /**
+     * Moves what's left of the buffer to its start, and reads more after it.
+     *
+     * @return How far the contents moved.
+     */
+    private int fill() throws IOException {
+        int moved = buffer.position();
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        if (channel.read(buffer) < 0) {
+            eof = true;
+        }
+        buffer.flip();
+        return moved;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,224 @@
+package org.marasm.basicscript.stream;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.parallel.Forks;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.store.VariableStore;
+import org.marasm.basicscript.tools.Partitions;
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.StringValue;
+import org.marasm.basicscript.values.Value;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a script once for every line of a file, the way awk does. The script
+ * is compiled once, and its variables are kept from one line to the next,
+ * so it can add things up as it goes. It's split in three by two labels:
+ * <p>
+ * ; runs once, before the first line
+ * total = 0
+ * records:
+ * ; runs for every line
+ * total = total + field[3]
+ * finish:
+ * ; runs once, after the last line
+ * print total
+ * <p>
+ * Without "records" the script starts with the lines, and without "finish"
+ * every line runs it to the end. Running into "finish" ends a line.
+ * <p>
+ * Every line sets "record" to the line, "nr" to its number, from 1, "nf" to
+ * the number of fields and "field" to an array of them, from field[1].
+ * Fields are split at runs of spaces and tabs, or at every single separator
+ * if one is given, and the ones that look like numbers are numbers. The
+ * fields are only split if the script mentions "field" or "nf".
+ * <p>
+ * A file can be split into partitions that run in parallel, each in a fork
+ * (see {@link Jasic#fork()}) of the interpreter as it was after the first
+ * part, with its own copy of the variables. Partitions add up their results
+ * in shared variables (see {@link org.marasm.basicscript.store.SharedVariables}),
+ * "nr" counts the lines of each partition on its own, and their output comes
+ * out in partition order once they're all done. The last part of the script
+ * then runs once, as the merge step, in the interpreter the partitions were
+ * forked from. It doesn't see their copies of the variables, so when more
+ * than one partition is allowed, it's an error for it to read a variable
+ * that isn't shared and that the records part writes to (see
+ * {@link Partitions}). That's checked whether or not the file turns out to
+ * be big enough to split.
+ */
+public class RecordStream {
+    public static final String RECORDS = "records";
+    public static final String FINISH = "finish";
+    /**
+     * The smallest partition worth its own thread.
+     */
+    public static final long MIN_PARTITION = 1 << 20;
+
+    private static final Pattern USES_FIELDS = Pattern.compile("\\b(field|nf)\\b");
+    private static final List<String> PER_RECORD = Arrays.asList("record", "nr", "nf", "field");
+
+    private final Jasic jasic;
+
+    /**
+     * The character fields are split at, or 0 to split at spaces and tabs.
+     */
+    @Getter
+    @Setter
+    private char separator;
+
+    /**
+     * How many partitions a file may be split into.
+     */
+    @Getter
+    @Setter
+    private int partitions = 1;
+
+    private boolean splitFields;
+    private int start;
+    private int stop;
+
+    public RecordStream(Jasic jasic) {
+        this.jasic = jasic;
+    }
+
+    /**
+     * Runs a script over the lines of a file, or of standard input if the
+     * path is null. Standard input is never partitioned.
+     */
+    public void run(String source, Path input) throws IOException {
+        // The host sets these before the script compiles, so their types
+        // are known.
+        jasic.getVariables().put("record", new StringValue(""));
+        jasic.getVariables().put("nr", new NumberValue(0));
+        jasic.getVariables().put("nf", new NumberValue(0));
+        jasic.getVariables().put("field", new ArrayValue());
+        if (input != null && partitions > 1) {
+            List<Statement> parsed = jasic.parse(source);
+            Partitions.check(parsed, jasic.getLabels().getOrDefault(RECORDS, 0),
+                    jasic.getLabels().getOrDefault(FINISH, parsed.size()), PER_RECORD);
+        }
+        jasic.compile(source);
+        splitFields = USES_FIELDS.matcher(source).find();
+        start = jasic.getLabels().getOrDefault(RECORDS, 0);
+        stop = jasic.getLabels().getOrDefault(FINISH, jasic.getStatements().size());
+        jasic.runBetween(0, start);
+
+        long size = input == null ? 0 : Files.size(input);
+        int count = (int) Math.max(1, Math.min(partitions, size / MIN_PARTITION));
+        if (input == null) {
+            process(jasic, new RecordReader(Channels.newChannel(System.in)));
+        } else if (count == 1) {
+            process(jasic, new RecordReader(FileChannel.open(input, StandardOpenOption.READ), 0, size));
+        } else {
+            List<Jasic> children = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                children.add(jasic.fork());
+            }
+            try {
+                Forks.run(children, count, jasic.getOut(), child -> {
+                    int partition = children.indexOf(child);
+                    try {
+                        process(child, new RecordReader(FileChannel.open(input, StandardOpenOption.READ),
+                                size * partition / count, size * (partition + 1) / count));
+                    } catch (IOException e) {
+                        throw new Error("Can't read " + input + ": " + e.getMessage());
+                    }
+                });
+            } finally {
+                children.forEach(Jasic::close);
+            }
+        }
+
+        if (stop < jasic.getStatements().size()) {
+            jasic.runBetween(stop, jasic.getStatements().size());
+        }
+        jasic.getOut().flush();
+    }
+
+    /**
+     * Runs the middle part of the script for every line a reader has.
+     */
+    private void process(Jasic jasic, RecordReader reader) throws IOException {
+        VariableStore store = jasic.getStore();
+        int record = store.slot("record");
+        int nr = store.slot("nr");
+        int nf = store.slot("nf");
+        int field = store.slot("field");
+        long number = 0;
+        try (RecordReader records = reader) {
+            String line;
+            while ((line = records.next()) != null) {
+                store.set(record, new StringValue(line));
+                store.set(nr, new NumberValue(++number));
+                if (splitFields) {
+                    ArrayValue fields = split(line);
+                    store.set(field, fields);
+                    store.set(nf, new NumberValue(Math.max(fields.length() - 1, 0)));
+                }
+                jasic.runBetween(start, stop);
+            }
+        }
+    }
+
+    private ArrayValue split(String line) {
+        ArrayValue fields = new ArrayValue();
+        int index = 1;
+        int i = 0;
+        int length = line.length();
+        if (separator != 0) {
+            while (i <= length) {
+                int end = line.indexOf(separator, i);
+                if (end < 0) {
+                    end = length;
+                }
+                fields.set(new NumberValue(index++), fieldValue(line.substring(i, end)));
+                i = end + 1;
+            }
+            return fields;
+        }
+        while (i < length) {
+            while (i < length && isBlank(line.charAt(i))) {
+                i++;
+            }
+            int begin = i;
+            while (i < length && !isBlank(line.charAt(i))) {
+                i++;
+            }
+            if (i > begin) {
+                fields.set(new NumberValue(index++), fieldValue(line.substring(begin, i)));
+            }
+        }
+        return fields;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static Value fieldValue(String text) {
+        if (!text.isEmpty()) {
+            char first = text.charAt(0);
+            if ((first >= '0' && first <= '9') || first == '-' || first == '.' || first == '+') {
+                try {
+                    return new NumberValue(Double.parseDouble(text));
+                } catch (NumberFormatException e) {
+                    // Not a number after all.
+                }
+            }
+        }
+        return new StringValue(text);
+    }
+}
@@ -11,5 +11,5 @@ package org.marasm.basicscript.tokens;
  */
 public enum TokenType {
     WORD, NUMBER, STRING, LABEL, LINE,
-    EQUALS, OPERATOR, LEFT_PAREN, RIGHT_PAREN, EOF
+    EQUALS, OPERATOR, LEFT_PAREN, RIGHT_PAREN, LEFT_BRACKET, RIGHT_BRACKET, COMMA, EOF
 }
@@ -0,0 +1,364 @@
+package org.marasm.basicscript.tools;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.ArrayElementExpression;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.functions.CallExpression;
+import org.marasm.basicscript.functions.UserCallExpression;
+import org.marasm.basicscript.statements.ArrayAssignStatement;
+import org.marasm.basicscript.statements.AssignStatement;
+import org.marasm.basicscript.statements.GotoStatement;
+import org.marasm.basicscript.statements.IfThenStatement;
+import org.marasm.basicscript.statements.InputStatement;
+import org.marasm.basicscript.statements.NextStatement;
+import org.marasm.basicscript.statements.ParallelLoopStatement;
+import org.marasm.basicscript.statements.SharedAssignStatement;
+import org.marasm.basicscript.statements.SharedUpdateStatement;
+import org.marasm.basicscript.statements.Statement;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Finds loops built out of labels and jumps whose iterations could just as
+ * well run at the same time, like the outer loop of a Mandelbrot renderer:
+ * <p>
+ * yloop:  x = 0 - 2
+ * ...
+ * print line
+ * y = y + (1 / 110)
+ * if y < (5 / 4) then yloop
+ * <p>
+ * A loop is a jump back to a label. It can run in parallel if:
+ * <p>
+ * - It ends with "if ... then <label>", right after a statement that
+ * updates the counter the condition tests, and the update and the
+ * condition only use the counter and variables the loop doesn't change.
+ * - Nothing jumps into the middle of it, and nothing in it jumps out of it
+ * or back to its start.
+ * - Every other variable it changes is written before it's read in every
+ * iteration, and is written by the end of every iteration. Those are the
+ * iteration's locals: nothing flows through them from one iteration to the
+ * next, and the last iteration alone decides what they hold afterwards.
+ * - It doesn't read input, write to arrays or shared variables, or call
+ * functions that aren't pure.
+ * <p>
+ * Printing is fine, because parallel loops print in sequential order. Only
+ * the outermost loop that qualifies is run in parallel; the ones inside it
+ * run sequentially in each iteration.
+ */
+public class AutoParallelizer {
+
+    /**
+     * Finds the loops that can run in parallel.
+     *
+     * @param statements The program, before it is compiled.
+     * @param labels     The labels of the program.
+     * @param report     Filled in with a line for every loop found, saying
+     *                   whether it runs in parallel and if not, why.
+     * @return The loops to run in parallel.
+     */
+    public static List<Loop> analyze(List<Statement> statements, Map<String, Integer> labels, List<String> report) {
+        // Every jump back to a label closes a loop.
+        List<int[]> candidates = new ArrayList<>();
+        for (int i = 0; i < statements.size(); i++) {
+            String label = jumpLabel(statements.get(i));
+            Integer target = label == null ? null : labels.get(label);
+            if (target != null && target <= i) {
+                candidates.add(new int[]{target, i});
+            }
+        }
+        // Outer loops first.
+        candidates.sort(Comparator.<int[]>comparingInt(c -> c[0]).thenComparingInt(c -> -c[1]));
+
+        List<Loop> loops = new ArrayList<>();
+        for (int[] candidate : candidates) {
+            int head = candidate[0];
+            int tail = candidate[1];
+            String name = "loop " + labelOf(head, labels) + " (statements " + head + "-" + tail + "): ";
+            Loop outer = loops.stream().filter(l -> l.getHead() <= head && tail <= l.getTail()).findFirst().orElse(null);
+            if (outer != null) {
+                report.add(name + "not parallel: it is inside the parallel loop " + outer.getLabel());
+                continue;
+            }
+
+            List<String> reasons = new ArrayList<>();
+            Loop loop = check(statements, labels, head, tail, reasons);
+            if (loop == null) {
+                report.add(name + "not parallel: " + reasons.get(0));
+            } else {
+                report.add(name + "parallel over " + loop.getCounter());
+                loops.add(loop);
+            }
+        }
+        return loops;
+    }
+
+    /**
+     * Puts the loops found by {@link #analyze} in place. Has to run last, as
+     * the loops keep the positions they had when they were found.
+     */
+    public static void install(List<Statement> statements, List<Loop> loops, Jasic jasic) {
+        for (Loop loop : loops) {
+            statements.set(loop.getHead(), new ParallelLoopStatement(statements.get(loop.getHead()), loop, jasic));
+        }
+    }
+
+    /**
+     * Checks whether one loop can run in parallel.
+     *
+     * @param reasons Filled in with why not.
+     * @return The loop, or null if it can't.
+     */
+    private static Loop check(List<Statement> statements, Map<String, Integer> labels, int head, int tail,
+                              List<String> reasons) {
+        if (!(statements.get(tail) instanceof IfThenStatement)) {
+            reasons.add("it ends with a goto, so it only stops by jumping out of the middle");
+            return null;
+        }
+        IfThenStatement back = (IfThenStatement) statements.get(tail);
+        int update = tail - 1;
+        Set<String> conditionReads = new HashSet<>();
+        TypeInference.collectVariables(back.getCondition(), conditionReads);
+        if (update <= head || !(statements.get(update) instanceof AssignStatement)
+                || !conditionReads.contains(((AssignStatement) statements.get(update)).getName())) {
+            reasons.add("it doesn't update a counter right before '" + back.decodedString() + "'");
+            return null;
+        }
+        AssignStatement step = (AssignStatement) statements.get(update);
+        String counter = step.getName();
+
+        // What the body does.
+        Set<String> written = new LinkedHashSet<>();
+        for (int i = head; i < update; i++) {
+            Statement statement = statements.get(i);
+            String quoted = "'" + statement.decodedString() + "'";
+            if (statement instanceof InputStatement) {
+                reasons.add(quoted + " reads input");
+                return null;
+            }
+            if (statement instanceof ArrayAssignStatement) {
+                reasons.add(quoted + " writes to the array "
+                        + ((ArrayAssignStatement) statement).getElement().getRootName()
+                        + ", which every iteration shares");
+                return null;
+            }
+            if (statement instanceof SharedAssignStatement || statement instanceof SharedUpdateStatement) {
+                reasons.add(quoted + " writes to a shared variable, which the other iterations can see");
+                return null;
+            }
+            for (Expression expression : TypeInference.readExpressions(statement)) {
+                String impure = impureCall(expression);
+                if (impure != null) {
+                    reasons.add(quoted + " calls " + impure + "(), which isn't pure");
+                    return null;
+                }
+            }
+            for (int successor : ControlFlow.successors(statements, labels, i)) {
+                if (successor < head || successor > update) {
+                    reasons.add(quoted + " jumps out of the loop");
+                    return null;
+                }
+                if (successor == head) {
+                    reasons.add(quoted + " starts the next iteration without updating " + counter);
+                    return null;
+                }
+            }
+            String name = TypeInference.writtenVariable(statement);
+            if (name != null) {
+                written.add(name);
+            }
+        }
+        for (int i = 0; i < statements.size(); i++) {
+            if (i >= head && i <= tail) {
+                continue;
+            }
+            for (int successor : ControlFlow.successors(statements, labels, i)) {
+                if (successor > head && successor <= tail) {
+                    reasons.add("'" + statements.get(i).decodedString() + "' jumps into the middle of it");
+                    return null;
+                }
+            }
+        }
+        if (written.contains(counter)) {
+            reasons.add("the body changes the counter " + counter);
+            return null;
+        }
+
+        // The counting only depends on the counter.
+        for (Statement counting : new Statement[]{step, back}) {
+            Expression expression = counting == step ? step.getValue() : back.getCondition();
+            String impure = impureCall(expression);
+            if (impure != null) {
+                reasons.add("'" + counting.decodedString() + "' calls " + impure + "(), which isn't pure");
+                return null;
+            }
+            Set<String> reads = new TreeSet<>();
+            TypeInference.collectVariables(expression, reads);
+            reads.retainAll(written);
+            if (!reads.isEmpty()) {
+                reasons.add("'" + counting.decodedString() + "' depends on " + reads.iterator().next()
+                        + ", which the body changes");
+                return null;
+            }
+        }
+
+        // Work out which variables are certainly written at each statement
+        // of an iteration, starting with just the counter.
+        Map<Integer, Set<String>> assigned = new HashMap<>();
+        Set<String> start = new HashSet<>();
+        start.add(counter);
+        assigned.put(head, start);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = head; i < update; i++) {
+                Set<String> in = assigned.get(i);
+                if (in == null) {
+                    continue;
+                }
+                Set<String> out = new HashSet<>(in);
+                String name = TypeInference.writtenVariable(statements.get(i));
+                if (name != null) {
+                    out.add(name);
+                }
+                for (int successor : ControlFlow.successors(statements, labels, i)) {
+                    Set<String> old = assigned.get(successor);
+                    if (old == null) {
+                        assigned.put(successor, new HashSet<>(out));
+                        changed = true;
+                    } else if (old.retainAll(out)) {
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        for (int i = head; i < update; i++) {
+            if (assigned.get(i) == null) {
+                continue; // Unreachable.
+            }
+            Set<String> reads = new TreeSet<>();
+            TypeInference.readExpressions(statements.get(i)).forEach(e -> TypeInference.collectVariables(e, reads));
+            if (statements.get(i) instanceof NextStatement) {
+                reads.add(((NextStatement) statements.get(i)).getName());
+            }
+            for (String name : reads) {
+                if (written.contains(name) && !assigned.get(i).contains(name)) {
+                    reasons.add(name + " is carried from one iteration to the next: '"
+                            + statements.get(i).decodedString() + "' reads it before it's written");
+                    return null;
+                }
+            }
+        }
+        Set<String> end = assigned.get(update);
+        if (end == null) {
+            reasons.add("an iteration never gets to '" + step.decodedString() + "'");
+            return null;
+        }
+        for (String name : written) {
+            if (!end.contains(name)) {
+                reasons.add(name + " isn't written in every iteration, so the iteration that wrote it last"
+                        + " decides what it holds after the loop");
+                return null;
+            }
+        }
+
+        return new Loop(labelOf(head, labels), head, tail, counter, step.getValue(), back.getCondition(), written);
+    }
+
+    /**
+     * @return The label a "goto" or "if then" jumps to, or null for any other
+     * statement.
+     */
+    private static String jumpLabel(Statement statement) {
+        if (statement instanceof GotoStatement) {
+            return ((GotoStatement) statement).getLabel();
+        } else if (statement instanceof IfThenStatement) {
+            return ((IfThenStatement) statement).getLabel();
+        }
+        return null;
+    }
+
+    private static String labelOf(int index, Map<String, Integer> labels) {
+        return labels.entrySet().stream()
+                .filter(entry -> entry.getValue() == index)
+                .map(Map.Entry::getKey)
+                .min(String::compareTo)
+                .orElse("at " + index);
+    }
+
+    /**
+     * Finds a call in an expression (or in the body of a function it calls)
+     * to an intrinsic that isn't pure.
+     *
+     * @return The name of the intrinsic, or null if there is none.
+     */
+    private static String impureCall(Expression expression) {
+        if (expression instanceof OperatorExpression) {
+            String left = impureCall(((OperatorExpression) expression).getLeft());
+            return left != null ? left : impureCall(((OperatorExpression) expression).getRight());
+        } else if (expression instanceof ArrayElementExpression) {
+            String array = impureCall(((ArrayElementExpression) expression).getArray());
+            return array != null ? array : impureCall(((ArrayElementExpression) expression).getIndex());
+        } else if (expression instanceof CallExpression) {
+            CallExpression call = (CallExpression) expression;
+            if (!call.getIntrinsic().isPure()) {
+                return call.getIntrinsic().getName();
+            }
+            return call.getArguments().stream().map(AutoParallelizer::impureCall)
+                    .filter(name -> name != null).findFirst().orElse(null);
+        } else if (expression instanceof UserCallExpression) {
+            UserCallExpression call = (UserCallExpression) expression;
+            String body = impureCall(call.getFunction().getBody());
+            return body != null ? body : call.getArguments().stream().map(AutoParallelizer::impureCall)
+                    .filter(name -> name != null).findFirst().orElse(null);
+        }
+        return null;
+    }
+
+    /**
+     * A loop that runs in parallel.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Loop {
+        private final String label;
+        /**
+         * The first statement of the loop.
+         */
+        private final int head;
+        /**
+         * The "if then" that jumps back to the head. The counter is updated
+         * right before it.
+         */
+        private final int tail;
+        private final String counter;
+        /**
+         * The value the counter is updated to.
+         */
+        private final Expression step;
+        private final Expression condition;
+        /**
+         * The variables an iteration writes, other than the counter.
+         */
+        private final Set<String> written;
+
+        /**
+         * @return The statement that updates the counter.
+         */
+        public int getUpdate() {
+            return tail - 1;
+        }
+    }
+}
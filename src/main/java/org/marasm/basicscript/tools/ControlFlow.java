@@ -0,0 +1,102 @@
+package org.marasm.basicscript.tools;
+
+import org.marasm.basicscript.statements.ForStatement;
+import org.marasm.basicscript.statements.GotoStatement;
+import org.marasm.basicscript.statements.IfEqualStatement;
+import org.marasm.basicscript.statements.IfLessThanConstantStatement;
+import org.marasm.basicscript.statements.IfThenStatement;
+import org.marasm.basicscript.statements.NextStatement;
+import org.marasm.basicscript.statements.NumericForStatement;
+import org.marasm.basicscript.statements.NumericNextStatement;
+import org.marasm.basicscript.statements.ProfiledStatement;
+import org.marasm.basicscript.statements.RangeSwitchStatement;
+import org.marasm.basicscript.statements.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers for analysis passes that need to follow the jumps of a program.
+ * Statement indexes equal to the size of the program mean "the program
+ * ends here".
+ */
+public class ControlFlow {
+
+    /**
+     * Gets the statements that can run right after the given one.
+     *
+     * @param statements The program.
+     * @param labels     The labels of the program.
+     * @param index      The index of the statement.
+     * @return The indexes of every possible next statement.
+     */
+    public static List<Integer> successors(List<Statement> statements, Map<String, Integer> labels, int index) {
+        Statement statement = statements.get(index);
+        List<Integer> successors = new ArrayList<>();
+        if (statement instanceof GotoStatement) {
+            Integer target = labels.get(((GotoStatement) statement).getLabel());
+            successors.add(target == null ? index + 1 : target);
+        } else if (statement instanceof IfThenStatement) {
+            successors.add(index + 1);
+            Integer target = labels.get(((IfThenStatement) statement).getLabel());
+            if (target != null) {
+                successors.add(target);
+            }
+        } else if (statement instanceof IfLessThanConstantStatement) {
+            successors.add(index + 1);
+            successors.add(((IfLessThanConstantStatement) statement).getTarget());
+        } else if (statement instanceof IfEqualStatement) {
+            successors.add(index + 1);
+            successors.add(((IfEqualStatement) statement).getTarget());
+        } else if (statement instanceof RangeSwitchStatement) {
+            RangeSwitchStatement rangeSwitch = (RangeSwitchStatement) statement;
+            successors.add(rangeSwitch.getFallthrough());
+            rangeSwitch.getCases().forEach(c -> successors.add(c.getTarget()));
+        } else if (statement instanceof ForStatement || statement instanceof NumericForStatement) {
+            successors.add(index + 1);
+            successors.add(loopOf(statement).getExit());
+        } else if (statement instanceof NextStatement || statement instanceof NumericNextStatement) {
+            successors.add(index + 1);
+            successors.add(loopOf(statement).getBody());
+        } else {
+            successors.add(index + 1);
+        }
+        return successors;
+    }
+
+    /**
+     * Gets the loop a "for" or "next" statement belongs to.
+     *
+     * @return The loop, or null if the statement isn't part of one.
+     */
+    public static ForStatement.Loop loopOf(Statement statement) {
+        if (statement instanceof ForStatement) {
+            return ((ForStatement) statement).getLoop();
+        } else if (statement instanceof NumericForStatement) {
+            return ((NumericForStatement) statement).getLoop();
+        } else if (statement instanceof NextStatement) {
+            return ((NextStatement) statement).getLoop();
+        } else if (statement instanceof NumericNextStatement) {
+            return ((NumericNextStatement) statement).getLoop();
+        } else if (statement instanceof ProfiledStatement) {
+            return loopOf(((ProfiledStatement) statement).getStatement());
+        }
+        return null;
+    }
+
+    /**
+     * Points every loop at the current positions of its "for" and "next"
+     * statements. Needs to be called after statements are moved around.
+     */
+    public static void linkLoops(List<Statement> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            Statement statement = statements.get(i);
+            if (statement instanceof ForStatement || statement instanceof NumericForStatement) {
+                loopOf(statement).setHead(i);
+            } else if (statement instanceof NextStatement || statement instanceof NumericNextStatement) {
+                loopOf(statement).setTail(i);
+            }
+        }
+    }
+}
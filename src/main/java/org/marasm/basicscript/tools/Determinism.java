@@ -0,0 +1,74 @@
+package org.marasm.basicscript.tools;
+
+import org.marasm.basicscript.expressions.ArrayElementExpression;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.expressions.SharedVariableExpression;
+import org.marasm.basicscript.functions.CallExpression;
+import org.marasm.basicscript.functions.Intrinsics;
+import org.marasm.basicscript.functions.UserCallExpression;
+import org.marasm.basicscript.functions.UserFunction;
+import org.marasm.basicscript.statements.InputStatement;
+import org.marasm.basicscript.statements.SharedAssignStatement;
+import org.marasm.basicscript.statements.SharedUpdateStatement;
+import org.marasm.basicscript.statements.Statement;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out whether a program depends on nothing but its source, so that
+ * every run of it prints the same thing (see
+ * {@link org.marasm.basicscript.cache.OutputCache}). A program doesn't if
+ * it has an "input" statement, calls rnd() or timer(), directly or through
+ * a user-defined function, or uses shared variables, which other
+ * interpreters can change while it runs.
+ * <p>
+ * This looks at the program as it was parsed, before it's compiled.
+ */
+public class Determinism {
+
+    /**
+     * @return True if every run of the program prints the same thing.
+     */
+    public static boolean isDeterministic(List<Statement> statements) {
+        Set<UserFunction> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Statement statement : statements) {
+            if (statement instanceof InputStatement
+                    || statement instanceof SharedAssignStatement
+                    || statement instanceof SharedUpdateStatement) {
+                return false;
+            }
+            for (Expression expression : TypeInference.readExpressions(statement)) {
+                if (!isDeterministic(expression, seen)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDeterministic(Expression expression, Set<UserFunction> seen) {
+        if (expression instanceof SharedVariableExpression) {
+            return false;
+        } else if (expression instanceof ArrayElementExpression) {
+            return isDeterministic(((ArrayElementExpression) expression).getArray(), seen)
+                    && isDeterministic(((ArrayElementExpression) expression).getIndex(), seen);
+        } else if (expression instanceof OperatorExpression) {
+            return isDeterministic(((OperatorExpression) expression).getLeft(), seen)
+                    && isDeterministic(((OperatorExpression) expression).getRight(), seen);
+        } else if (expression instanceof CallExpression) {
+            CallExpression call = (CallExpression) expression;
+            return Intrinsics.isDeterministic(call.getIntrinsic())
+                    && call.getArguments().stream().allMatch(argument -> isDeterministic(argument, seen));
+        } else if (expression instanceof UserCallExpression) {
+            UserCallExpression call = (UserCallExpression) expression;
+            // A function that calls itself is checked once.
+            return call.getArguments().stream().allMatch(argument -> isDeterministic(argument, seen))
+                    && (!seen.add(call.getFunction()) || isDeterministic(call.getFunction().getBody(), seen));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,241 @@
+package org.marasm.basicscript.tools;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.expressions.VariableExpression;
+import org.marasm.basicscript.statements.GotoStatement;
+import org.marasm.basicscript.statements.IfThenStatement;
+import org.marasm.basicscript.statements.RangeSwitchStatement;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.values.NumberValue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Rewrites the control flow of a parsed program so that it takes fewer
+ * jumps. It runs three passes, in order:
+ * <p>
+ * 1. Jump threading. A "goto" or "if then" whose label points at another
+ * "goto" is retargeted to the end of the chain.
+ * 2. Dead jump removal. A "goto" that lands on the statement right after
+ * it (or on a label that doesn't exist) does nothing, so it is dropped and
+ * the labels after it (and any "for" and "next" statements) are moved up.
+ * 3. Range switches. A run of "if" statements comparing the same variable
+ * against constants is replaced by a single {@link RangeSwitchStatement}.
+ * <p>
+ * Only the first statement of a run is replaced, so labels that point into
+ * the middle of a run still land on the original "if" statements.
+ */
+public class FlowOptimizer {
+
+    public static List<Statement> optimize(List<Statement> statements, Map<String, Integer> labels, Jasic jasic) {
+        List<Statement> result = threadJumps(statements, labels, jasic);
+        result = removeDeadJumps(result, labels);
+        ControlFlow.linkLoops(result);
+        return buildSwitches(result, labels, jasic);
+    }
+
+    private static List<Statement> threadJumps(List<Statement> statements, Map<String, Integer> labels, Jasic jasic) {
+        List<Statement> result = new ArrayList<>(statements.size());
+        for (Statement statement : statements) {
+            if (statement instanceof GotoStatement) {
+                String label = ((GotoStatement) statement).getLabel();
+                String threaded = threadLabel(label, statements, labels);
+                result.add(threaded.equals(label) ? statement : new GotoStatement(threaded, jasic));
+            } else if (statement instanceof IfThenStatement) {
+                IfThenStatement ifThen = (IfThenStatement) statement;
+                String threaded = threadLabel(ifThen.getLabel(), statements, labels);
+                result.add(threaded.equals(ifThen.getLabel()) ? statement
+                        : new IfThenStatement(ifThen.getCondition(), threaded, jasic));
+            } else {
+                result.add(statement);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Follows a label through any "goto" statements it points at.
+     *
+     * @return The last label in the chain.
+     */
+    private static String threadLabel(String label, List<Statement> statements, Map<String, Integer> labels) {
+        Set<String> seen = new HashSet<>();
+        while (seen.add(label) && labels.containsKey(label)) {
+            int index = labels.get(label);
+            if (index >= statements.size() || !(statements.get(index) instanceof GotoStatement)) {
+                break;
+            }
+            String next = ((GotoStatement) statements.get(index)).getLabel();
+            if (!labels.containsKey(next)) {
+                // The goto does nothing, so execution falls through it.
+                break;
+            }
+            label = next;
+        }
+        return label;
+    }
+
+    private static List<Statement> removeDeadJumps(List<Statement> statements, Map<String, Integer> labels) {
+        List<Statement> result = statements;
+        boolean changed = true;
+        // Removing one jump can make the one before it dead too.
+        while (changed) {
+            changed = false;
+            List<Statement> kept = new ArrayList<>(result.size());
+            int[] newIndex = new int[result.size() + 1];
+            for (int i = 0; i < result.size(); i++) {
+                newIndex[i] = kept.size();
+                Statement statement = result.get(i);
+                if (statement instanceof GotoStatement) {
+                    Integer target = labels.get(((GotoStatement) statement).getLabel());
+                    if (target == null || target == i + 1) {
+                        changed = true;
+                        continue;
+                    }
+                }
+                kept.add(statement);
+            }
+            newIndex[result.size()] = kept.size();
+            labels.replaceAll((label, index) -> newIndex[index]);
+            result = kept;
+        }
+        return result;
+    }
+
+    private static List<Statement> buildSwitches(List<Statement> statements, Map<String, Integer> labels, Jasic jasic) {
+        List<Statement> result = new ArrayList<>(statements);
+        int i = 0;
+        while (i < statements.size()) {
+            String subject = caseSubject(statements.get(i), labels);
+            int end = i + 1;
+            while (subject != null && end < statements.size() && subject.equals(caseSubject(statements.get(end), labels))) {
+                end++;
+            }
+            if (end - i >= 2) {
+                result.set(i, buildSwitch(statements.subList(i, end), end, labels, jasic));
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a statement has the shape "if [variable] [compare] [number]
+     * then [label]" (or with the operands swapped). An "if" with an unknown
+     * label never jumps, so it can't be part of a switch.
+     *
+     * @return The name of the variable, or null if the statement doesn't
+     * match.
+     */
+    private static String caseSubject(Statement statement, Map<String, Integer> labels) {
+        if (!(statement instanceof IfThenStatement) || !labels.containsKey(((IfThenStatement) statement).getLabel())) {
+            return null;
+        }
+        Expression condition = ((IfThenStatement) statement).getCondition();
+        if (!(condition instanceof OperatorExpression) || flip(((OperatorExpression) condition).getOperator()) == null) {
+            return null;
+        }
+        OperatorExpression compare = (OperatorExpression) condition;
+        if (compare.getLeft() instanceof VariableExpression && compare.getRight() instanceof NumberValue) {
+            return ((VariableExpression) compare.getLeft()).getName();
+        }
+        if (compare.getRight() instanceof VariableExpression && compare.getLeft() instanceof NumberValue) {
+            return ((VariableExpression) compare.getRight()).getName();
+        }
+        return null;
+    }
+
+    private static RangeSwitchStatement buildSwitch(List<Statement> run, int fallthrough,
+                                                    Map<String, Integer> labels, Jasic jasic) {
+        Expression subject = null;
+        List<RangeSwitchStatement.Case> cases = new ArrayList<>();
+        List<String> operators = new ArrayList<>();
+        List<Double> constants = new ArrayList<>();
+        for (Statement statement : run) {
+            IfThenStatement ifThen = (IfThenStatement) statement;
+            OperatorExpression compare = (OperatorExpression) ifThen.getCondition();
+            // Normalize to "[variable] [compare] [number]".
+            if (compare.getLeft() instanceof VariableExpression) {
+                subject = compare.getLeft();
+                operators.add(compare.getOperator());
+                constants.add(compare.getRight().evaluate().toNumber());
+            } else {
+                subject = compare.getRight();
+                operators.add(flip(compare.getOperator()));
+                constants.add(compare.getLeft().evaluate().toNumber());
+            }
+            cases.add(new RangeSwitchStatement.Case(compare, ifThen.getLabel(), labels.get(ifThen.getLabel())));
+        }
+
+        double[] points = new TreeSet<>(constants).stream().mapToDouble(Double::doubleValue).toArray();
+        int[] targets = new int[2 * points.length + 1];
+        for (int region = 0; region < targets.length; region++) {
+            double sample;
+            if (region % 2 == 1) {
+                sample = points[region / 2];
+            } else if (region == 0) {
+                sample = Math.nextDown(points[0]);
+            } else {
+                // If the interval holds no doubles at all this lands on its
+                // upper end, but then the region can never be looked up.
+                sample = Math.nextUp(points[region / 2 - 1]);
+            }
+            targets[region] = fallthrough;
+            for (int c = 0; c < cases.size(); c++) {
+                if (compare(operators.get(c), sample, constants.get(c))) {
+                    targets[region] = cases.get(c).getTarget();
+                    break;
+                }
+            }
+        }
+        return new RangeSwitchStatement(subject, cases, points, targets, fallthrough, jasic);
+    }
+
+    private static boolean compare(String operator, double left, double right) {
+        switch (operator) {
+            case "<":
+                return left < right;
+            case "<=":
+                return left <= right;
+            case ">":
+                return left > right;
+            case ">=":
+                return left >= right;
+            default:
+                return left == right;
+        }
+    }
+
+    /**
+     * Gets the comparison that gives the same result with the operands
+     * swapped.
+     *
+     * @return The swapped operator, or null if the operator isn't a
+     * comparison.
+     */
+    private static String flip(String operator) {
+        switch (operator) {
+            case "<":
+                return ">";
+            case "<=":
+                return ">=";
+            case ">":
+                return "<";
+            case ">=":
+                return "<=";
+            case "=":
+                return "=";
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.marasm.basicscript.tools;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.ArrayElementExpression;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.expressions.VariableExpression;
+import org.marasm.basicscript.functions.CallExpression;
+import org.marasm.basicscript.functions.ParameterExpression;
+import org.marasm.basicscript.functions.UserCallExpression;
+import org.marasm.basicscript.functions.UserFunction;
+import org.marasm.basicscript.values.Value;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Replaces calls to small user-defined functions with a copy of the
+ * function's body, with the arguments put in place of the parameters. The
+ * result goes through the Simplifier, so calls with constant arguments
+ * usually fold away completely.
+ * <p>
+ * A call is only inlined if that can't change what it does: an argument
+ * that isn't a plain variable or constant has to be pure and used exactly
+ * once by the body, so it's still evaluated once.
+ */
+public class Inliner {
+
+    /**
+     * The largest body, counted in expression nodes, that gets inlined.
+     */
+    public static final int MAX_SIZE = 16;
+
+    /**
+     * Builds the expression for a call to a user-defined function.
+     *
+     * @param function  The function.
+     * @param arguments The argument expressions.
+     * @param jasic     The interpreter.
+     * @return The inlined body, or a call to the function if it can't be
+     * inlined.
+     */
+    public static Expression call(UserFunction function, List<Expression> arguments, Jasic jasic) {
+        if (arguments.size() != function.getParameters().size()) {
+            throw new Error("Wrong number of arguments for " + function.getName() + "().");
+        }
+        if (isInlinable(function, arguments)) {
+            return Simplifier.simplify(substitute(function.getBody(), function, arguments, jasic));
+        }
+        return Simplifier.simplify(new UserCallExpression(function, arguments));
+    }
+
+    private static boolean isInlinable(UserFunction function, List<Expression> arguments) {
+        if (size(function.getBody()) > MAX_SIZE) {
+            return false;
+        }
+        int[] uses = new int[arguments.size()];
+        countUses(function.getBody(), function, uses);
+        for (int i = 0; i < uses.length; i++) {
+            Expression argument = arguments.get(i);
+            boolean trivial = argument instanceof Value || argument instanceof VariableExpression
+                    || argument instanceof ParameterExpression;
+            if (!trivial && (uses[i] != 1 || !isPure(argument))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if an expression only depends on constants and parameters, and
+     * has no side effects.
+     */
+    public static boolean isPure(Expression expression) {
+        if (expression instanceof Value || expression instanceof ParameterExpression) {
+            return true;
+        } else if (expression instanceof OperatorExpression) {
+            return isPure(((OperatorExpression) expression).getLeft())
+                    && isPure(((OperatorExpression) expression).getRight());
+        } else if (expression instanceof CallExpression) {
+            CallExpression call = (CallExpression) expression;
+            return call.getIntrinsic().isPure() && call.getArguments().stream().allMatch(Inliner::isPure);
+        } else if (expression instanceof UserCallExpression) {
+            UserCallExpression call = (UserCallExpression) expression;
+            return call.getFunction().isPure() && call.getArguments().stream().allMatch(Inliner::isPure);
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of nodes in an expression tree.
+     */
+    public static int size(Expression expression) {
+        if (expression instanceof OperatorExpression) {
+            return 1 + size(((OperatorExpression) expression).getLeft())
+                    + size(((OperatorExpression) expression).getRight());
+        } else if (expression instanceof ArrayElementExpression) {
+            return 1 + size(((ArrayElementExpression) expression).getArray())
+                    + size(((ArrayElementExpression) expression).getIndex());
+        } else if (expression instanceof CallExpression) {
+            return 1 + ((CallExpression) expression).getArguments().stream().mapToInt(Inliner::size).sum();
+        } else if (expression instanceof UserCallExpression) {
+            return 1 + ((UserCallExpression) expression).getArguments().stream().mapToInt(Inliner::size).sum();
+        }
+        return 1;
+    }
+
+    private static void countUses(Expression expression, UserFunction function, int[] uses) {
+        if (expression instanceof ParameterExpression) {
+            ParameterExpression parameter = (ParameterExpression) expression;
+            if (parameter.getArguments() == function.getArguments()) {
+                uses[parameter.getIndex()]++;
+            }
+        } else if (expression instanceof OperatorExpression) {
+            countUses(((OperatorExpression) expression).getLeft(), function, uses);
+            countUses(((OperatorExpression) expression).getRight(), function, uses);
+        } else if (expression instanceof ArrayElementExpression) {
+            countUses(((ArrayElementExpression) expression).getArray(), function, uses);
+            countUses(((ArrayElementExpression) expression).getIndex(), function, uses);
+        } else if (expression instanceof CallExpression) {
+            ((CallExpression) expression).getArguments().forEach(argument -> countUses(argument, function, uses));
+        } else if (expression instanceof UserCallExpression) {
+            ((UserCallExpression) expression).getArguments().forEach(argument -> countUses(argument, function, uses));
+        }
+    }
+
+    private static Expression substitute(Expression expression, UserFunction function,
+                                         List<Expression> arguments, Jasic jasic) {
+        if (expression instanceof ParameterExpression) {
+            ParameterExpression parameter = (ParameterExpression) expression;
+            if (parameter.getArguments() == function.getArguments()) {
+                return arguments.get(parameter.getIndex());
+            }
+        } else if (expression instanceof OperatorExpression) {
+            OperatorExpression operator = (OperatorExpression) expression;
+            return OperatorExpression.create(jasic,
+                    substitute(operator.getLeft(), function, arguments, jasic),
+                    operator.getOperator(),
+                    substitute(operator.getRight(), function, arguments, jasic));
+        } else if (expression instanceof ArrayElementExpression) {
+            ArrayElementExpression element = (ArrayElementExpression) expression;
+            return new ArrayElementExpression(substitute(element.getArray(), function, arguments, jasic),
+                    substitute(element.getIndex(), function, arguments, jasic), jasic);
+        } else if (expression instanceof CallExpression) {
+            CallExpression call = (CallExpression) expression;
+            return call.getIntrinsic().bind(call.getArguments().stream()
+                    .map(argument -> substitute(argument, function, arguments, jasic))
+                    .collect(Collectors.toList()));
+        } else if (expression instanceof UserCallExpression) {
+            UserCallExpression call = (UserCallExpression) expression;
+            return new UserCallExpression(call.getFunction(), call.getArguments().stream()
+                    .map(argument -> substitute(argument, function, arguments, jasic))
+                    .collect(Collectors.toList()));
+        }
+        return expression;
+    }
+}
@@ -0,0 +1,211 @@
+package org.marasm.basicscript.tools;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.ArrayElementExpression;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.NumericOperatorExpression;
+import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.expressions.SlotExpression;
+import org.marasm.basicscript.expressions.VariableExpression;
+import org.marasm.basicscript.functions.CallExpression;
+import org.marasm.basicscript.functions.UserCallExpression;
+import org.marasm.basicscript.functions.UserFunction;
+import org.marasm.basicscript.statements.ArrayAssignStatement;
+import org.marasm.basicscript.statements.AssignStatement;
+import org.marasm.basicscript.statements.CallStatement;
+import org.marasm.basicscript.statements.ForStatement;
+import org.marasm.basicscript.statements.IfThenStatement;
+import org.marasm.basicscript.statements.InputStatement;
+import org.marasm.basicscript.statements.NextStatement;
+import org.marasm.basicscript.statements.NumericAssignStatement;
+import org.marasm.basicscript.statements.NumericForStatement;
+import org.marasm.basicscript.statements.NumericNextStatement;
+import org.marasm.basicscript.statements.ParallelForStatement;
+import org.marasm.basicscript.statements.PrintStatement;
+import org.marasm.basicscript.statements.RangeSwitchStatement;
+import org.marasm.basicscript.statements.SharedAssignStatement;
+import org.marasm.basicscript.statements.SharedUpdateStatement;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.tools.TypeInference.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Uses {@link TypeInference} to find every variable that only ever holds
+ * numbers, and compiles its reads and writes to go straight to its slot in
+ * the variable store. Reads and writes of those variables, and any operators
+ * whose operands are all numbers, are compiled to work on primitive doubles
+ * with no boxing and no type checks.
+ * <p>
+ * Statements keep their position, so labels and jump targets are unchanged.
+ */
+public class NumericCompiler {
+
+    private final TypeInference types;
+    private final Map<String, Integer> slots;
+    private final Jasic jasic;
+    private final Map<UserFunction, UserFunction> functions = new IdentityHashMap<>();
+
+    private NumericCompiler(TypeInference types, Map<String, Integer> slots, Jasic jasic) {
+        this.types = types;
+        this.slots = slots;
+        this.jasic = jasic;
+    }
+
+    /**
+     * Compiles a program.
+     *
+     * @param statements The program.
+     * @param labels     The labels of the program.
+     * @param jasic      The interpreter. Every numeric variable is given a
+     *                   slot in its variable store.
+     * @return The compiled program.
+     */
+    public static List<Statement> compile(List<Statement> statements, Map<String, Integer> labels, Jasic jasic) {
+        TypeInference types = TypeInference.infer(statements, labels, jasic.getVariables());
+        Map<String, Integer> slots = new HashMap<>();
+        types.getTypes().entrySet().stream()
+                .filter(entry -> entry.getValue() == Type.NUMBER)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .forEach(name -> slots.put(name, jasic.getStore().slot(name)));
+
+        NumericCompiler compiler = new NumericCompiler(types, slots, jasic);
+        List<Statement> result = new ArrayList<>(statements.size());
+        for (Statement statement : statements) {
+            result.add(compiler.compile(statement));
+        }
+        return result;
+    }
+
+    private Statement compile(Statement statement) {
+        if (statement instanceof AssignStatement) {
+            AssignStatement assign = (AssignStatement) statement;
+            Expression value = compile(assign.getValue());
+            if (slots.containsKey(assign.getName())) {
+                return new NumericAssignStatement(assign.getName(), slots.get(assign.getName()), value, jasic);
+            }
+            return new AssignStatement(assign.getName(), value, jasic);
+        } else if (statement instanceof ArrayAssignStatement) {
+            ArrayAssignStatement assign = (ArrayAssignStatement) statement;
+            return new ArrayAssignStatement(compile(assign.getElement()), compile(assign.getValue()));
+        } else if (statement instanceof InputStatement && ((InputStatement) statement).getElement() != null) {
+            return new InputStatement(compile(((InputStatement) statement).getElement()), jasic);
+        } else if (statement instanceof PrintStatement) {
+            return new PrintStatement(compile(((PrintStatement) statement).getExpression()), jasic);
+        } else if (statement instanceof CallStatement) {
+            return new CallStatement(compile(((CallStatement) statement).getCall()));
+        } else if (statement instanceof SharedAssignStatement) {
+            SharedAssignStatement assign = (SharedAssignStatement) statement;
+            return new SharedAssignStatement(assign.getName(), compile(assign.getValue()), jasic);
+        } else if (statement instanceof SharedUpdateStatement) {
+            SharedUpdateStatement update = (SharedUpdateStatement) statement;
+            return new SharedUpdateStatement(update.getName(), update.getOperator(),
+                    compile(update.getOperand()), jasic);
+        } else if (statement instanceof ParallelForStatement) {
+            // Only starts the loop, so there's nothing to gain from a
+            // numeric form.
+            ParallelForStatement loop = (ParallelForStatement) statement;
+            ParallelForStatement compiled = new ParallelForStatement(loop.getName(), compile(loop.getStart()),
+                    compile(loop.getEnd()), loop.getStep() == null ? null : compile(loop.getStep()),
+                    loop.getLoop(), loop.getReductions(), jasic);
+            compiled.setArrays(loop.getArrays());
+            return compiled;
+        } else if (statement instanceof ForStatement) {
+            ForStatement loop = (ForStatement) statement;
+            Expression step = loop.getStep() == null ? null : compile(loop.getStep());
+            if (slots.containsKey(loop.getName())) {
+                return new NumericForStatement(loop.getName(), slots.get(loop.getName()),
+                        compile(loop.getStart()), compile(loop.getEnd()), step, loop.getLoop(), jasic);
+            }
+            return new ForStatement(loop.getName(), compile(loop.getStart()), compile(loop.getEnd()), step,
+                    loop.getLoop(), jasic);
+        } else if (statement instanceof NextStatement) {
+            NextStatement next = (NextStatement) statement;
+            if (slots.containsKey(next.getName())) {
+                return new NumericNextStatement(next.getName(), slots.get(next.getName()), next.getLoop(), jasic);
+            }
+            return statement;
+        } else if (statement instanceof IfThenStatement) {
+            IfThenStatement ifThen = (IfThenStatement) statement;
+            return new IfThenStatement(compile(ifThen.getCondition()), ifThen.getLabel(), jasic);
+        } else if (statement instanceof RangeSwitchStatement) {
+            RangeSwitchStatement rangeSwitch = (RangeSwitchStatement) statement;
+            return new RangeSwitchStatement(compile(rangeSwitch.getSubject()), rangeSwitch.getCases(),
+                    rangeSwitch.getPoints(), rangeSwitch.getTargets(), rangeSwitch.getFallthrough(), jasic);
+        }
+        return statement;
+    }
+
+    private Expression compile(Expression expression) {
+        if (expression instanceof ArrayElementExpression) {
+            return compile((ArrayElementExpression) expression);
+        } else if (expression instanceof VariableExpression) {
+            String name = ((VariableExpression) expression).getName();
+            if (slots.containsKey(name)) {
+                return new SlotExpression(name, slots.get(name), jasic);
+            }
+        } else if (expression instanceof OperatorExpression) {
+            OperatorExpression operator = (OperatorExpression) expression;
+            Expression left = compile(operator.getLeft());
+            Expression right = compile(operator.getRight());
+            if (isNumeric(operator)) {
+                return new NumericOperatorExpression(operator, left, right);
+            }
+            return OperatorExpression.create(jasic, left, operator.getOperator(), right);
+        } else if (expression instanceof CallExpression) {
+            CallExpression call = (CallExpression) expression;
+            return call.getIntrinsic().bind(call.getArguments().stream()
+                    .map(this::compile)
+                    .collect(Collectors.toList()));
+        } else if (expression instanceof UserCallExpression) {
+            UserCallExpression call = (UserCallExpression) expression;
+            return new UserCallExpression(compile(call.getFunction()), call.getArguments().stream()
+                    .map(this::compile)
+                    .collect(Collectors.toList()));
+        }
+        return expression;
+    }
+
+    /**
+     * Compiles the body of a user-defined function. Every call to it shares
+     * the one compiled copy, and so the copy's result cache.
+     */
+    private UserFunction compile(UserFunction function) {
+        return functions.computeIfAbsent(function, f -> new UserFunction(f.getName(), f.getParameters(),
+                compile(f.getBody()), f.getArguments(), f.isPure(), f.getCacheSize()));
+    }
+
+    /**
+     * Compiles the indexes of an array element. The array itself always
+     * lives in the variables map.
+     */
+    private ArrayElementExpression compile(ArrayElementExpression element) {
+        Expression array = element.getArray() instanceof ArrayElementExpression
+                ? compile((ArrayElementExpression) element.getArray()) : element.getArray();
+        return new ArrayElementExpression(array, compile(element.getIndex()), jasic);
+    }
+
+    /**
+     * Checks if the primitive form of an operator gives the same result as
+     * the boxed one. Arithmetic other than "+" always converts its operands
+     * to numbers, but "+" and the comparisons behave differently for strings.
+     */
+    private boolean isNumeric(OperatorExpression operator) {
+        switch (operator.getOperator()) {
+            case "-":
+            case "*":
+            case "/":
+            case "%":
+                return true;
+            default:
+                return types.typeOf(operator.getLeft()) == Type.NUMBER
+                        && types.typeOf(operator.getRight()) == Type.NUMBER;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.marasm.basicscript.tools;
+
+import org.marasm.basicscript.expressions.ArrayElementExpression;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.expressions.VariableExpression;
+import org.marasm.basicscript.functions.ArrayCall;
+import org.marasm.basicscript.functions.CallExpression;
+import org.marasm.basicscript.functions.UserCallExpression;
+import org.marasm.basicscript.functions.UserFunction;
+import org.marasm.basicscript.statements.ArrayAssignStatement;
+import org.marasm.basicscript.statements.AssignStatement;
+import org.marasm.basicscript.statements.ForStatement;
+import org.marasm.basicscript.statements.InputStatement;
+import org.marasm.basicscript.statements.ParallelForStatement;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the arrays the body of each "parallel for" loop writes to, so the
+ * loop can get them ready before its threads start (see
+ * {@link ParallelForStatement}).
+ * <p>
+ * Every thread runs on its own copy of the variables, and only arrays are
+ * shared between the copies, so an array the body writes to has to exist
+ * before the loop. One the loop would create would be created separately
+ * in every thread's copy, and all of its elements lost. So it's an error
+ * for the body to write to an array that nothing outside the loop creates
+ * (by writing to it, or assigning it or filling it), and that the host
+ * didn't set before the script was compiled. Writes in the body of another
+ * parallel loop don't count either.
+ * <p>
+ * This looks at the program as it was parsed, before it's compiled.
+ */
+public class ParallelArrays {
+
+    /**
+     * Records on every parallel loop of a program which arrays its body
+     * writes to.
+     *
+     * @param statements The program.
+     * @param variables  The variables the host set before compiling it.
+     */
+    public static void analyze(List<Statement> statements, Map<String, Value> variables) {
+        // Writes in the body of any parallel loop don't count as creating an
+        // array.
+        boolean[] parallel = new boolean[statements.size()];
+        for (Statement statement : statements) {
+            if (statement instanceof ParallelForStatement) {
+                ForStatement.Loop loop = ((ParallelForStatement) statement).getLoop();
+                Arrays.fill(parallel, loop.getBody(), loop.getTail(), true);
+            }
+        }
+
+        for (int head = 0; head < statements.size(); head++) {
+            if (!(statements.get(head) instanceof ParallelForStatement)) {
+                continue;
+            }
+            ParallelForStatement loop = (ParallelForStatement) statements.get(head);
+            int body = loop.getLoop().getBody();
+            int tail = loop.getLoop().getTail();
+            Set<String> written = new LinkedHashSet<>();
+            Set<String> created = new LinkedHashSet<>();
+            for (int i = 0; i < statements.size(); i++) {
+                if (i >= body && i < tail) {
+                    collectWrites(statements.get(i), written);
+                } else if (!parallel[i]) {
+                    collectWrites(statements.get(i), created);
+                    if (statements.get(i) instanceof AssignStatement) {
+                        created.add(((AssignStatement) statements.get(i)).getName());
+                    }
+                }
+            }
+            for (String name : written) {
+                if (!created.contains(name) && !(variables.get(name) instanceof ArrayValue)) {
+                    throw new Error("The parallel loop over " + loop.getName() + " writes to the array " + name
+                            + ", which only the loop creates. Every thread would create its own copy, and"
+                            + " lose it. Create it before the loop, and fill() it to its full size.");
+                }
+            }
+            loop.setArrays(new ArrayList<>(written));
+        }
+    }
+
+    /**
+     * Adds the names of the arrays a statement writes to: the ones it
+     * assigns an element of, and the ones it passes to fill() or copy().
+     */
+    static void collectWrites(Statement statement, Set<String> names) {
+        if (statement instanceof ArrayAssignStatement) {
+            names.add(((ArrayAssignStatement) statement).getElement().getRootName());
+        } else if (statement instanceof InputStatement && ((InputStatement) statement).getElement() != null) {
+            names.add(((InputStatement) statement).getName());
+        }
+        Set<UserFunction> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Expression expression : TypeInference.readExpressions(statement)) {
+            collectWrites(expression, names, seen);
+        }
+    }
+
+    private static void collectWrites(Expression expression, Set<String> names, Set<UserFunction> seen) {
+        if (expression instanceof ArrayElementExpression) {
+            collectWrites(((ArrayElementExpression) expression).getArray(), names, seen);
+            collectWrites(((ArrayElementExpression) expression).getIndex(), names, seen);
+        } else if (expression instanceof OperatorExpression) {
+            collectWrites(((OperatorExpression) expression).getLeft(), names, seen);
+            collectWrites(((OperatorExpression) expression).getRight(), names, seen);
+        } else if (expression instanceof CallExpression) {
+            CallExpression call = (CallExpression) expression;
+            List<Expression> arguments = call.getArguments();
+            if (call instanceof ArrayCall) {
+                addRoot(arguments.get(((ArrayCall) call).getDestination()), names);
+            }
+            arguments.forEach(argument -> collectWrites(argument, names, seen));
+        } else if (expression instanceof UserCallExpression) {
+            UserCallExpression call = (UserCallExpression) expression;
+            call.getArguments().forEach(argument -> collectWrites(argument, names, seen));
+            if (seen.add(call.getFunction())) {
+                collectWrites(call.getFunction().getBody(), names, seen);
+            }
+        }
+    }
+
+    private static void addRoot(Expression array, Set<String> names) {
+        if (array instanceof VariableExpression) {
+            names.add(((VariableExpression) array).getName());
+        } else if (array instanceof ArrayElementExpression && ((ArrayElementExpression) array).getRootName() != null) {
+            names.add(((ArrayElementExpression) array).getRootName());
+        }
+    }
+}
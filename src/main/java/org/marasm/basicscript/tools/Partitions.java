@@ -0,0 +1,65 @@
+package org.marasm.basicscript.tools;
+
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.store.SharedVariables;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that a script for {@link org.marasm.basicscript.stream.RecordStream}
+ * can run its records in partitions.
+ * <p>
+ * Every partition runs the records part of the script on its own copy of
+ * the variables, and the finish part runs afterwards in the interpreter
+ * that forked them, which never saw a record. So a variable the records
+ * part writes and the finish part reads would finish with the value it had
+ * before the first record, whatever the records added to it. That's an
+ * error: results have to be added up in shared variables, which every
+ * partition writes to the same copy of.
+ * <p>
+ * Variables the records part only uses from one line to the next are fine,
+ * and so are the ones the stream sets for every line.
+ * <p>
+ * This looks at the program as it was parsed, before it's compiled.
+ */
+public class Partitions {
+
+    /**
+     * Throws an error if the finish part of a script reads a variable the
+     * records part writes to, other than a shared one or one of the
+     * variables the stream sets.
+     *
+     * @param statements The program.
+     * @param start      The index of its first records statement.
+     * @param stop       The index of its first finish statement.
+     * @param perRecord  The variables the stream sets for every record.
+     */
+    public static void check(List<Statement> statements, int start, int stop, Collection<String> perRecord) {
+        Set<String> written = new LinkedHashSet<>();
+        for (int i = start; i < stop; i++) {
+            Statement statement = statements.get(i);
+            String name = TypeInference.writtenVariable(statement);
+            if (name != null) {
+                written.add(name);
+            }
+            ParallelArrays.collectWrites(statement, written);
+        }
+        Set<String> read = new LinkedHashSet<>();
+        for (int i = stop; i < statements.size(); i++) {
+            for (Expression expression : TypeInference.readExpressions(statements.get(i))) {
+                TypeInference.collectVariables(expression, read);
+            }
+        }
+        for (String name : written) {
+            if (read.contains(name) && !SharedVariables.isShared(name) && !perRecord.contains(name)) {
+                throw new Error("Every partition adds up its own copy of " + name + ", and the finish part"
+                        + " only sees the one from before the records. Use " + SharedVariables.PREFIX + name
+                        + " instead, or don't split the file.");
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package org.marasm.basicscript.tools;
 
 import org.marasm.basicscript.expressions.Expression;
 import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.functions.CallExpression;
+import org.marasm.basicscript.functions.UserCallExpression;
 import org.marasm.basicscript.values.Value;
 
 public class Simplifier {
@@ -17,6 +19,18 @@ public class Simplifier {
                 }
                 return res;
             }
+            if (e instanceof CallExpression) {
+                CallExpression call = (CallExpression) e;
+                if (call.getIntrinsic().isPure() && call.getArguments().stream().allMatch(a -> a instanceof Value)) {
+                    return call.evaluate();
+                }
+            }
+            if (e instanceof UserCallExpression) {
+                UserCallExpression call = (UserCallExpression) e;
+                if (call.getFunction().isPure() && call.getArguments().stream().allMatch(a -> a instanceof Value)) {
+                    return call.evaluate();
+                }
+            }
         } catch (Throwable ignored) {
         }
         return e;
@@ -0,0 +1,151 @@
+package org.marasm.basicscript.tools;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.profile.RunProfile;
+import org.marasm.basicscript.statements.ArrayAssignStatement;
+import org.marasm.basicscript.statements.AssignStatement;
+import org.marasm.basicscript.statements.CallStatement;
+import org.marasm.basicscript.statements.IncrementStatement;
+import org.marasm.basicscript.statements.MultiplyAddStatement;
+import org.marasm.basicscript.statements.NumericAssignStatement;
+import org.marasm.basicscript.statements.ParallelForStatement;
+import org.marasm.basicscript.statements.ParallelLoopStatement;
+import org.marasm.basicscript.statements.PrintStatement;
+import org.marasm.basicscript.statements.SharedAssignStatement;
+import org.marasm.basicscript.statements.SharedUpdateStatement;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.statements.SuperblockStatement;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Uses the profile of an earlier run of a script to build a
+ * {@link SuperblockStatement} at the start of every hot region: every jump
+ * target that ran at least {@link #MIN_COUNT} times, and at least 1% as
+ * often as the hottest statement.
+ * <p>
+ * A superblock follows the path the earlier run took most of the time. At
+ * each branch it goes the way the branch went at least {@link #BIAS} of the
+ * time, and it stops at a branch that went both ways more than that, at
+ * its own start and at anything that came before on the path. Unlike
+ * superinstructions, this replaces one statement with another, so the
+ * program keeps its shape.
+ * <p>
+ * Parallel loops, and the statements inside them, are left alone.
+ */
+public class Superblocks {
+
+    public static final long MIN_COUNT = 1000;
+    public static final double BIAS = 0.9;
+    public static final int MAX_LENGTH = 64;
+
+    /**
+     * Builds the superblocks of a compiled program.
+     *
+     * @return The program with the superblocks in, or as it was if the
+     * profile is for a different program.
+     */
+    public static List<Statement> form(List<Statement> statements, Map<String, Integer> labels,
+                                       RunProfile profile, Jasic jasic) {
+        if (profile.size() != statements.size()) {
+            return statements;
+        }
+        boolean[] excluded = new boolean[statements.size()];
+        Set<Integer> heads = new TreeSet<>();
+        long hottest = 0;
+        for (int i = 0; i < statements.size(); i++) {
+            Statement statement = statements.get(i);
+            int head = -1;
+            int tail = -1;
+            if (statement instanceof ParallelLoopStatement) {
+                head = ((ParallelLoopStatement) statement).getLoop().getHead();
+                tail = ((ParallelLoopStatement) statement).getLoop().getTail();
+            } else if (statement instanceof ParallelForStatement) {
+                head = ((ParallelForStatement) statement).getLoop().getHead();
+                tail = ((ParallelForStatement) statement).getLoop().getTail();
+            }
+            for (int j = head; j >= 0 && j <= tail; j++) {
+                excluded[j] = true;
+            }
+            for (int successor : ControlFlow.successors(statements, labels, i)) {
+                if (successor != i + 1) {
+                    heads.add(successor);
+                }
+            }
+            hottest = Math.max(hottest, profile.getCount(i));
+        }
+
+        List<Statement> formed = new ArrayList<>(statements);
+        long threshold = Math.max(MIN_COUNT, hottest / 100);
+        for (int head : heads) {
+            if (head >= statements.size() || excluded[head] || profile.getCount(head) < threshold) {
+                continue;
+            }
+            List<Integer> path = path(statements, labels, profile, excluded, head);
+            if (path.size() < 2) {
+                continue;
+            }
+            Statement[] body = new Statement[path.size()];
+            int[] indexes = new int[path.size()];
+            boolean[] straight = new boolean[path.size()];
+            for (int i = 0; i < path.size(); i++) {
+                indexes[i] = path.get(i);
+                body[i] = statements.get(indexes[i]);
+                straight[i] = isStraight(body[i]);
+            }
+            formed.set(head, new SuperblockStatement(body, indexes, straight, jasic));
+        }
+        return formed;
+    }
+
+    private static List<Integer> path(List<Statement> statements, Map<String, Integer> labels, RunProfile profile,
+                                      boolean[] excluded, int head) {
+        List<Integer> path = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        int index = head;
+        while (index < statements.size() && !excluded[index] && seen.add(index) && path.size() < MAX_LENGTH
+                && !(statements.get(index) instanceof SuperblockStatement)) {
+            path.add(index);
+            List<Integer> successors = new ArrayList<>(new LinkedHashSet<>(
+                    ControlFlow.successors(statements, labels, index)));
+            long count = profile.getCount(index);
+            long taken = profile.getTaken(index);
+            if (successors.size() == 1) {
+                index = successors.get(0);
+            } else if (successors.size() == 2 && count > 0) {
+                int jump = successors.get(0) == index + 1 ? successors.get(1) : successors.get(0);
+                if (taken >= count * BIAS) {
+                    index = jump;
+                } else if (count - taken >= count * BIAS) {
+                    index = index + 1;
+                } else {
+                    break;
+                }
+            } else {
+                break;
+            }
+        }
+        return path;
+    }
+
+    /**
+     * @return True if a statement never changes where the program goes next.
+     */
+    private static boolean isStraight(Statement statement) {
+        return statement instanceof AssignStatement
+                || statement instanceof NumericAssignStatement
+                || statement instanceof IncrementStatement
+                || statement instanceof MultiplyAddStatement
+                || statement instanceof ArrayAssignStatement
+                || statement instanceof SharedAssignStatement
+                || statement instanceof SharedUpdateStatement
+                || statement instanceof PrintStatement
+                || statement instanceof CallStatement;
+    }
+}
@@ -0,0 +1,168 @@
+package org.marasm.basicscript.tools;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.NumericOperatorExpression;
+import org.marasm.basicscript.expressions.SlotExpression;
+import org.marasm.basicscript.statements.IfEqualStatement;
+import org.marasm.basicscript.statements.IfLessThanConstantStatement;
+import org.marasm.basicscript.statements.IfThenStatement;
+import org.marasm.basicscript.statements.IncrementStatement;
+import org.marasm.basicscript.statements.MultiplyAddStatement;
+import org.marasm.basicscript.statements.NumericAssignStatement;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.values.NumberValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the most common statement shapes with fused statements that do
+ * the whole thing in one step, without walking an expression tree:
+ * <p>
+ * v = v + [number]           becomes an {@link IncrementStatement}
+ * if v < [number] then L     becomes an {@link IfLessThanConstantStatement}
+ * if v = w then L            becomes an {@link IfEqualStatement}
+ * v = a * b + c              becomes a {@link MultiplyAddStatement}
+ * <p>
+ * Only numeric variables can be fused, so this has to run after the
+ * {@link NumericCompiler}. Statements keep their position.
+ */
+public class Superinstructions {
+
+    public static final String INCREMENT = "increment";
+    public static final String IF_LESS_THAN_CONSTANT = "if-less-than-constant";
+    public static final String IF_EQUAL = "if-equal";
+    public static final String MULTIPLY_ADD = "multiply-add";
+
+    /**
+     * Fuses a program.
+     *
+     * @param statements The compiled program.
+     * @param labels     The labels of the program.
+     * @param counts     Filled in with the number of statements fused for
+     *                   each pattern.
+     * @param jasic      The interpreter.
+     * @return The fused program.
+     */
+    public static List<Statement> fuse(List<Statement> statements, Map<String, Integer> labels,
+                                       Map<String, Integer> counts, Jasic jasic) {
+        counts.clear();
+        counts.put(INCREMENT, 0);
+        counts.put(IF_LESS_THAN_CONSTANT, 0);
+        counts.put(IF_EQUAL, 0);
+        counts.put(MULTIPLY_ADD, 0);
+
+        List<Statement> result = new ArrayList<>(statements.size());
+        for (Statement statement : statements) {
+            Statement fused = null;
+            String pattern = null;
+            if (statement instanceof NumericAssignStatement) {
+                NumericAssignStatement assign = (NumericAssignStatement) statement;
+                if ((fused = fuseIncrement(assign, jasic)) != null) {
+                    pattern = INCREMENT;
+                } else if ((fused = fuseMultiplyAdd(assign, jasic)) != null) {
+                    pattern = MULTIPLY_ADD;
+                }
+            } else if (statement instanceof IfThenStatement && labels.containsKey(((IfThenStatement) statement).getLabel())) {
+                IfThenStatement ifThen = (IfThenStatement) statement;
+                if ((fused = fuseIfLessThanConstant(ifThen, labels, jasic)) != null) {
+                    pattern = IF_LESS_THAN_CONSTANT;
+                } else if ((fused = fuseIfEqual(ifThen, labels, jasic)) != null) {
+                    pattern = IF_EQUAL;
+                }
+            }
+            if (fused != null) {
+                counts.merge(pattern, 1, Integer::sum);
+                result.add(fused);
+            } else {
+                result.add(statement);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets a one-line summary of how much of a program was fused.
+     */
+    public static String describe(Map<String, Integer> counts, int statements) {
+        StringBuilder builder = new StringBuilder("fused");
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            builder.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+            total += entry.getValue();
+        }
+        return builder.append(" (").append(total).append(" of ").append(statements).append(" statements)").toString();
+    }
+
+    private static Statement fuseIncrement(NumericAssignStatement assign, Jasic jasic) {
+        NumericOperatorExpression sum = operator(assign.getValue(), "+");
+        if (sum == null) {
+            return null;
+        }
+        if (isSlot(sum.getLeft(), assign.getSlot()) && sum.getRight() instanceof NumberValue) {
+            return new IncrementStatement(assign.getName(), assign.getSlot(), sum.getRight().evaluateNumber(), jasic);
+        }
+        if (isSlot(sum.getRight(), assign.getSlot()) && sum.getLeft() instanceof NumberValue) {
+            return new IncrementStatement(assign.getName(), assign.getSlot(), sum.getLeft().evaluateNumber(), jasic);
+        }
+        return null;
+    }
+
+    private static Statement fuseMultiplyAdd(NumericAssignStatement assign, Jasic jasic) {
+        NumericOperatorExpression sum = operator(assign.getValue(), "+");
+        if (sum == null) {
+            return null;
+        }
+        NumericOperatorExpression product = operator(sum.getLeft(), "*");
+        Expression addend = sum.getRight();
+        if (product == null) {
+            // Addition of numbers is commutative, so c + a * b works too.
+            product = operator(sum.getRight(), "*");
+            addend = sum.getLeft();
+        }
+        if (product == null || !isLeaf(product.getLeft()) || !isLeaf(product.getRight()) || !isLeaf(addend)) {
+            return null;
+        }
+        return new MultiplyAddStatement(assign.getName(), assign.getSlot(),
+                product.getLeft(), product.getRight(), addend, jasic);
+    }
+
+    private static Statement fuseIfLessThanConstant(IfThenStatement ifThen, Map<String, Integer> labels, Jasic jasic) {
+        NumericOperatorExpression compare = operator(ifThen.getCondition(), "<");
+        if (compare == null || !(compare.getLeft() instanceof SlotExpression) || !(compare.getRight() instanceof NumberValue)) {
+            return null;
+        }
+        SlotExpression variable = (SlotExpression) compare.getLeft();
+        return new IfLessThanConstantStatement(variable.getName(), variable.getSlot(),
+                compare.getRight().evaluateNumber(), ifThen.getLabel(), labels.get(ifThen.getLabel()), jasic);
+    }
+
+    private static Statement fuseIfEqual(IfThenStatement ifThen, Map<String, Integer> labels, Jasic jasic) {
+        NumericOperatorExpression compare = operator(ifThen.getCondition(), "=");
+        if (compare == null || !(compare.getLeft() instanceof SlotExpression) || !(compare.getRight() instanceof SlotExpression)) {
+            return null;
+        }
+        SlotExpression left = (SlotExpression) compare.getLeft();
+        SlotExpression right = (SlotExpression) compare.getRight();
+        return new IfEqualStatement(left.getName(), left.getSlot(), right.getName(), right.getSlot(),
+                ifThen.getLabel(), labels.get(ifThen.getLabel()), jasic);
+    }
+
+    private static NumericOperatorExpression operator(Expression expression, String operator) {
+        if (expression instanceof NumericOperatorExpression
+                && ((NumericOperatorExpression) expression).getOperator().getOperator().equals(operator)) {
+            return (NumericOperatorExpression) expression;
+        }
+        return null;
+    }
+
+    private static boolean isSlot(Expression expression, int slot) {
+        return expression instanceof SlotExpression && ((SlotExpression) expression).getSlot() == slot;
+    }
+
+    private static boolean isLeaf(Expression expression) {
+        return expression instanceof SlotExpression || expression instanceof NumberValue;
+    }
+}
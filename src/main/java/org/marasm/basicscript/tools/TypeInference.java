@@ -0,0 +1,452 @@
+package org.marasm.basicscript.tools;
+
+import lombok.Getter;
+import org.marasm.basicscript.expressions.ArrayElementExpression;
+import org.marasm.basicscript.expressions.Expression;
+import org.marasm.basicscript.expressions.NumericExpression;
+import org.marasm.basicscript.expressions.OperatorExpression;
+import org.marasm.basicscript.expressions.VariableExpression;
+import org.marasm.basicscript.functions.ArrayCall;
+import org.marasm.basicscript.functions.CallExpression;
+import org.marasm.basicscript.functions.UserCallExpression;
+import org.marasm.basicscript.functions.ValueCall;
+import org.marasm.basicscript.statements.ArrayAssignStatement;
+import org.marasm.basicscript.statements.AssignStatement;
+import org.marasm.basicscript.statements.CallStatement;
+import org.marasm.basicscript.statements.ForStatement;
+import org.marasm.basicscript.statements.IfThenStatement;
+import org.marasm.basicscript.statements.InputStatement;
+import org.marasm.basicscript.statements.NextStatement;
+import org.marasm.basicscript.statements.ParallelForStatement;
+import org.marasm.basicscript.statements.PrintStatement;
+import org.marasm.basicscript.statements.RangeSwitchStatement;
+import org.marasm.basicscript.statements.SharedAssignStatement;
+import org.marasm.basicscript.statements.SharedUpdateStatement;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.values.StringValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out which type of value every variable of a program can hold. The
+ * analysis looks at the whole program at once:
+ * <p>
+ * 1. A forward pass over the jumps of the program finds the reads that can
+ * happen before the variable was ever assigned. Those see the default value
+ * 0 (or whatever the host stored before running the script), which counts as
+ * one of the types the variable holds.
+ * 2. Every assignment then adds the type of its expression to the type of
+ * its variable, until nothing changes any more. "input" can store either a
+ * number or a string, and the variable of a "for" loop only ever gets
+ * numbers.
+ * <p>
+ * A variable that only ever sees one type is definitely a number or
+ * definitely a string. Anything else is dynamic.
+ * <p>
+ * Arrays get an element type the same way, from the assignments to their
+ * elements. That only works while every access to an array goes through its
+ * variable, so an array that is also used as a plain value (and might be
+ * shared with another variable) has dynamic elements.
+ */
+public class TypeInference {
+
+    @Getter
+    private final Map<String, Type> types = new HashMap<>();
+    @Getter
+    private final Map<String, Type> elementTypes = new HashMap<>();
+
+    private TypeInference() {
+    }
+
+    public static TypeInference infer(List<Statement> statements, Map<String, Integer> labels,
+                                      Map<String, Value> initial) {
+        TypeInference inference = new TypeInference();
+        Map<String, Type> types = inference.types;
+        Map<String, Type> elementTypes = inference.elementTypes;
+
+        initial.forEach((name, value) -> types.put(name, inference.typeOf(value)));
+        findUnassignedReads(statements, labels).stream()
+                .filter(name -> !initial.containsKey(name))
+                .forEach(name -> types.merge(name, Type.NUMBER, Type::join));
+
+        // Elements that were never assigned read as 0.
+        Set<String> plainReads = new HashSet<>();
+        for (Statement statement : statements) {
+            for (Expression expression : readExpressions(statement)) {
+                collectArrays(expression, elementTypes);
+                collectPlainReads(expression, plainReads);
+            }
+            if (statement instanceof ArrayAssignStatement) {
+                collectArrays(((ArrayAssignStatement) statement).getElement(), elementTypes);
+            } else if (statement instanceof InputStatement && ((InputStatement) statement).getElement() != null) {
+                collectArrays(((InputStatement) statement).getElement(), elementTypes);
+            }
+        }
+        for (String name : elementTypes.keySet()) {
+            if (plainReads.contains(name) || initial.containsKey(name) || isPlainWrite(name, statements)) {
+                elementTypes.put(name, Type.DYNAMIC);
+            }
+        }
+
+        // fill() and copy() can put an array in a variable, or in an element.
+        Set<String> filled = new HashSet<>();
+        Set<String> filledElements = new HashSet<>();
+        for (Statement statement : statements) {
+            readExpressions(statement).forEach(expression -> collectFilled(expression, filled, filledElements));
+        }
+        filled.forEach(name -> join(types, name, Type.DYNAMIC));
+        filledElements.forEach(name -> {
+            join(types, name, Type.DYNAMIC);
+            join(elementTypes, name, Type.DYNAMIC);
+        });
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Statement statement : statements) {
+                if (statement instanceof AssignStatement) {
+                    AssignStatement assign = (AssignStatement) statement;
+                    changed |= join(types, assign.getName(), inference.typeOf(assign.getValue()));
+                } else if (statement instanceof ArrayAssignStatement) {
+                    ArrayAssignStatement assign = (ArrayAssignStatement) statement;
+                    changed |= join(types, assign.getElement().getRootName(), Type.DYNAMIC);
+                    changed |= join(elementTypes, assign.getElement().getRootName(),
+                            assign.getElement().getArray() instanceof VariableExpression
+                                    ? inference.typeOf(assign.getValue()) : Type.DYNAMIC);
+                } else if (statement instanceof ForStatement || statement instanceof NextStatement) {
+                    // The loop variable only ever gets numbers from the loop.
+                    changed |= join(types, writtenVariable(statement), Type.NUMBER);
+                    if (statement instanceof ParallelForStatement) {
+                        for (ParallelForStatement.Reduction reduction
+                                : ((ParallelForStatement) statement).getReductions()) {
+                            changed |= join(types, reduction.getName(), Type.NUMBER);
+                        }
+                    }
+                } else if (statement instanceof InputStatement) {
+                    InputStatement input = (InputStatement) statement;
+                    changed |= join(types, input.getName(), Type.DYNAMIC);
+                    if (input.getElement() != null) {
+                        changed |= join(elementTypes, input.getName(), Type.DYNAMIC);
+                    }
+                }
+            }
+        }
+        return inference;
+    }
+
+    private static boolean join(Map<String, Type> types, String name, Type type) {
+        Type old = types.getOrDefault(name, Type.UNKNOWN);
+        Type joined = old.join(type);
+        if (joined != old) {
+            types.put(name, joined);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the type an expression evaluates to, given the current guess for
+     * the types of the variables.
+     */
+    public Type typeOf(Expression expression) {
+        if (expression instanceof NumericExpression) {
+            return Type.NUMBER;
+        } else if (expression instanceof ValueCall) {
+            return ((ValueCall) expression).getType();
+        } else if (expression instanceof UserCallExpression) {
+            return typeOf(((UserCallExpression) expression).getFunction().getBody());
+        } else if (expression instanceof StringValue) {
+            return Type.STRING;
+        } else if (expression instanceof Value) {
+            return Type.DYNAMIC;
+        } else if (expression instanceof VariableExpression) {
+            return types.getOrDefault(((VariableExpression) expression).getName(), Type.UNKNOWN);
+        } else if (expression instanceof ArrayElementExpression) {
+            Expression array = ((ArrayElementExpression) expression).getArray();
+            if (array instanceof VariableExpression) {
+                return elementTypes.getOrDefault(((VariableExpression) array).getName(), Type.DYNAMIC);
+            }
+            return Type.DYNAMIC;
+        } else if (expression instanceof OperatorExpression) {
+            OperatorExpression operator = (OperatorExpression) expression;
+            if (!operator.getOperator().equals("+")) {
+                // Everything but "+" produces a number, whatever it's given.
+                return Type.NUMBER;
+            }
+            Type left = typeOf(operator.getLeft());
+            Type right = typeOf(operator.getRight());
+            if (left == Type.STRING || right == Type.STRING) {
+                return Type.STRING;
+            } else if (left == Type.NUMBER && right == Type.NUMBER) {
+                return Type.NUMBER;
+            } else if (left == Type.DYNAMIC || right == Type.DYNAMIC) {
+                return Type.DYNAMIC;
+            }
+            return Type.UNKNOWN;
+        }
+        return Type.DYNAMIC;
+    }
+
+    /**
+     * Finds the variables that can be read on some path through the program
+     * before anything was assigned to them.
+     */
+    private static Set<String> findUnassignedReads(List<Statement> statements, Map<String, Integer> labels) {
+        // assigned.get(i) holds the variables that are assigned on every path
+        // to statement i. Null means no path was seen yet.
+        List<Set<String>> assigned = new ArrayList<>();
+        for (int i = 0; i <= statements.size(); i++) {
+            assigned.add(null);
+        }
+        Set<String> unassignedReads = new HashSet<>();
+        if (statements.isEmpty()) {
+            return unassignedReads;
+        }
+        assigned.set(0, new HashSet<>());
+
+        Deque<Integer> work = new ArrayDeque<>();
+        work.add(0);
+        while (!work.isEmpty()) {
+            int index = work.poll();
+            if (index >= statements.size()) {
+                continue;
+            }
+            Statement statement = statements.get(index);
+            Set<String> out = new HashSet<>(assigned.get(index));
+            String written = writtenVariable(statement);
+            if (written != null) {
+                out.add(written);
+            }
+            for (int successor : ControlFlow.successors(statements, labels, index)) {
+                Set<String> in = assigned.get(successor);
+                if (in == null) {
+                    assigned.set(successor, new HashSet<>(out));
+                    work.add(successor);
+                } else if (in.retainAll(out)) {
+                    work.add(successor);
+                }
+            }
+        }
+
+        for (int i = 0; i < statements.size(); i++) {
+            if (assigned.get(i) == null) {
+                continue; // Unreachable.
+            }
+            Set<String> names = new HashSet<>();
+            readExpressions(statements.get(i)).forEach(expression -> collectVariables(expression, names));
+            if (statements.get(i) instanceof NextStatement) {
+                names.add(((NextStatement) statements.get(i)).getName());
+            }
+            for (String name : names) {
+                if (!assigned.get(i).contains(name)) {
+                    unassignedReads.add(name);
+                }
+            }
+        }
+        return unassignedReads;
+    }
+
+    static String writtenVariable(Statement statement) {
+        if (statement instanceof AssignStatement) {
+            return ((AssignStatement) statement).getName();
+        } else if (statement instanceof ArrayAssignStatement) {
+            return ((ArrayAssignStatement) statement).getElement().getRootName();
+        } else if (statement instanceof InputStatement) {
+            return ((InputStatement) statement).getName();
+        } else if (statement instanceof ForStatement) {
+            return ((ForStatement) statement).getName();
+        } else if (statement instanceof NextStatement) {
+            return ((NextStatement) statement).getName();
+        }
+        return null;
+    }
+
+    private static boolean isPlainWrite(String name, List<Statement> statements) {
+        for (Statement statement : statements) {
+            if (statement instanceof AssignStatement && ((AssignStatement) statement).getName().equals(name)) {
+                return true;
+            }
+            if ((statement instanceof ForStatement || statement instanceof NextStatement)
+                    && writtenVariable(statement).equals(name)) {
+                return true;
+            }
+            if (statement instanceof InputStatement && ((InputStatement) statement).getElement() == null
+                    && ((InputStatement) statement).getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the expressions a statement evaluates.
+     */
+    static List<Expression> readExpressions(Statement statement) {
+        List<Expression> expressions = new ArrayList<>();
+        if (statement instanceof AssignStatement) {
+            expressions.add(((AssignStatement) statement).getValue());
+        } else if (statement instanceof ArrayAssignStatement) {
+            ArrayAssignStatement assign = (ArrayAssignStatement) statement;
+            expressions.add(assign.getValue());
+            addIndexes(assign.getElement(), expressions);
+        } else if (statement instanceof InputStatement && ((InputStatement) statement).getElement() != null) {
+            addIndexes(((InputStatement) statement).getElement(), expressions);
+        } else if (statement instanceof PrintStatement) {
+            expressions.add(((PrintStatement) statement).getExpression());
+        } else if (statement instanceof CallStatement) {
+            expressions.add(((CallStatement) statement).getCall());
+        } else if (statement instanceof SharedAssignStatement) {
+            expressions.add(((SharedAssignStatement) statement).getValue());
+        } else if (statement instanceof SharedUpdateStatement) {
+            expressions.add(((SharedUpdateStatement) statement).getOperand());
+        } else if (statement instanceof ForStatement) {
+            ForStatement loop = (ForStatement) statement;
+            expressions.add(loop.getStart());
+            expressions.add(loop.getEnd());
+            if (loop.getStep() != null) {
+                expressions.add(loop.getStep());
+            }
+        } else if (statement instanceof IfThenStatement) {
+            expressions.add(((IfThenStatement) statement).getCondition());
+        } else if (statement instanceof RangeSwitchStatement) {
+            expressions.add(((RangeSwitchStatement) statement).getSubject());
+        }
+        return expressions;
+    }
+
+    private static void addIndexes(ArrayElementExpression element, List<Expression> expressions) {
+        expressions.add(element.getIndex());
+        if (element.getArray() instanceof ArrayElementExpression) {
+            addIndexes((ArrayElementExpression) element.getArray(), expressions);
+        }
+    }
+
+    static void collectVariables(Expression expression, Set<String> names) {
+        if (expression instanceof VariableExpression) {
+            names.add(((VariableExpression) expression).getName());
+        } else if (expression instanceof ArrayElementExpression) {
+            collectVariables(((ArrayElementExpression) expression).getArray(), names);
+            collectVariables(((ArrayElementExpression) expression).getIndex(), names);
+        } else if (expression instanceof OperatorExpression) {
+            collectVariables(((OperatorExpression) expression).getLeft(), names);
+            collectVariables(((OperatorExpression) expression).getRight(), names);
+        } else if (expression instanceof CallExpression) {
+            ((CallExpression) expression).getArguments().forEach(argument -> collectVariables(argument, names));
+        } else if (expression instanceof UserCallExpression) {
+            // The body can read global variables too.
+            UserCallExpression call = (UserCallExpression) expression;
+            call.getArguments().forEach(argument -> collectVariables(argument, names));
+            collectVariables(call.getFunction().getBody(), names);
+        }
+    }
+
+    /**
+     * Collects the variables that are read as values rather than being
+     * indexed.
+     */
+    private static void collectPlainReads(Expression expression, Set<String> names) {
+        if (expression instanceof VariableExpression) {
+            names.add(((VariableExpression) expression).getName());
+        } else if (expression instanceof ArrayElementExpression) {
+            ArrayElementExpression element = (ArrayElementExpression) expression;
+            if (!(element.getArray() instanceof VariableExpression)) {
+                collectPlainReads(element.getArray(), names);
+            }
+            collectPlainReads(element.getIndex(), names);
+        } else if (expression instanceof OperatorExpression) {
+            collectPlainReads(((OperatorExpression) expression).getLeft(), names);
+            collectPlainReads(((OperatorExpression) expression).getRight(), names);
+        } else if (expression instanceof CallExpression) {
+            ((CallExpression) expression).getArguments().forEach(argument -> collectPlainReads(argument, names));
+        } else if (expression instanceof UserCallExpression) {
+            // The body can read global variables too.
+            UserCallExpression call = (UserCallExpression) expression;
+            call.getArguments().forEach(argument -> collectPlainReads(argument, names));
+            collectPlainReads(call.getFunction().getBody(), names);
+        }
+    }
+
+    /**
+     * Finds the variables that are indexed as arrays, and gives each of them
+     * a starting element type of number. Elements of something that isn't a
+     * variable, like a function's parameter, are left out: their type is
+     * always dynamic (see {@link #typeOf}).
+     */
+    private static void collectArrays(Expression expression, Map<String, Type> elementTypes) {
+        if (expression instanceof ArrayElementExpression) {
+            ArrayElementExpression element = (ArrayElementExpression) expression;
+            if (element.getRootName() != null) {
+                elementTypes.putIfAbsent(element.getRootName(), Type.NUMBER);
+            }
+            collectArrays(element.getArray(), elementTypes);
+            collectArrays(element.getIndex(), elementTypes);
+        } else if (expression instanceof OperatorExpression) {
+            collectArrays(((OperatorExpression) expression).getLeft(), elementTypes);
+            collectArrays(((OperatorExpression) expression).getRight(), elementTypes);
+        } else if (expression instanceof CallExpression) {
+            ((CallExpression) expression).getArguments().forEach(argument -> collectArrays(argument, elementTypes));
+        } else if (expression instanceof UserCallExpression) {
+            // The body can read global variables too.
+            UserCallExpression call = (UserCallExpression) expression;
+            call.getArguments().forEach(argument -> collectArrays(argument, elementTypes));
+            collectArrays(call.getFunction().getBody(), elementTypes);
+        }
+    }
+
+    /**
+     * Finds the arrays fill() and copy() write to (see {@link ArrayCall}):
+     * the variables they're given, and the variables at the root of the
+     * elements they're given.
+     */
+    private static void collectFilled(Expression expression, Set<String> variables, Set<String> elements) {
+        if (expression instanceof ArrayElementExpression) {
+            collectFilled(((ArrayElementExpression) expression).getArray(), variables, elements);
+            collectFilled(((ArrayElementExpression) expression).getIndex(), variables, elements);
+        } else if (expression instanceof OperatorExpression) {
+            collectFilled(((OperatorExpression) expression).getLeft(), variables, elements);
+            collectFilled(((OperatorExpression) expression).getRight(), variables, elements);
+        } else if (expression instanceof CallExpression) {
+            CallExpression call = (CallExpression) expression;
+            if (call instanceof ArrayCall) {
+                Expression array = call.getArguments().get(((ArrayCall) call).getDestination());
+                if (array instanceof VariableExpression) {
+                    variables.add(((VariableExpression) array).getName());
+                } else if (array instanceof ArrayElementExpression
+                        && ((ArrayElementExpression) array).getRootName() != null) {
+                    elements.add(((ArrayElementExpression) array).getRootName());
+                }
+            }
+            call.getArguments().forEach(argument -> collectFilled(argument, variables, elements));
+        } else if (expression instanceof UserCallExpression) {
+            UserCallExpression call = (UserCallExpression) expression;
+            call.getArguments().forEach(argument -> collectFilled(argument, variables, elements));
+            collectFilled(call.getFunction().getBody(), variables, elements);
+        }
+    }
+
+    /**
+     * The types a variable or expression can have. UNKNOWN means nothing is
+     * known yet; it only shows up while the analysis is still running.
+     */
+    public enum Type {
+        UNKNOWN, NUMBER, STRING, DYNAMIC;
+
+        public Type join(Type other) {
+            if (this == UNKNOWN || this == other) {
+                return other;
+            }
+            if (other == UNKNOWN) {
+                return this;
+            }
+            return DYNAMIC;
+        }
+    }
+}
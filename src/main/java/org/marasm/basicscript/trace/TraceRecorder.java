@@ -0,0 +1,237 @@
+package org.marasm.basicscript.trace;
+
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.statements.Statement;
+import org.marasm.basicscript.tools.ControlFlow;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records the path a run takes through a script, to a file that
+ * {@link TraceReport} can summarize afterwards.
+ * <p>
+ * Statements run one after the other unless one of them jumps, so only the
+ * jumps are recorded: where from and where to. Everything in between is
+ * implied, including branches that weren't taken. Variable writes can be
+ * recorded too (see {@link org.marasm.basicscript.store.TracingVariableStore}).
+ * <p>
+ * Records go into a few fixed buffers that take turns: while the
+ * interpreter fills one, a background thread writes out the others. If the
+ * writer falls behind, the interpreter waits for it rather than losing
+ * records.
+ * <p>
+ * The file starts with a header listing the statements, which ones can
+ * branch, the labels and where the run started. Then come the records, as
+ * variable-length integers:
+ * <p>
+ * 2 * from, to  A jump. A jump from the end of the program marks the end of
+ * the trace, and "to" is where the run stopped.
+ * 4 * slot + 1, 8 bytes  A number written to a variable.
+ * 4 * slot + 3  Anything else written to a variable.
+ * <p>
+ * After the end come the names of the variables, by slot.
+ */
+public class TraceRecorder {
+    static final int MAGIC = 0x4A545243;
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int BUFFERS = 4;
+
+    /**
+     * A buffer of records. Jumps take one entry, writes one or two.
+     */
+    private static class Chunk {
+        final long[] records = new long[BUFFER_SIZE];
+        int length;
+    }
+
+    private static final Chunk END = new Chunk();
+
+    private final Path path;
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(BUFFERS);
+    private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(BUFFERS + 1);
+    private DataOutputStream out;
+    private Thread writer;
+    private volatile IOException failure;
+    /**
+     * The buffer being filled, or null outside of a run. Variables written
+     * outside of a run aren't recorded.
+     */
+    private Chunk chunk;
+    private int statementCount;
+
+    public TraceRecorder(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Starts a trace of a run of a compiled script, from its current
+     * statement.
+     */
+    public void begin(Jasic jasic) {
+        List<Statement> statements = jasic.getStatements();
+        statementCount = statements.size();
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(statements.size());
+            for (int i = 0; i < statements.size(); i++) {
+                out.writeUTF(statements.get(i).decodedString());
+                boolean branch = new HashSet<>(ControlFlow.successors(statements, jasic.getLabels(), i)).size() > 1;
+                out.writeBoolean(branch);
+            }
+            out.writeInt(jasic.getLabels().size());
+            for (Map.Entry<String, Integer> label : jasic.getLabels().entrySet()) {
+                out.writeUTF(label.getKey());
+                out.writeInt(label.getValue());
+            }
+            out.writeInt(jasic.getCurrentStatement());
+        } catch (IOException e) {
+            throw new Error("Can't write trace " + path + ": " + e.getMessage());
+        }
+
+        for (int i = 0; i < BUFFERS - 1; i++) {
+            free.add(new Chunk());
+        }
+        chunk = new Chunk();
+        writer = new Thread(this::writeChunks, "trace writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records a statement going somewhere other than the next one.
+     */
+    public void jump(int from, int to) {
+        if (chunk.length == BUFFER_SIZE) {
+            swap();
+        }
+        chunk.records[chunk.length++] = (long) from << 32 | (to & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Records a number being written to a variable.
+     */
+    public void write(int slot, double value) {
+        if (chunk == null) {
+            return;
+        }
+        if (chunk.length >= BUFFER_SIZE - 1) {
+            swap();
+        }
+        chunk.records[chunk.length++] = ~((long) slot << 1);
+        chunk.records[chunk.length++] = Double.doubleToRawLongBits(value);
+    }
+
+    /**
+     * Records something other than a number being written to a variable.
+     */
+    public void write(int slot) {
+        if (chunk == null) {
+            return;
+        }
+        if (chunk.length == BUFFER_SIZE) {
+            swap();
+        }
+        chunk.records[chunk.length++] = ~((long) slot << 1 | 1);
+    }
+
+    /**
+     * Ends the trace, and waits for all of it to be written.
+     *
+     * @param jasic The interpreter, which knows where the run stopped and the
+     *              names of the variables.
+     */
+    public void end(Jasic jasic) {
+        jump(statementCount, jasic.getCurrentStatement());
+        full.add(chunk);
+        full.add(END);
+        chunk = null;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            out.writeInt(jasic.getStore().size());
+            for (int slot = 0; slot < jasic.getStore().size(); slot++) {
+                out.writeUTF(jasic.getStore().name(slot));
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new Error("Can't write trace " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void swap() {
+        full.add(chunk);
+        try {
+            chunk = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Error("Interrupted while waiting for the trace writer.");
+        }
+        chunk.length = 0;
+    }
+
+    private void writeChunks() {
+        try {
+            while (true) {
+                Chunk next = full.take();
+                if (next == END) {
+                    return;
+                }
+                if (failure == null) {
+                    encode(next);
+                }
+                free.add(next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void encode(Chunk chunk) {
+        try {
+            for (int i = 0; i < chunk.length; i++) {
+                long record = chunk.records[i];
+                if (record >= 0) {
+                    writeVarint((record >>> 32) << 1);
+                    writeVarint((int) record);
+                } else {
+                    long slot = ~record >>> 1;
+                    if ((~record & 1) == 0) {
+                        writeVarint(slot << 2 | 1);
+                        out.writeLong(chunk.records[++i]);
+                    } else {
+                        writeVarint(slot << 2 | 3);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
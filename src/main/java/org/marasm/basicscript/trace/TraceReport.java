@@ -0,0 +1,178 @@
+package org.marasm.basicscript.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summarizes a trace written by {@link TraceRecorder}: how often each branch
+ * was taken, how many times each loop went around every time it was
+ * entered, and which variables were written the most. Run it on its own:
+ * <p>
+ * java -cp ... org.marasm.basicscript.trace.TraceReport run.trace
+ */
+public class TraceReport {
+
+    private final String[] statements;
+    private final boolean[] branches;
+    private final Map<Integer, String> labels = new HashMap<>();
+    private final long[] counts;
+    private final long[] taken;
+    /**
+     * How many times each backward jump was taken, by the statement it went
+     * back to.
+     */
+    private final TreeMap<Integer, Long> backEdges = new TreeMap<>();
+    private final Map<Integer, Long> writes = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private long jumps;
+
+    private TraceReport(DataInputStream in) throws IOException {
+        if (in.readInt() != TraceRecorder.MAGIC || in.readInt() != TraceRecorder.VERSION) {
+            throw new Error("Not a trace.");
+        }
+        int size = in.readInt();
+        statements = new String[size];
+        branches = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            statements[i] = in.readUTF();
+            branches[i] = in.readBoolean();
+        }
+        int labelCount = in.readInt();
+        for (int i = 0; i < labelCount; i++) {
+            String label = in.readUTF();
+            labels.put(in.readInt(), label);
+        }
+
+        // Each stretch of statements between two jumps ran once. Add them up
+        // as differences, so a stretch costs the same however long it is.
+        long[] differences = new long[size + 2];
+        taken = new long[size];
+        int position = in.readInt();
+        while (true) {
+            long record = readVarint(in);
+            if ((record & 1) == 0) {
+                int from = (int) (record >>> 1);
+                int to = (int) readVarint(in);
+                if (from == size) {
+                    if (to > position) {
+                        differences[position]++;
+                        differences[Math.min(to, size)]--;
+                    }
+                    break;
+                }
+                differences[position]++;
+                differences[from + 1]--;
+                jumps++;
+                taken[from]++;
+                if (to <= from) {
+                    backEdges.merge(to, 1L, Long::sum);
+                }
+                position = to;
+            } else {
+                int slot = (int) (record >>> 2);
+                if ((record & 3) == 1) {
+                    in.readLong();
+                }
+                writes.merge(slot, 1L, Long::sum);
+            }
+        }
+        counts = new long[size];
+        long running = 0;
+        for (int i = 0; i < size; i++) {
+            running += differences[i];
+            counts[i] = running;
+        }
+        int nameCount = in.readInt();
+        for (int i = 0; i < nameCount; i++) {
+            names.add(in.readUTF());
+        }
+    }
+
+    /**
+     * Reads a trace and prints the summary.
+     */
+    public static void report(Path path, PrintStream out) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            new TraceReport(in).print(out);
+        }
+    }
+
+    private void print(PrintStream out) {
+        long executed = 0;
+        for (long count : counts) {
+            executed += count;
+        }
+        long written = 0;
+        for (long count : writes.values()) {
+            written += count;
+        }
+        out.println("trace: " + executed + " statements, " + jumps + " jumps, " + written + " variable writes");
+
+        out.println("branches:");
+        for (int i = 0; i < statements.length; i++) {
+            if (branches[i] && counts[i] > 0) {
+                out.println(String.format("%6d %6.1f%% taken %12d of %12d  %s",
+                        i, 100.0 * taken[i] / counts[i], taken[i], counts[i], describe(i)));
+            }
+        }
+
+        out.println("loops:");
+        for (Map.Entry<Integer, Long> edge : backEdges.entrySet()) {
+            int head = edge.getKey();
+            long iterations = edge.getValue();
+            long entries = counts[head] - iterations;
+            out.println(String.format("%6d %12d entries %12d back jumps %10.1f trips per entry  %s",
+                    head, entries, iterations, entries == 0 ? 0.0 : (double) counts[head] / entries,
+                    describe(head)));
+        }
+
+        if (!writes.isEmpty()) {
+            out.println("writes:");
+            writes.entrySet().stream()
+                    .sorted((a, b) -> Long.compare(b.getValue(), a.getValue()))
+                    .forEach(entry -> out.println(String.format("%12d  %s", entry.getValue(),
+                            entry.getKey() < names.size() ? names.get(entry.getKey()) : "#" + entry.getKey())));
+        }
+    }
+
+    private String describe(int index) {
+        String label = labels.get(index);
+        return (label == null ? "" : label + ": ") + statements[index];
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: tracereport <trace>");
+            System.out.println("Where <trace> is a file written by jasic --trace.");
+            return;
+        }
+        try {
+            report(Paths.get(args[0]), System.out);
+        } catch (IOException e) {
+            throw new Error("Can't read trace " + args[0] + ": " + e.getMessage());
+        }
+    }
+}
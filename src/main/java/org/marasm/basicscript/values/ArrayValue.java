@@ -0,0 +1,686 @@
+package org.marasm.basicscript.values;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+/**
+ * An array value. Arrays are created the first time an element of a
+ * variable is assigned, and grow as needed:
+ * <p>
+ * a[3] = 1
+ * <p>
+ * Elements that were never assigned read as 0, just like variables.
+ * <p>
+ * Small non-negative integer indexes live in a dense part that is a plain
+ * double[] for as long as only numbers are stored in it, and is switched to
+ * a Value[] the first time anything else is. Every other index (negative,
+ * fractional, far past the end, or a string) goes in a map keyed by the
+ * index's string form. A string that is just the digits of a non-negative
+ * integer, like "3", is the same index as that number, so a["3"] and a[3]
+ * are always the same element.
+ * <p>
+ * An array can be shared by several forked runs of a script (see
+ * {@link org.marasm.basicscript.Jasic#fork()}). A shared array is never
+ * changed: a run that wants to write to it makes its own copy first.
+ * <p>
+ * An array can also be locked while the threads of a parallel loop write to
+ * it at the same time (see {@link #lock()}).
+ */
+public class ArrayValue implements Value {
+    private static final double[] EMPTY = new double[0];
+    /**
+     * Snapshots save the dense part in pages of 2^PAGE_BITS elements.
+     */
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE = 1 << PAGE_BITS;
+
+    private double[] numbers = EMPTY;
+    private Value[] values;
+    private int length;
+    private Map<String, Value> keyed;
+    private boolean shared;
+    /**
+     * The snapshot still reading this array's dense part, if any. Before a
+     * page of it is first changed, the page is saved in the snapshot.
+     */
+    private ArrayValue reader;
+    /**
+     * Which pages have been saved in the reader.
+     */
+    private boolean[] preserved;
+    /**
+     * In a snapshot that reads the dense part of the array it was taken
+     * from: the pages that array has saved before changing them, or null
+     * where it hasn't changed them yet. Guarded by the snapshot itself.
+     */
+    private Object[] pages;
+    /**
+     * True while several threads may write to this array at once.
+     */
+    private boolean locked;
+
+    /**
+     * @return One more than the highest index stored in the dense part.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return The dense part of the array. Only valid while
+     * {@link #isNumeric()} is true.
+     */
+    public double[] numbers() {
+        return numbers;
+    }
+
+    /**
+     * @return True if every element stored so far is a number.
+     */
+    public boolean isNumeric() {
+        return values == null;
+    }
+
+    /**
+     * @return The elements that aren't in the dense part, by the string form
+     * of their index.
+     */
+    public Map<String, Value> keyed() {
+        return keyed == null ? Collections.emptyMap() : Collections.unmodifiableMap(keyed);
+    }
+
+    /**
+     * @return True if other runs may be reading this array, so it has to be
+     * copied before it's changed.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Marks this array, and every array nested in it, as shared.
+     */
+    public void share() {
+        if (shared) {
+            return;
+        }
+        shared = true;
+        forEachNested(ArrayValue::share);
+    }
+
+    /**
+     * Locks this array, and every array nested in it, so that several
+     * threads can write to it at once. Until it's unlocked, elements it
+     * already has can be changed, but the array can't grow, gain elements
+     * in the keyed part, or switch its dense part from numbers to values,
+     * since that would replace storage other threads are writing to.
+     * <p>
+     * Nested arrays shared with a forked run are copied first, so the
+     * threads don't each write to a copy of their own.
+     */
+    public void lock() {
+        thaw();
+        if (reader != null) {
+            // Saving pages isn't safe from several threads, so leave the
+            // storage to the snapshot.
+            numbers = numbers.clone();
+            values = values == null ? null : values.clone();
+            detach();
+        }
+        locked = true;
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] instanceof ArrayValue) {
+                    values[i] = lockNested((ArrayValue) values[i]);
+                }
+            }
+        }
+        if (keyed != null) {
+            keyed.replaceAll((key, value) -> value instanceof ArrayValue ? lockNested((ArrayValue) value) : value);
+        }
+    }
+
+    private static ArrayValue lockNested(ArrayValue array) {
+        ArrayValue locked = array.isShared() ? array.copy() : array;
+        locked.lock();
+        return locked;
+    }
+
+    /**
+     * Undoes {@link #lock()}.
+     */
+    public void unlock() {
+        locked = false;
+        forEachNested(ArrayValue::unlock);
+    }
+
+    /**
+     * @return True if threads may be writing to this array at once.
+     */
+    public boolean isLocked() {
+        return locked;
+    }
+
+    private void forEachNested(Consumer<ArrayValue> action) {
+        if (values != null) {
+            for (Value value : values) {
+                if (value instanceof ArrayValue) {
+                    action.accept((ArrayValue) value);
+                }
+            }
+        }
+        if (keyed != null) {
+            for (Value value : keyed.values()) {
+                if (value instanceof ArrayValue) {
+                    action.accept((ArrayValue) value);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A private copy of this array. Arrays nested in it are still
+     * the same (shared) ones.
+     */
+    public ArrayValue copy() {
+        ArrayValue copy = new ArrayValue();
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Takes a snapshot of this array as it is now, for a checkpoint. The
+     * snapshot reads this array's dense part, and this array saves a page
+     * of it in the snapshot before it first changes it, so taking a
+     * snapshot costs next to nothing, and keeping one costs at most a copy
+     * of the pages changed since. Growing the array gives it new storage,
+     * and leaves the old one to the snapshot. The keyed part is copied, and
+     * arrays nested in this one get snapshots of their own; if the dense
+     * part holds any, it's copied too.
+     * <p>
+     * A snapshot can be read from another thread while this array goes on
+     * changing, with {@link #get(Value)}, {@link #getNumber(double)},
+     * {@link #copyNumbers} and {@link #keyed()}. Once it's no longer
+     * needed, {@link #release()} it.
+     *
+     * @return The snapshot. It must not be changed.
+     */
+    public ArrayValue snapshot() {
+        ArrayValue snapshot = new ArrayValue();
+        snapshot.length = length;
+        if (keyed != null) {
+            snapshot.keyed = new HashMap<>(keyed);
+            snapshot.keyed.replaceAll((key, value) ->
+                    value instanceof ArrayValue ? ((ArrayValue) value).snapshot() : value);
+        }
+        if (values != null && hasNestedArrays()) {
+            snapshot.values = values.clone();
+            for (int i = 0; i < length; i++) {
+                if (values[i] instanceof ArrayValue) {
+                    snapshot.values[i] = ((ArrayValue) values[i]).snapshot();
+                }
+            }
+            return snapshot;
+        }
+        if (reader != null) {
+            // An earlier snapshot that's still in use needs a copy of its
+            // own now.
+            reader.materialize();
+            detach();
+        }
+        snapshot.numbers = numbers;
+        snapshot.values = values;
+        snapshot.pages = new Object[(capacity() + PAGE - 1) >>> PAGE_BITS];
+        reader = snapshot;
+        preserved = new boolean[snapshot.pages.length];
+        return snapshot;
+    }
+
+    /**
+     * Tells this snapshot, and the snapshots nested in it, that they are no
+     * longer needed, so the arrays they were taken from stop saving pages
+     * for them. They can't be used afterwards.
+     */
+    public void release() {
+        boolean paged;
+        synchronized (this) {
+            paged = pages != null;
+            pages = null;
+        }
+        if (paged) {
+            // Only the keyed part can hold nested snapshots, and the dense
+            // part belongs to the array the snapshot was taken from.
+            if (keyed != null) {
+                keyed.values().forEach(value -> {
+                    if (value instanceof ArrayValue) {
+                        ((ArrayValue) value).release();
+                    }
+                });
+            }
+        } else {
+            forEachNested(ArrayValue::release);
+        }
+    }
+
+    private boolean hasNestedArrays() {
+        for (int i = 0; i < length; i++) {
+            if (values[i] instanceof ArrayValue) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gives this snapshot a copy of its own of the dense part, so it no
+     * longer reads the array it was taken from.
+     */
+    private synchronized void materialize() {
+        if (pages == null) {
+            return;
+        }
+        if (values == null) {
+            double[] own = new double[length];
+            copyNumbers(0, own, length);
+            numbers = own;
+        } else {
+            Value[] own = new Value[length];
+            for (int i = 0; i < length; i++) {
+                own[i] = savedValue(i);
+            }
+            values = own;
+        }
+        pages = null;
+    }
+
+    /**
+     * Stops saving pages for the snapshot reading this array.
+     */
+    private void detach() {
+        reader = null;
+        preserved = null;
+    }
+
+    /**
+     * Gets this array ready to be changed: a snapshot that's being changed
+     * gets storage of its own first.
+     */
+    private void thaw() {
+        if (pages != null) {
+            materialize();
+        }
+    }
+
+    /**
+     * Saves the page of the dense part an element is in, before the element
+     * is changed, if a snapshot still needs it.
+     */
+    private void preserve(int i) {
+        if (reader != null && !preserved[i >>> PAGE_BITS]) {
+            preservePage(i >>> PAGE_BITS);
+        }
+    }
+
+    private void preservePage(int page) {
+        ArrayValue snapshot = reader;
+        synchronized (snapshot) {
+            if (snapshot.pages == null) {
+                // Released, or it has a copy of its own.
+                detach();
+                return;
+            }
+            int from = page << PAGE_BITS;
+            int to = Math.min(from + PAGE, snapshot.length);
+            if (from < to) {
+                snapshot.pages[page] = values == null
+                        ? Arrays.copyOfRange(numbers, from, to) : Arrays.copyOfRange(values, from, to);
+            }
+        }
+        preserved[page] = true;
+    }
+
+    /**
+     * Copies numbers out of the dense part of a numeric array, or of a
+     * snapshot of one.
+     *
+     * @param from  The index of the first element.
+     * @param into  Where they go, from its start.
+     * @param count How many to copy.
+     */
+    public void copyNumbers(int from, double[] into, int count) {
+        if (pages == null) {
+            System.arraycopy(numbers, from, into, 0, count);
+            return;
+        }
+        synchronized (this) {
+            for (int i = 0; i < count; ) {
+                int index = from + i;
+                int offset = index & (PAGE - 1);
+                int n = Math.min(count - i, PAGE - offset);
+                double[] saved = pages == null ? null : (double[]) pages[index >>> PAGE_BITS];
+                if (saved != null) {
+                    System.arraycopy(saved, offset, into, i, n);
+                } else {
+                    System.arraycopy(numbers, index, into, i, n);
+                }
+                i += n;
+            }
+        }
+    }
+
+    /**
+     * @return An element of the dense part of a snapshot.
+     */
+    private synchronized Value savedValue(int i) {
+        if (i >= length) {
+            return null;
+        }
+        Object saved = pages == null ? null : pages[i >>> PAGE_BITS];
+        return saved != null ? ((Value[]) saved)[i & (PAGE - 1)] : values[i];
+    }
+
+    private synchronized double savedNumber(int i) {
+        if (i >= length) {
+            return 0;
+        }
+        Object saved = pages == null ? null : pages[i >>> PAGE_BITS];
+        return saved != null ? ((double[]) saved)[i & (PAGE - 1)] : numbers[i];
+    }
+
+    private int capacity() {
+        return values == null ? numbers.length : values.length;
+    }
+
+    public double getNumber(double index) {
+        int i = (int) index;
+        if (i == index && i >= 0 && i < capacity()) {
+            if (pages != null) {
+                if (values == null) {
+                    return savedNumber(i);
+                }
+                Value value = savedValue(i);
+                return value == null ? 0 : value.toNumber();
+            }
+            if (values == null) {
+                return numbers[i];
+            }
+            return values[i] == null ? 0 : values[i].toNumber();
+        }
+        return getKeyed(new NumberValue(index).toString()).toNumber();
+    }
+
+    public Value get(Value index) {
+        index = normalize(index);
+        if (index instanceof NumberValue) {
+            double number = index.toNumber();
+            int i = (int) number;
+            if (i == number && i >= 0 && i < capacity()) {
+                if (values == null) {
+                    return new NumberValue(pages == null ? numbers[i] : savedNumber(i));
+                }
+                Value value = pages == null ? values[i] : savedValue(i);
+                return value == null ? new NumberValue(0) : value;
+            }
+        }
+        return getKeyed(index.toString());
+    }
+
+    private Value getKeyed(String key) {
+        Value value = keyed == null ? null : keyed.get(key);
+        return value == null ? new NumberValue(0) : value;
+    }
+
+    public void setNumber(double index, double value) {
+        thaw();
+        int i = denseIndex(index);
+        if (i < 0) {
+            setKeyed(new NumberValue(index).toString(), new NumberValue(value));
+        } else {
+            preserve(i);
+            if (values == null) {
+                numbers[i] = value;
+            } else {
+                values[i] = new NumberValue(value);
+            }
+        }
+    }
+
+    public void set(Value index, Value value) {
+        thaw();
+        index = normalize(index);
+        int i = index instanceof NumberValue ? denseIndex(index.toNumber()) : -1;
+        if (i < 0) {
+            setKeyed(index.toString(), value);
+        } else if (value instanceof NumberValue && values == null) {
+            preserve(i);
+            numbers[i] = value.toNumber();
+        } else {
+            if (values == null) {
+                box();
+            }
+            preserve(i);
+            values[i] = value;
+        }
+    }
+
+    /**
+     * @return The sum of every element, converted to numbers.
+     */
+    public double sum() {
+        thaw();
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += values == null ? numbers[i] : (values[i] == null ? 0 : values[i].toNumber());
+        }
+        if (keyed != null) {
+            for (Value value : keyed.values()) {
+                sum += value.toNumber();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Sets the elements from 0 up to count to the same value.
+     */
+    public void fill(Value value, int count) {
+        if (count <= 0) {
+            return;
+        }
+        thaw();
+        if (count > capacity()) {
+            grow(count);
+        }
+        if (count > length) {
+            length = count;
+        }
+        if (value instanceof NumberValue && values == null) {
+            preserveRange(count);
+            Arrays.fill(numbers, 0, count, value.toNumber());
+        } else {
+            if (values == null) {
+                box();
+            }
+            preserveRange(count);
+            Arrays.fill(values, 0, count, value);
+        }
+    }
+
+    private void preserveRange(int count) {
+        for (int page = 0; reader != null && page << PAGE_BITS < count; page++) {
+            preserve(page << PAGE_BITS);
+        }
+    }
+
+    /**
+     * Replaces the contents of this array with a copy of another one's.
+     */
+    public void copyFrom(ArrayValue other) {
+        thaw();
+        other.materialize();
+        numbers = other.numbers.clone();
+        values = other.values == null ? null : other.values.clone();
+        length = other.length;
+        keyed = other.keyed == null ? null : new HashMap<>(other.keyed);
+        detach();
+    }
+
+    private void setKeyed(String key, Value value) {
+        if (locked) {
+            throw new Error("Can't add the element " + key + " to an array while a parallel loop writes to it."
+                    + " Fill the array to its full size before the loop.");
+        }
+        if (keyed == null) {
+            keyed = new HashMap<>();
+        }
+        keyed.put(key, value);
+    }
+
+    /**
+     * Finds where an index being written goes in the dense part, growing it
+     * if the index is close enough to the end.
+     *
+     * @return The position in the dense part, or -1 if the index belongs in
+     * the keyed part.
+     */
+    private int denseIndex(double index) {
+        int i = (int) index;
+        if (i != index || i < 0) {
+            return -1;
+        }
+        if (locked && i >= length) {
+            // Belongs to the keyed part, which refuses it.
+            return -1;
+        }
+        int capacity = capacity();
+        if (i >= capacity) {
+            if (i > Math.max(16, capacity * 2)) {
+                return -1;
+            }
+            grow(Math.max(i + 1, Math.max(16, capacity * 2)));
+        }
+        if (i >= length) {
+            length = i + 1;
+        }
+        return i;
+    }
+
+    private void grow(int capacity) {
+        int oldCapacity = capacity();
+        if (values == null) {
+            double[] grown = new double[capacity];
+            System.arraycopy(numbers, 0, grown, 0, numbers.length);
+            numbers = grown;
+        } else {
+            Value[] grown = new Value[capacity];
+            System.arraycopy(values, 0, grown, 0, values.length);
+            values = grown;
+        }
+        // The old storage is left to the snapshot, if there is one.
+        detach();
+
+        // Pull in any keyed elements that now fit in the dense part.
+        if (keyed != null) {
+            Iterator<Map.Entry<String, Value>> entries = keyed.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, Value> entry = entries.next();
+                int i = denseKey(entry.getKey());
+                if (i >= oldCapacity && i < capacity) {
+                    entries.remove();
+                    if (i >= length) {
+                        length = i + 1;
+                    }
+                    if (values == null && entry.getValue() instanceof NumberValue) {
+                        numbers[i] = entry.getValue().toNumber();
+                    } else {
+                        if (values == null) {
+                            box();
+                        }
+                        values[i] = entry.getValue();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The integer a key is the string form of, or -1 if it isn't a
+     * non-negative integer written the way {@link NumberValue} writes it.
+     */
+    private static int denseKey(String key) {
+        int length = key.length();
+        if (length == 0 || length > 10 || (length > 1 && key.charAt(0) == '0')) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        long i = Long.parseLong(key);
+        return i <= Integer.MAX_VALUE ? (int) i : -1;
+    }
+
+    /**
+     * Turns a string index that names a dense position, like "3", into the
+     * number, so that it's found in the same place however it was written.
+     */
+    private static Value normalize(Value index) {
+        if (index instanceof StringValue) {
+            int i = denseKey(index.toString());
+            if (i >= 0) {
+                return new NumberValue(i);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Switches the dense part from double[] to Value[].
+     */
+    private void box() {
+        if (locked) {
+            throw new Error("Can't store anything but numbers in an array of numbers while a parallel loop"
+                    + " writes to it. Fill it with a string before the loop to store strings in it.");
+        }
+        values = new Value[numbers.length];
+        for (int i = 0; i < length; i++) {
+            values[i] = new NumberValue(numbers[i]);
+        }
+        numbers = EMPTY;
+        detach();
+    }
+
+    @Override
+    public String toString() {
+        thaw();
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        for (int i = 0; i < length; i++) {
+            if (values == null) {
+                joiner.add(new NumberValue(numbers[i]).toString());
+            } else {
+                joiner.add(values[i] == null ? "0" : values[i].toString());
+            }
+        }
+        if (keyed != null) {
+            keyed.forEach((key, value) -> joiner.add(key + "=" + value));
+        }
+        return joiner.toString();
+    }
+
+    @Override
+    public double toNumber() {
+        throw new Error("Can't use an array as a number.");
+    }
+
+    @Override
+    public Value evaluate() {
+        return this;
+    }
+}
@@ -1,9 +1,11 @@
 package org.marasm.basicscript.values;
 
+import org.marasm.basicscript.expressions.NumericExpression;
+
 /**
  * A numeric value. Jasic uses doubles internally for all numbers.
  */
-public class NumberValue implements Value {
+public class NumberValue implements Value, NumericExpression {
     private final double value;
 
     public NumberValue(double value) {
@@ -29,6 +31,11 @@ public class NumberValue implements Value {
         return this;
     }
 
+    @Override
+    public double evaluateNumber() {
+        return value;
+    }
+
     @Override
     public String decodedString() {
         if (toNumber() >= 0) {
@@ -0,0 +1,132 @@
+package org.marasm.basicscript.values;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes values out as bytes and reads them back, for checkpoints (see
+ * {@link org.marasm.basicscript.checkpoint.Checkpoint}) and variable store
+ * files (see {@link org.marasm.basicscript.store.OffHeapVariableStore}).
+ * <p>
+ * Every value is a tag followed by its contents. Numbers are written as raw
+ * doubles and arrays element by element, so big numeric arrays take 8 bytes
+ * an element.
+ */
+public class ValueCodec {
+    private static final int NUMBER = 0;
+    private static final int STRING = 1;
+    private static final int ARRAY = 2;
+    private static final int NUMERIC_ARRAY = 3;
+
+    /**
+     * Numeric arrays are copied out this many elements at a time.
+     */
+    private static final int PAGE = 4096;
+
+    public static void write(DataOutput out, Value value) throws IOException {
+        if (value instanceof NumberValue) {
+            out.writeByte(NUMBER);
+            out.writeDouble(value.toNumber());
+        } else if (value instanceof ArrayValue) {
+            ArrayValue array = (ArrayValue) value;
+            if (array.isNumeric()) {
+                out.writeByte(NUMERIC_ARRAY);
+                out.writeInt(array.length());
+                // A page at a time, since a script may be changing the array
+                // a snapshot was taken from.
+                double[] page = new double[Math.min(array.length(), PAGE)];
+                for (int i = 0; i < array.length(); i += page.length) {
+                    int count = Math.min(page.length, array.length() - i);
+                    array.copyNumbers(i, page, count);
+                    for (int j = 0; j < count; j++) {
+                        out.writeDouble(page[j]);
+                    }
+                }
+            } else {
+                out.writeByte(ARRAY);
+                out.writeInt(array.length());
+                for (int i = 0; i < array.length(); i++) {
+                    write(out, array.get(new NumberValue(i)));
+                }
+            }
+            Map<String, Value> keyed = array.keyed();
+            out.writeInt(keyed.size());
+            for (Map.Entry<String, Value> entry : keyed.entrySet()) {
+                writeString(out, entry.getKey());
+                write(out, entry.getValue());
+            }
+        } else {
+            out.writeByte(STRING);
+            writeString(out, value.toString());
+        }
+    }
+
+    public static Value read(DataInput in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case NUMBER:
+                return new NumberValue(in.readDouble());
+            case STRING:
+                return new StringValue(readString(in));
+            case NUMERIC_ARRAY:
+            case ARRAY:
+                ArrayValue array = new ArrayValue();
+                int length = in.readInt();
+                for (int i = 0; i < length; i++) {
+                    if (tag == NUMERIC_ARRAY) {
+                        array.setNumber(i, in.readDouble());
+                    } else {
+                        array.set(new NumberValue(i), read(in));
+                    }
+                }
+                int keyed = in.readInt();
+                for (int i = 0; i < keyed; i++) {
+                    String key = readString(in);
+                    array.set(new StringValue(key), read(in));
+                }
+                return array;
+            default:
+                throw new IOException("unknown value type " + tag);
+        }
+    }
+
+    /**
+     * @return How many bytes {@link #write} writes for a value.
+     */
+    public static long size(Value value) {
+        if (value instanceof NumberValue) {
+            return 1 + 8;
+        } else if (value instanceof ArrayValue) {
+            ArrayValue array = (ArrayValue) value;
+            long size = 1 + 4 + 4;
+            if (array.isNumeric()) {
+                size += 8L * array.length();
+            } else {
+                for (int i = 0; i < array.length(); i++) {
+                    size += size(array.get(new NumberValue(i)));
+                }
+            }
+            for (Map.Entry<String, Value> entry : array.keyed().entrySet()) {
+                size += 4 + entry.getKey().getBytes(StandardCharsets.UTF_8).length + size(entry.getValue());
+            }
+            return size;
+        }
+        return 1 + 4 + value.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // Unlike writeUTF(), this isn't limited to 64K.
+    public static void writeString(DataOutput out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,22 @@
+package org.marasm.basicscript;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class JasicTest {
+
+    @Test
+    public void forksCarryOnRunningLoops() {
+        Jasic jasic = new Jasic();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        jasic.setOut(new PrintStream(out, true));
+        jasic.runUntil("for i = 1 to 3 step 2\nhere:\nprint i\nnext\nprint \"ok\"\n", "here");
+        Jasic child = jasic.fork();
+        child.resume();
+        assertEquals("1\n3\nok\n", out.toString().replace("\r", ""));
+    }
+}
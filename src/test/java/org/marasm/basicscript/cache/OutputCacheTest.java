@@ -0,0 +1,62 @@
+package org.marasm.basicscript.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.marasm.basicscript.Jasic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class OutputCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String key(int threads, boolean autoParallel) {
+        Jasic jasic = new Jasic();
+        jasic.setParallelism(threads);
+        jasic.setAutoParallel(autoParallel);
+        return OutputCache.key(jasic, "print 1\n");
+    }
+
+    @Test
+    public void theKeyChangesWithTheSettings() {
+        assertEquals(key(2, false), key(2, false));
+        assertNotEquals(key(1, false), key(2, false));
+        assertNotEquals(key(2, false), key(2, true));
+        assertNotEquals(OutputCache.key("print 1\n", ""), OutputCache.key("print 2\n", ""));
+    }
+
+    @Test
+    public void theOutputUsedLeastRecentlyIsRemovedFirst() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("output");
+        OutputCache cache = new OutputCache(directory, 250);
+        byte[] output = new byte[100];
+        cache.put("a", output);
+        cache.put("b", output);
+        // Written in the same millisecond, as far as the file system knows.
+        Files.setLastModifiedTime(directory.resolve("a.out"), FileTime.fromMillis(1_000_000));
+        Files.setLastModifiedTime(directory.resolve("b.out"), FileTime.fromMillis(2_000_000));
+
+        assertArrayEquals(output, cache.get("a"));
+        cache.put("c", output);
+        assertNull(cache.get("b"));
+        assertArrayEquals(output, cache.get("a"));
+        assertArrayEquals(output, cache.get("c"));
+    }
+
+    @Test
+    public void outputsBiggerThanTheCacheAreNotKept() {
+        OutputCache cache = new OutputCache(folder.getRoot().toPath(), 50);
+        cache.put("big", new byte[100]);
+        assertNull(cache.get("big"));
+    }
+}
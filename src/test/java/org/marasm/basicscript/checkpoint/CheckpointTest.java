@@ -0,0 +1,44 @@
+package org.marasm.basicscript.checkpoint;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.marasm.basicscript.Jasic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+public class CheckpointTest {
+    private static final String SCRIPT = "a[0] = 0\nfill(a, 1, 10000)\nfor i = 0 to 9999 step 3\n"
+            + "here:\na[i] = i\nnext\nprint sum(a)\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aRunCarriesOnFromACheckpoint() throws Exception {
+        Jasic first = new Jasic();
+        first.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+        first.runUntil(SCRIPT, "here");
+        Checkpoint checkpoint = Checkpoint.take(first);
+        // The run goes on while the checkpoint is written.
+        first.resume();
+        Path path = folder.getRoot().toPath().resolve("checkpoint");
+        checkpoint.write(path);
+        checkpoint.release();
+
+        Jasic second = new Jasic();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        second.setOut(new PrintStream(out, true));
+        second.resume(SCRIPT, Checkpoint.read(path));
+
+        Jasic whole = new Jasic();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        whole.setOut(new PrintStream(expected, true));
+        whole.interpret(SCRIPT);
+        assertEquals(expected.toString(), out.toString());
+    }
+}
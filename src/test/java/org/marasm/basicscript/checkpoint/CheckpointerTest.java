@@ -0,0 +1,16 @@
+package org.marasm.basicscript.checkpoint;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertFalse;
+
+public class CheckpointerTest {
+
+    @Test
+    public void aSignalThatIsntThereOnlyWarns() {
+        Checkpointer checkpointer = new Checkpointer(Paths.get("unused"), 1000);
+        assertFalse(checkpointer.onSignal("NOSUCHSIGNAL"));
+    }
+}
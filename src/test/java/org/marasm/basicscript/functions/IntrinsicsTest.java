@@ -0,0 +1,46 @@
+package org.marasm.basicscript.functions;
+
+import org.junit.Test;
+import org.marasm.basicscript.Jasic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntrinsicsTest {
+
+    private static String run(String source) {
+        Jasic jasic = new Jasic();
+        jasic.setParallelism(4);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        jasic.setOut(new PrintStream(out, true));
+        jasic.interpret(source);
+        return out.toString().trim();
+    }
+
+    @Test
+    public void fillCreatesTheArray() {
+        assertEquals("4\n5", run("fill(z, 0, 4)\nprint len(z)\nz[2] = 5\nprint sum(z)\n"));
+    }
+
+    @Test
+    public void fillReplacesANumber() {
+        assertEquals("s", run("q = 7\nfill(q, \"s\", 2)\nprint q[1]\n"));
+    }
+
+    @Test
+    public void fillCreatesAnElement() {
+        assertEquals("6", run("fill(m[1], 2, 3)\nprint sum(m[1])\n"));
+    }
+
+    @Test
+    public void copyCreatesTheDestination() {
+        assertEquals("12", run("fill(a, 3, 4)\ncopy(a, b)\nprint sum(b)\n"));
+    }
+
+    @Test
+    public void aFilledArrayCanBeWrittenByAParallelLoop() {
+        assertEquals("499500", run("fill(b, 0, 1000)\nparallel for i = 0 to 999\nb[i] = i\nnext\nprint sum(b)\n"));
+    }
+}
@@ -0,0 +1,38 @@
+package org.marasm.basicscript.functions;
+
+import org.junit.Test;
+import org.marasm.basicscript.Jasic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class UserFunctionTest {
+
+    private static String run(String source) {
+        Jasic jasic = new Jasic();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        jasic.setOut(new PrintStream(out, true));
+        jasic.interpret(source);
+        return out.toString().trim();
+    }
+
+    @Test
+    public void anInlinedFunctionCanIndexItsParameter() {
+        assertEquals("0", run("def fn first(a) = a[0]\nprint first(5)\n"));
+        assertEquals("7", run("def fn first(a) = a[0]\nb[0] = 7\nprint first(b)\n"));
+    }
+
+    @Test
+    public void aCalledFunctionCanIndexItsParameter() {
+        String big = "def fn big(a) = a[0] + a[1] + a[2] + a[3] + a[4] + a[5] + a[6] + 1\n";
+        assertEquals("1", run(big + "print big(x)\n"));
+        assertEquals("29", run(big + "x[0] = 0\nfill(x, 4, 7)\nprint big(x)\n"));
+    }
+
+    @Test
+    public void aFunctionCanIndexANestedParameter() {
+        assertEquals("5", run("def fn corner(a) = a[1][2]\nm[1][2] = 5\nprint corner(m)\n"));
+    }
+}
@@ -0,0 +1,64 @@
+package org.marasm.basicscript.statements;
+
+import org.junit.Test;
+import org.marasm.basicscript.Jasic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelForStatementTest {
+
+    private static String run(String source) {
+        Jasic jasic = new Jasic();
+        jasic.setParallelism(4);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        jasic.setOut(new PrintStream(out, true));
+        jasic.interpret(source);
+        return out.toString().trim();
+    }
+
+    private static String error(String source) {
+        try {
+            run(source);
+        } catch (Error e) {
+            return e.getMessage();
+        }
+        fail("Expected an error.");
+        return null;
+    }
+
+    @Test
+    public void chunksFillInAPreSizedArray() {
+        assertEquals("999000", run("a[0] = 0\nfill(a, 0, 1000)\n"
+                + "parallel for i = 0 to 999\na[i] = i * 2\nnext\nprint sum(a)\n"));
+    }
+
+    @Test
+    public void chunksFillInNestedArrays() {
+        assertEquals("400", run("a[0] = 0\nfill(a, 0, 20)\nfor i = 0 to 19\na[i][0] = 0\nfill(a[i], 0, 10)\nnext\n"
+                + "parallel for i = 0 to 19\nfor j = 0 to 9\na[i][j] = 2\nnext\nnext\n"
+                + "t = 0\nfor i = 0 to 19\nt = t + sum(a[i])\nnext\nprint t\n"));
+    }
+
+    @Test
+    public void anArrayOnlyTheLoopCreatesIsAnError() {
+        String message = error("parallel for i = 0 to 999\nb[i] = i\nnext\nprint sum(b)\n");
+        assertTrue(message, message.contains("writes to the array b"));
+    }
+
+    @Test
+    public void anArrayThatIsTooSmallIsAnError() {
+        String message = error("a[0] = 0\nparallel for i = 0 to 999\na[i] = i\nnext\n");
+        assertTrue(message, message.startsWith("Can't add the element"));
+    }
+
+    @Test
+    public void theArrayIsUnlockedAfterTheLoop() {
+        assertEquals("2000", run("a[0] = 0\nfill(a, 1, 1000)\n"
+                + "parallel for i = 0 to 999\na[i] = 0\nnext\nfill(a, 2, 1000)\nprint sum(a)\n"));
+    }
+}
@@ -0,0 +1,90 @@
+package org.marasm.basicscript.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.StringValue;
+
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapVariableStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void variablesSurviveInAFile() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("variables");
+        OffHeapVariableStore store = OffHeapVariableStore.open(path);
+        store.set(store.slot("x"), new NumberValue(42));
+        store.set(store.slot("name"), new StringValue("jasic"));
+        store.set(store.slot("\u00e9t\u00e9"), new NumberValue(7));
+        store.close();
+
+        OffHeapVariableStore reopened = OffHeapVariableStore.open(path);
+        assertEquals(42, reopened.getNumber("x"), 0);
+        assertEquals("jasic", reopened.asMap().get("name").toString());
+        assertEquals(7, reopened.getNumber("\u00e9t\u00e9"), 0);
+        assertEquals(-1, reopened.find("y"));
+        reopened.close();
+    }
+
+    @Test
+    public void namesAreComparedNotJustHashed() {
+        OffHeapVariableStore store = new OffHeapVariableStore();
+        for (int i = 0; i < 1000; i++) {
+            store.set(store.slot("v" + i), new NumberValue(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("v" + i, store.name(store.find("v" + i)));
+            assertEquals(i, store.getNumber("v" + i), 0);
+        }
+        assertEquals(-1, store.find("v1000"));
+        assertEquals(1000, store.size());
+    }
+
+    @Test
+    public void arraysSurviveInAFile() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("arrays");
+        OffHeapVariableStore store = OffHeapVariableStore.open(path);
+        ArrayValue numbers = new ArrayValue();
+        numbers.fill(new NumberValue(2), 100000);
+        store.set(store.slot("a"), numbers);
+        ArrayValue mixed = new ArrayValue();
+        mixed.set(new NumberValue(0), new StringValue("x"));
+        mixed.set(new StringValue("key"), new NumberValue(5));
+        ArrayValue nested = new ArrayValue();
+        nested.setNumber(3, 9);
+        mixed.set(new NumberValue(1), nested);
+        store.set(store.slot("m"), mixed);
+        store.flush();
+        // Changed after the first flush, and saved again.
+        numbers.setNumber(7, 3);
+        store.close();
+
+        OffHeapVariableStore reopened = OffHeapVariableStore.open(path);
+        ArrayValue a = (ArrayValue) reopened.asMap().get("a");
+        assertEquals(100000, a.length());
+        assertEquals(200001, a.sum(), 0);
+        ArrayValue m = (ArrayValue) reopened.asMap().get("m");
+        assertEquals("x", m.get(new NumberValue(0)).toString());
+        assertEquals(5, m.get(new StringValue("key")).toNumber(), 0);
+        assertEquals(9, ((ArrayValue) m.get(new NumberValue(1))).getNumber(3), 0);
+        reopened.close();
+    }
+
+    @Test
+    public void memoryKeepsArraysOnTheHeap() {
+        OffHeapVariableStore store = new OffHeapVariableStore();
+        ArrayValue array = new ArrayValue();
+        store.set(store.slot("a"), array);
+        assertFalse(store.isNumber(store.find("a")));
+        assertTrue(store.asMap().get("a") == array);
+        store.close();
+    }
+}
@@ -0,0 +1,81 @@
+package org.marasm.basicscript.store;
+
+import org.junit.Test;
+import org.marasm.basicscript.values.ArrayValue;
+import org.marasm.basicscript.values.NumberValue;
+import org.marasm.basicscript.values.StringValue;
+import org.marasm.basicscript.values.Value;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VariableMapTest {
+
+    @Test
+    public void removingAVariableUnsetsIt() {
+        for (VariableStore store : new VariableStore[]{new HeapVariableStore(), new OffHeapVariableStore()}) {
+            Map<String, Value> variables = store.asMap();
+            variables.put("x", new StringValue("text"));
+            int slot = store.slot("x");
+            assertEquals("text", variables.remove("x").toString());
+            assertFalse(variables.containsKey("x"));
+            assertNull(variables.get("x"));
+            assertTrue(store.isNumber(slot));
+            assertEquals(0, store.getNumber(slot), 0);
+            assertEquals(slot, store.find("x"));
+            assertNull(variables.remove("y"));
+            assertNull(variables.put("x", new NumberValue(0)));
+            assertTrue(variables.containsKey("x"));
+        }
+    }
+
+    @Test
+    public void clearingUnsetsEveryVariable() {
+        for (VariableStore store : new VariableStore[]{new HeapVariableStore(), new OffHeapVariableStore()}) {
+            Map<String, Value> variables = store.asMap();
+            variables.put("a", new NumberValue(1));
+            variables.put("b", new ArrayValue());
+            variables.clear();
+            assertTrue(variables.isEmpty());
+            assertFalse(variables.containsKey("a"));
+            assertEquals(0, store.getNumber("a"), 0);
+            assertEquals(0, store.getNumber("b"), 0);
+            assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    public void compiledVariablesAreNotInTheMapUntilAssigned() {
+        for (VariableStore store : new VariableStore[]{new HeapVariableStore(), new OffHeapVariableStore()}) {
+            Map<String, Value> variables = store.asMap();
+            int slot = store.slot("compiled");
+            variables.put("assigned", new NumberValue(0));
+            assertFalse(variables.containsKey("compiled"));
+            assertEquals(1, variables.size());
+            assertEquals("assigned", variables.keySet().iterator().next());
+            store.setNumber(slot, 3);
+            assertTrue(variables.containsKey("compiled"));
+            assertEquals(2, variables.size());
+            VariableStore fork = store.fork();
+            store.unset(slot);
+            assertFalse(store.fork().asMap().containsKey("compiled"));
+            assertEquals(3, fork.asMap().get("compiled").toNumber(), 0);
+        }
+    }
+
+    @Test
+    public void numbersReadByName() {
+        for (VariableStore store : new VariableStore[]{new HeapVariableStore(), new OffHeapVariableStore()}) {
+            store.asMap().put("n", new NumberValue(2.5));
+            store.asMap().put("s", new StringValue("4"));
+            assertEquals(2.5, store.getNumber("n"), 0);
+            assertEquals(4, store.getNumber("s"), 0);
+            assertEquals(0, store.getNumber("missing"), 0);
+            assertEquals(-1, store.find("missing"));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.marasm.basicscript.stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.marasm.basicscript.Jasic;
+import org.marasm.basicscript.store.SharedVariables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecordStreamTest {
+    /**
+     * Enough lines of 8 bytes to make more than one partition.
+     */
+    private static final int LINES = (int) (RecordStream.MIN_PARTITION * 5 / 2 / 8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path input() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            lines.append("2      \n");
+        }
+        Path path = folder.getRoot().toPath().resolve("input");
+        Files.write(path, lines.toString().getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static String run(String source, Path input, int partitions) throws IOException {
+        Jasic jasic = new Jasic();
+        jasic.setShared(new SharedVariables());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        jasic.setOut(new PrintStream(out, true));
+        RecordStream records = new RecordStream(jasic);
+        records.setPartitions(partitions);
+        records.run(source, input);
+        return out.toString().trim();
+    }
+
+    @Test
+    public void partitionsAddUpInSharedVariables() throws IOException {
+        String source = "records:\nshared.lines = shared.lines + 1\nshared.total = shared.total + field[1]\n"
+                + "finish:\nprint shared.lines\nprint shared.total\n";
+        Path input = input();
+        assertEquals(LINES + "\n" + 2 * LINES, run(source, input, 4));
+        assertEquals(run(source, input, 1), run(source, input, 4));
+    }
+
+    @Test
+    public void aPlainTotalIsAnErrorWithPartitions() throws IOException {
+        String source = "total = 0\nrecords:\ntotal = total + field[1]\nfinish:\nprint total\n";
+        Path input = input();
+        assertEquals(String.valueOf(2 * LINES), run(source, input, 1));
+        try {
+            run(source, input, 4);
+            fail("Expected an error.");
+        } catch (Error e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("shared.total"));
+        }
+    }
+
+    @Test
+    public void variablesForOneLineAreFineWithPartitions() throws IOException {
+        String source = "records:\nx = field[1] * nr\nshared.total = shared.total + (x - x + 1)\n"
+                + "finish:\nprint shared.total\n";
+        assertEquals(String.valueOf(LINES), run(source, input(), 4));
+    }
+}
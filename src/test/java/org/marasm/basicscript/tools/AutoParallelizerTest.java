@@ -0,0 +1,76 @@
+package org.marasm.basicscript.tools;
+
+import org.junit.Test;
+import org.marasm.basicscript.Jasic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AutoParallelizerTest {
+
+    private static String run(String source, boolean autoParallel, List<String> report) {
+        Jasic jasic = new Jasic();
+        jasic.setParallelism(4);
+        jasic.setAutoParallel(autoParallel);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        jasic.setOut(new PrintStream(out, true));
+        jasic.interpret(source);
+        if (report != null) {
+            report.addAll(jasic.getParallelReport());
+        }
+        return out.toString().trim();
+    }
+
+    /**
+     * Runs a script with and without --auto-parallel, checks that both print
+     * the same thing, and returns the one line of the report.
+     */
+    private static String report(String source) {
+        List<String> report = new ArrayList<>();
+        String parallel = run(source, true, report);
+        assertEquals(run(source, false, null), parallel);
+        assertEquals(report.toString(), 1, report.size());
+        return report.get(0);
+    }
+
+    @Test
+    public void independentIterationsRunInParallel() {
+        String source = "y = 0\nrows:\nx = y * y\nprint x\nz = x + 1\ny = y + 1\nif y < 50 then rows\n"
+                + "print x\nprint y\nprint z\n";
+        String line = report(source);
+        assertTrue(line, line.endsWith("parallel over y"));
+        String output = run(source, true, null);
+        assertTrue(output, output.startsWith("0\n1\n4\n9\n"));
+        assertTrue(output, output.endsWith("2401\n2401\n50\n2402"));
+    }
+
+    @Test
+    public void aCarriedVariableKeepsTheLoopSequential() {
+        String source = "i = 0\ns = 0\nsum:\ns = s + i\ni = i + 1\nif i < 10 then sum\nprint s\n";
+        String line = report(source);
+        assertTrue(line, line.contains("not parallel: s is carried from one iteration to the next"));
+        assertEquals("45", run(source, true, null));
+    }
+
+    @Test
+    public void aJumpIntoTheMiddleKeepsTheLoopSequential() {
+        String source = "i = 0\nx = 7\nif i < 1 then middle\nrows:\nx = i * 2\nmiddle:\nprint x\n"
+                + "i = i + 1\nif i < 5 then rows\n";
+        String line = report(source);
+        assertTrue(line, line.contains("jumps into the middle of it"));
+        assertEquals("7\n2\n4\n6\n8", run(source, true, null));
+    }
+
+    @Test
+    public void anArrayWriteKeepsTheLoopSequential() {
+        String source = "a[0] = 0\ni = 0\nrows:\na[i] = i\ni = i + 1\nif i < 10 then rows\nprint sum(a)\n";
+        String line = report(source);
+        assertTrue(line, line.contains("writes to the array a"));
+        assertEquals("45", run(source, true, null));
+    }
+}
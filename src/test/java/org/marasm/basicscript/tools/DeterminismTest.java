@@ -0,0 +1,37 @@
+package org.marasm.basicscript.tools;
+
+import org.junit.Test;
+import org.marasm.basicscript.Jasic;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeterminismTest {
+
+    private static boolean isDeterministic(String source) {
+        Jasic jasic = new Jasic();
+        jasic.compile(source);
+        return jasic.isDeterministic();
+    }
+
+    @Test
+    public void aScriptOfPlainArithmeticIsDeterministic() {
+        assertTrue(isDeterministic("def fn square(a) = a * a\nx = square(3) + sqrt(16)\nprint x\n"));
+    }
+
+    @Test
+    public void rndIsFoundThroughUserFunctions() {
+        assertFalse(isDeterministic("print rnd()\n"));
+        String roll = "def fn roll(a) = floor(rnd() * a)\ndef fn twice(a) = roll(a) + roll(a)\n";
+        assertTrue(isDeterministic(roll + "print 1\n"));
+        assertFalse(isDeterministic(roll + "print twice(6)\n"));
+        assertFalse(isDeterministic(roll + "x[twice(6)] = 1\n"));
+    }
+
+    @Test
+    public void readingASharedVariableIsNotDeterministic() {
+        assertFalse(isDeterministic("print shared.total\n"));
+        assertFalse(isDeterministic("x = shared.total + 1\nprint x\n"));
+        assertFalse(isDeterministic("shared.total = 1\n"));
+    }
+}
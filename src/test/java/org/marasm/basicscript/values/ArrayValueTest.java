@@ -0,0 +1,104 @@
+package org.marasm.basicscript.values;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ArrayValueTest {
+
+    @Test
+    public void numericStringKeysAreTheSameAsNumbers() {
+        ArrayValue array = new ArrayValue();
+        array.set(new StringValue("3"), new NumberValue(5));
+        array.set(new NumberValue(0), new NumberValue(1));
+        assertEquals(5, array.get(new StringValue("3")).toNumber(), 0);
+        assertEquals(5, array.get(new NumberValue(3)).toNumber(), 0);
+        assertEquals(5, array.getNumber(3), 0);
+    }
+
+    @Test
+    public void keyedNumbersMoveIntoTheDensePart() {
+        ArrayValue array = new ArrayValue();
+        array.set(new NumberValue(100), new NumberValue(7));
+        for (int i = 0; i < 100; i++) {
+            array.setNumber(i, i);
+        }
+        assertEquals(7, array.get(new StringValue("100")).toNumber(), 0);
+        assertEquals(101, array.length());
+        assertEquals(0, array.keyed().size());
+    }
+
+    @Test
+    public void otherStringsStayKeyed() {
+        ArrayValue array = new ArrayValue();
+        array.set(new StringValue("03"), new NumberValue(1));
+        array.set(new StringValue("x"), new NumberValue(2));
+        array.set(new NumberValue(3), new NumberValue(3));
+        assertEquals(1, array.get(new StringValue("03")).toNumber(), 0);
+        assertEquals(2, array.get(new StringValue("x")).toNumber(), 0);
+        assertEquals(3, array.get(new StringValue("3")).toNumber(), 0);
+    }
+
+    @Test
+    public void snapshotsKeepEveryPageAsItWas() {
+        ArrayValue array = new ArrayValue();
+        array.fill(new NumberValue(1), 10000);
+        ArrayValue snapshot = array.snapshot();
+        array.setNumber(5000, 2);
+        array.fill(new NumberValue(3), 100);
+        double[] numbers = new double[10000];
+        snapshot.copyNumbers(0, numbers, numbers.length);
+        for (double number : numbers) {
+            assertEquals(1, number, 0);
+        }
+        assertEquals(2, array.getNumber(5000), 0);
+        assertEquals(3, array.getNumber(99), 0);
+    }
+
+    @Test
+    public void snapshotsKeepTheOldStorageWhenTheArrayGrows() {
+        ArrayValue array = new ArrayValue();
+        array.fill(new NumberValue(1), 16);
+        ArrayValue snapshot = array.snapshot();
+        for (int i = 0; i < 1000; i++) {
+            array.setNumber(i, 2);
+        }
+        assertEquals(16, snapshot.length());
+        assertEquals(1, snapshot.getNumber(15), 0);
+        assertEquals(0, snapshot.getNumber(16), 0);
+        assertEquals(2, array.getNumber(999), 0);
+    }
+
+    @Test
+    public void snapshotsOfValues() {
+        ArrayValue array = new ArrayValue();
+        array.set(new NumberValue(0), new StringValue("a"));
+        array.set(new StringValue("key"), new StringValue("b"));
+        ArrayValue snapshot = array.snapshot();
+        array.set(new NumberValue(0), new StringValue("c"));
+        array.set(new StringValue("key"), new StringValue("d"));
+        assertEquals("a", snapshot.get(new NumberValue(0)).toString());
+        assertEquals("b", snapshot.get(new StringValue("key")).toString());
+    }
+
+    @Test
+    public void releasedSnapshotsStopTheCopying() {
+        ArrayValue array = new ArrayValue();
+        array.fill(new NumberValue(1), 10000);
+        array.snapshot().release();
+        array.setNumber(0, 2);
+        ArrayValue snapshot = array.snapshot();
+        array.setNumber(0, 3);
+        assertEquals(2, snapshot.getNumber(0), 0);
+    }
+
+    @Test
+    public void snapshotsDontSeeLaterWrites() {
+        ArrayValue array = new ArrayValue();
+        array.setNumber(0, 1);
+        ArrayValue snapshot = array.snapshot();
+        array.setNumber(0, 2);
+        assertEquals(1, snapshot.getNumber(0), 0);
+        assertEquals(2, array.getNumber(0), 0);
+    }
+}